@@ -0,0 +1,1424 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks for the hot paths.
+ *
+ * Usage:
+ *   javac Benchmarks.java
+ *   java Benchmarks            (runs everything)
+ *   java Benchmarks events     (runs the named benchmarks only)
+ *
+ * "model", "ui" and "ids" are micro-benchmarks in the style of JMH: each one is
+ * warmed up, then timed over several iterations, and reported as time per
+ * operation plus bytes allocated per operation and allocation rate (JMH's
+ * gc.alloc.rate). Options, as system properties:
+ *   -Dbench.sizes=1000,100000,10000000   store sizes to run at; sizes that
+ *                                        would not fit in the heap are skipped
+ *   -Dbench.save=FILE                    write the results as CSV
+ *   -Dbench.baseline=FILE                compare against saved results and
+ *                                        exit with status 3 if any benchmark is
+ *                                        more than -Dbench.tolerance percent
+ *                                        (default 15) slower
+ * The "ui" benchmarks need a display and are skipped on headless machines.
+ */
+public class Benchmarks {
+
+    private static final Map<String, Runnable> BENCHMARKS = new LinkedHashMap<>();
+    static {
+        BENCHMARKS.put("model", Benchmarks::modelHotPaths);
+        BENCHMARKS.put("ui", Benchmarks::panelHotPaths);
+        BENCHMARKS.put("ids", Benchmarks::idGeneration);
+        BENCHMARKS.put("items", Benchmarks::lineItemStorage);
+        BENCHMARKS.put("records", Benchmarks::mappedRecords);
+        BENCHMARKS.put("search", Benchmarks::searchQueries);
+        BENCHMARKS.put("sorted", Benchmarks::sortedIndex);
+        BENCHMARKS.put("events", Benchmarks::eventBusPublish);
+        BENCHMARKS.put("export", Benchmarks::exportThroughput);
+        BENCHMARKS.put("reports", Benchmarks::reportsScan);
+        BENCHMARKS.put("snapshot", Benchmarks::snapshotReads);
+        BENCHMARKS.put("metrics", Benchmarks::metricsOverhead);
+        BENCHMARKS.put("generate", Benchmarks::dataGeneration);
+        BENCHMARKS.put("placement", Benchmarks::orderPlacement);
+        BENCHMARKS.put("http", Benchmarks::httpLoad);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            BENCHMARKS.values().forEach(Runnable::run);
+        }
+        for (String name : args) {
+            Runnable benchmark = BENCHMARKS.get(name);
+            if (benchmark == null) {
+                System.err.println("Unknown benchmark '" + name + "'. Available: " + BENCHMARKS.keySet());
+                System.exit(1);
+            }
+            benchmark.run();
+        }
+        if (!Micro.results.isEmpty() && !Micro.saveAndCompare()) {
+            System.exit(3);
+        }
+    }
+
+    /**
+     * Order.addItem/recalculateTotal and ID lookups, the latter at
+     * each of the configured store sizes.
+     */
+    static void modelHotPaths() {
+        System.out.println("== Model hot paths ==");
+        Micro.header();
+        Product[] catalog = new Product[64];
+        for (int i = 0; i < catalog.length; i++) {
+            catalog[i] = new Product(i + 1, "Product " + i, 100 + i * 325, 100);
+        }
+        User user = new User(1, "user0", "user0@example.com");
+        Date date = new Date();
+
+        int[] next = new int[1];
+        Micro.measure("Order.addItem x4 (new order)", () -> {
+            Order o = new Order(1, user, date, "Pending");
+            int i = next[0]++ & 63;
+            for (int n = 0; n < 4; n++) o.addItem(catalog[(i + n) & 63], 1 + n);
+            return o;
+        });
+        Micro.measure("Order.addItem x200 (new order)", () -> {
+            Order o = new Order(1, user, date, "Pending");
+            for (int n = 0; n < 200; n++) o.addItem(catalog[n & 63], 1);
+            return o;
+        });
+        Order big = new Order(1, user, date, "Pending");
+        for (int i = 0; i < 20; i++) big.addItem(catalog[i], 1 + i % 3);
+        Micro.measure("Order.recalculateTotal (20 items)", () -> {
+            big.recalculateTotal();
+            return big.totalPrice;
+        });
+
+        for (int size : Micro.sizes()) {
+            if (!Micro.fits(size, 700)) continue; // ~700 bytes per user+product+order row
+            EntityStore<User> users = new EntityStore<>(u -> u.id);
+            EntityStore<Product> products = new EntityStore<>(p -> p.id);
+            EntityStore<Order> orders = new EntityStore<>(o -> o.id);
+            fillStores(users, products, orders, size, size, size);
+            long[] userIds = new long[1024];
+            long[] orderIds = new long[1024];
+            Random random = new Random(7);
+            for (int i = 0; i < 1024; i++) {
+                userIds[i] = 1 + random.nextInt(size);
+                orderIds[i] = 1 + random.nextInt(size);
+            }
+            Micro.measure("users.get(id) @" + Micro.label(size), () -> users.get(userIds[next[0]++ & 1023]));
+            Micro.measure("orders.get(id) @" + Micro.label(size), () -> orders.get(orderIds[next[0]++ & 1023]));
+            Micro.measure("orders.indexOf(order) @" + Micro.label(size),
+                    () -> orders.indexOf(orders.get(orderIds[next[0]++ & 1023])) >= 0); // Boolean, not a boxed int
+        }
+    }
+
+    /**
+     * loadTableData for each management panel (a full reload, and one
+     * edited row) plus rendering a screenful of cells, and
+     * DashboardPanel.updateStats, at each of the configured store sizes.
+     * Runs on the EDT against a window that is built but never shown.
+     */
+    static void panelHotPaths() {
+        System.out.println("== Panel hot paths ==");
+        if (java.awt.GraphicsEnvironment.isHeadless()) {
+            System.out.println("skipped: needs a display");
+            return;
+        }
+        Micro.header();
+        for (int size : Micro.sizes()) {
+            if (!Micro.fits(size, 900)) continue; // The UI adds little per row on top of the stores
+            Shop shop = new Shop(javax.swing.SwingUtilities::invokeLater);
+            fillStores(shop.users, shop.products, shop.orders, size, size, size);
+            onEdt(() -> {
+                EcommerceApp app = new EcommerceApp(shop);
+                app.ensureCard("USERS");
+                app.ensureCard("PRODUCTS");
+                app.ensureCard("ORDERS");
+                String at = " @" + Micro.label(size);
+                panelHotPaths(app.userPanel, "UserManagementPanel", at, shop.users);
+                panelHotPaths(app.productPanel, "ProductManagementPanel", at, shop.products);
+                panelHotPaths(app.orderPanel, "OrderManagementPanel", at, shop.orders);
+                Micro.measure("DashboardPanel.updateStats" + at, () -> {
+                    app.dashboardPanel.updateStats();
+                    return app.dashboardPanel;
+                });
+                app.dispose();
+            });
+        }
+    }
+
+    private static <T> void panelHotPaths(EcommerceApp.BaseManagementPanel<T> panel, String name, String at,
+                                          EntityStore<T> store) {
+        Micro.measure(name + ".loadTableData (reload)" + at, () -> {
+            panel.markAllChanged();
+            panel.loadTableData();
+            return panel;
+        });
+        int[] next = new int[1];
+        Micro.measure(name + ".loadTableData (1 edit)" + at, () -> {
+            panel.markUpdated(store.getAt((next[0]++ * 7919) % store.size()));
+            panel.loadTableData();
+            return panel;
+        });
+        int columns = panel.tableModel.getColumnCount();
+        Micro.measure(name + " render 40 rows" + at, () -> {
+            int first = (next[0]++ * 7919) % Math.max(1, store.size() - 40);
+            Object last = null;
+            for (int row = first; row < first + 40 && row < store.size(); row++) {
+                for (int column = 0; column < columns; column++) last = panel.tableModel.getValueAt(row, column);
+            }
+            return last;
+        });
+    }
+
+    private static void onEdt(Runnable task) {
+        try {
+            javax.swing.SwingUtilities.invokeAndWait(task);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ids.next throughput from 1..N threads, checking that no ID was handed
+     * out twice and that each thread's IDs increase; fails with an
+     * AssertionError otherwise. Then the single-threaded cost of next and
+     * format against the UUID strings they replaced.
+     */
+    static void idGeneration() {
+        System.out.println("== ID generation ==");
+        int perThread = 2_000_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int round = 0; round < 3; round++) { // First rounds are warm-up
+                long[][] generated = new long[threads][perThread];
+                AtomicInteger slot = new AtomicInteger();
+                long elapsed = runConcurrently(threads, () -> {
+                    long[] ids = generated[slot.getAndIncrement()];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = Ids.next();
+                    }
+                });
+                long[] all = new long[threads * perThread];
+                for (int t = 0; t < threads; t++) {
+                    for (int i = 1; i < perThread; i++) {
+                        if (generated[t][i] <= generated[t][i - 1]) {
+                            throw new AssertionError("threads=" + threads + ": IDs out of order on one thread");
+                        }
+                    }
+                    System.arraycopy(generated[t], 0, all, t * perThread, perThread);
+                }
+                Arrays.sort(all);
+                for (int i = 1; i < all.length; i++) {
+                    if (all[i] == all[i - 1]) {
+                        throw new AssertionError("threads=" + threads + ": duplicate ID " + Ids.format(all[i]));
+                    }
+                }
+                if (round == 2) {
+                    System.out.printf("threads=%-2d %,8.1f M ids/s   duplicates 0%n",
+                            threads, all.length / (elapsed / 1e3) / 1e6);
+                }
+            }
+        }
+        Micro.header();
+        Micro.measure("Ids.next", Ids::next);
+        long id = Ids.next();
+        Micro.measure("Ids.format", () -> Ids.format(id));
+        Micro.measure("UUID.randomUUID().toString() (for comparison)", () -> java.util.UUID.randomUUID().toString());
+    }
+
+    /**
+     * Heap per line item and the cost of scanning every item, for the
+     * columnar storage in Order against the layout it replaced, an ArrayList
+     * of OrderItem objects per order. -Dbench.items (default 2,000,000) items
+     * in orders of 1-4. First checks that other threads read orders' items
+     * correctly while the thread that built them goes on appending.
+     */
+    static void lineItemStorage() {
+        System.out.println("== Line item storage ==");
+        checkConcurrentLineReads();
+        int itemCount = Integer.getInteger("bench.items", 2_000_000);
+        if (!Micro.fits(itemCount, 150)) return; // Both layouts at once, plus the orders
+        Product[] catalog = new Product[10_000];
+        for (int i = 0; i < catalog.length; i++) {
+            catalog[i] = new Product(i + 1, "Product " + i, 100 + i, 100);
+        }
+        User user = new User(1, "user0", "user0@example.com");
+        Date date = new Date();
+        Random random = new Random(42);
+        List<Order> orders = new ArrayList<>();
+        for (int items = 0; items < itemCount; orders.add(new Order(orders.size() + 1, user, date, "Pending"))) {
+            items += 1 + random.nextInt(4);
+        }
+
+        long before = usedHeap();
+        random = new Random(42);
+        for (Order o : orders) {
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                o.addItem(catalog[random.nextInt(catalog.length)], 1 + random.nextInt(3));
+            }
+        }
+        long columnar = usedHeap() - before;
+
+        before = usedHeap();
+        List<List<OrderItem>> boxed = new ArrayList<>(orders.size());
+        for (Order o : orders) {
+            List<OrderItem> items = new ArrayList<>(); // Default capacity, as Order had
+            for (int i = 0; i < o.getItemCount(); i++) items.add(o.getItem(i));
+            boxed.add(items);
+        }
+        long objects = usedHeap() - before - 4L * orders.size(); // Less the outer list
+        System.out.printf("%,d items: columnar %,.1f B/item, ArrayList<OrderItem> %,.1f B/item (%.1fx)%n",
+                itemCount, (double) columnar / itemCount, (double) objects / itemCount, (double) objects / columnar);
+
+        Micro.header();
+        Micro.measure("scan revenue, columnar @" + Micro.label(itemCount), () -> {
+            long revenue = 0;
+            for (int i = 0; i < orders.size(); i++) {
+                Order o = orders.get(i);
+                for (int n = 0; n < o.getItemCount(); n++) revenue += o.getLineTotal(n);
+            }
+            return revenue;
+        });
+        Micro.measure("scan revenue, ArrayList<OrderItem> @" + Micro.label(itemCount), () -> {
+            long revenue = 0;
+            for (int i = 0; i < boxed.size(); i++) {
+                List<OrderItem> items = boxed.get(i);
+                for (int n = 0; n < items.size(); n++) revenue += items.get(n).getTotalPrice();
+            }
+            return revenue;
+        });
+        Micro.sink = boxed;
+    }
+
+    /**
+     * One thread builds orders, filling chunk after chunk and growing their
+     * product tables, and publishes each once built, as the owner thread
+     * does through a snapshot and DataGenerator's workers through the
+     * owner's queue. Meanwhile other threads read published orders and
+     * check every item against what was written. Fails with an
+     * AssertionError on any difference.
+     */
+    private static void checkConcurrentLineReads() {
+        int orderCount = 200_000;
+        Product[] catalog = new Product[50_000];
+        for (int i = 0; i < catalog.length; i++) {
+            catalog[i] = new Product(i + 1, "Product " + i, 100 + i, 100);
+        }
+        User user = new User(1, "user0", "user0@example.com");
+        Date date = new Date();
+        Order[] orders = new Order[orderCount];
+        AtomicInteger published = new AtomicInteger(); // orders[i] below it are built
+        AtomicInteger roles = new AtomicInteger();
+        AtomicLong reads = new AtomicLong();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        runConcurrently(4, () -> {
+            if (roles.getAndIncrement() == 0) {
+                for (int i = 0; i < orderCount; i++) {
+                    Order o = new Order(i + 1, user, date, "Pending");
+                    for (int n = 0; n <= i % 4; n++) {
+                        o.addItem(catalog[(i * 7 + n) % catalog.length], n + 1);
+                    }
+                    orders[i] = o;
+                    published.set(i + 1);
+                }
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long checked = 0;
+            for (int count; (count = published.get()) < orderCount && errors.isEmpty(); ) {
+                if (count == 0) continue;
+                int i = random.nextInt(count);
+                Order o = orders[i];
+                long total = 0;
+                for (int n = 0; n < o.getItemCount(); n++) {
+                    Product expected = catalog[(i * 7 + n) % catalog.length];
+                    if (o.getProduct(n) != expected || o.getQuantity(n) != n + 1
+                            || o.getUnitPrice(n) != expected.getPrice()) {
+                        Product read = o.getProduct(n);
+                        errors.add("Order " + (i + 1) + " item " + n + " read product "
+                                + (read == null ? null : read.id) + " x" + o.getQuantity(n) + " at " + o.getUnitPrice(n));
+                        break;
+                    }
+                    total += o.getLineTotal(n);
+                }
+                if (o.getItemCount() != i % 4 + 1 || total != o.totalPrice) {
+                    errors.add("Order " + (i + 1) + " read " + o.getItemCount() + " items totalling " + total);
+                }
+                checked++;
+            }
+            reads.addAndGet(checked);
+        });
+        if (!errors.isEmpty()) {
+            throw new AssertionError("Line items read wrong while being appended: " + errors.peek());
+        }
+        System.out.printf("%,d orders built while 3 threads read them back: %,d reads, all as written%n",
+                orderCount, reads.get());
+    }
+
+    /**
+     * Heap per user and product, and the cost of reading and writing their
+     * fields, with the fields on the heap and in MappedRecords, for
+     * -Dbench.records (default 2,000,000) of each. Then checks that mapped
+     * fields read back as written, including after edits, for non-ASCII
+     * and null strings, and that a store snapshot still sees a mapped
+     * product as it was. Fails with an AssertionError if not.
+     */
+    static void mappedRecords() {
+        System.out.println("== Mapped records ==");
+        int count = Integer.getInteger("bench.records", 2_000_000);
+        if (!Micro.fits(count, 400)) return; // Both layouts at once
+        Path dir = null;
+        MappedRecords records = null;
+        try {
+            dir = Files.createTempDirectory("records");
+            records = MappedRecords.open(dir);
+
+            long before = usedHeap();
+            User[] heapUsers = new User[count];
+            Product[] heapProducts = new Product[count];
+            for (int i = 0; i < count; i++) {
+                heapUsers[i] = new User(i + 1, "user_" + i, "user." + i + "@example.com");
+                heapProducts[i] = new Product(i + 1, "Wireless Keyboard Model " + i, 999 + i, i % 500);
+            }
+            long onHeap = usedHeap() - before;
+
+            before = usedHeap();
+            User[] mappedUsers = new User[count];
+            Product[] mappedProducts = new Product[count];
+            for (int i = 0; i < count; i++) {
+                mappedUsers[i] = new User(heapUsers[i]);
+                mappedUsers[i].moveTo(records);
+                mappedProducts[i] = new Product(heapProducts[i]);
+                mappedProducts[i].moveTo(records);
+            }
+            long mapped = usedHeap() - before;
+            System.out.printf("%,d users + %,d products: heap fields %,.1f B/record, mapped %,.1f B/record heap"
+                            + " + %,.1f B/record in files (%.1fx less heap)%n", count, count,
+                    onHeap / 2.0 / count, mapped / 2.0 / count, records.getUsedBytes() / 2.0 / count,
+                    (double) onHeap / mapped);
+
+            for (int i = 0; i < count; i += 997) {
+                if (!mappedUsers[i].getEmail().equals(heapUsers[i].getEmail())
+                        || !mappedProducts[i].getName().equals(heapProducts[i].getName())
+                        || mappedProducts[i].getPrice() != heapProducts[i].getPrice()
+                        || mappedProducts[i].getStock() != heapProducts[i].getStock()) {
+                    throw new AssertionError("Mapped record " + i + " differs from the heap one");
+                }
+            }
+
+            Micro.header();
+            int[] next = new int[1];
+            Micro.measure("Product.getPrice, heap @" + Micro.label(count),
+                    () -> heapProducts[next[0] = (next[0] + 7919) % count].getPrice());
+            Micro.measure("Product.getPrice, mapped @" + Micro.label(count),
+                    () -> mappedProducts[next[0] = (next[0] + 7919) % count].getPrice());
+            Micro.measure("Product.getName, heap @" + Micro.label(count),
+                    () -> heapProducts[next[0] = (next[0] + 7919) % count].getName());
+            Micro.measure("Product.getName, mapped @" + Micro.label(count),
+                    () -> mappedProducts[next[0] = (next[0] + 7919) % count].getName());
+            Micro.measure("Product.setStock, mapped @" + Micro.label(count), () -> {
+                Product p = mappedProducts[next[0] = (next[0] + 7919) % count];
+                p.setStock(p.getStock() + 1);
+                return p;
+            });
+
+            checkMappedFields(records, dir);
+            System.out.println("Mapped fields read back as written, through edits and snapshots");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                if (records != null) records.close();
+                if (dir != null) {
+                    for (String file : new String[]{"users.slots", "products.slots", "strings.arena"}) {
+                        Files.deleteIfExists(dir.resolve(file));
+                    }
+                    Files.deleteIfExists(dir);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not clean up " + dir + ": " + e);
+            }
+        }
+    }
+
+    private static void checkMappedFields(MappedRecords records, Path dir) throws IOException {
+        User u = new User(Ids.next(), "zo\u00eb_\u00fcn\u00efcode", null);
+        u.moveTo(records);
+        u.setEmail("zo\u00eb@example.com");
+        long arena = records.getArenaBytes();
+        u.setUsername("zo\u00eb_\u00fcn\u00efcode"); // Unchanged, so nothing is appended
+        if (!"zo\u00eb_\u00fcn\u00efcode".equals(u.getUsername()) || !"zo\u00eb@example.com".equals(u.getEmail())
+                || records.getArenaBytes() != arena) {
+            throw new AssertionError("Mapped user reads back as " + u.getUsername() + ", " + u.getEmail()
+                    + " after " + (records.getArenaBytes() - arena) + " arena bytes");
+        }
+        u.setEmail(null);
+        u.setUsername("");
+        if (u.getEmail() != null || !u.getUsername().isEmpty()) {
+            throw new AssertionError("Mapped user lost a null or empty string");
+        }
+
+        Shop shop = new Shop(Runnable::run);
+        Path shopDir = Files.createTempDirectory(dir, "shop");
+        try {
+            Product p = new Product(Ids.next(), "Laptop Pro", 129_999, 50);
+            shop.products.add(p);
+            shop.mapRecords(shopDir);
+            Product q = new Product(Ids.next(), "4K Monitor", 39_900, 75);
+            shop.products.add(q);
+            try (EntityStore.Snapshot<Product> snapshot = shop.products.snapshot()) {
+                shop.products.update(p, x -> { x.setName("Laptop Pro 2"); x.setPrice(149_999); });
+                shop.products.update(q, x -> x.setStock(74));
+                String before = snapshot.read(0, x -> x.getName() + " " + x.getPrice())
+                        + ", " + snapshot.read(1, x -> x.getName() + " " + x.getStock());
+                if (!before.equals("Laptop Pro 129999, 4K Monitor 75")) {
+                    throw new AssertionError("Snapshot of mapped products reads " + before);
+                }
+            }
+            if (!p.getName().equals("Laptop Pro 2") || p.getPrice() != 149_999 || q.getStock() != 74
+                    || shop.productSearch.search("lapt", 10).size() != 1
+                    || shop.productsByPrice.get(shop.productsByPrice.size() - 1) != p) {
+                throw new AssertionError("Mapped products missed an update");
+            }
+        } finally {
+            shop.close();
+            for (String file : new String[]{"users.slots", "products.slots", "strings.arena"}) {
+                Files.deleteIfExists(shopDir.resolve(file));
+            }
+            Files.deleteIfExists(shopDir);
+        }
+    }
+
+    /**
+     * SearchIndex queries over -Dbench.products (default 1,000,000)
+     * products named with two or three words from a 2,000-word vocabulary
+     * and a model number, so common prefixes match many products and rare
+     * ones few.
+     */
+    static void searchQueries() {
+        System.out.println("== Search ==");
+        int productCount = Integer.getInteger("bench.products", 1_000_000);
+        if (!Micro.fits(productCount, 400)) return;
+        Random random = new Random(42);
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[3 + random.nextInt(6)];
+            for (int c = 0; c < word.length; c++) word[c] = (char) ('a' + random.nextInt(26));
+            vocabulary[i] = new String(word);
+        }
+        EntityStore<Product> products = new EntityStore<>(p -> p.id);
+        SearchIndex<Product> index = new SearchIndex<>(products, p -> p.id, Product::getName);
+        long begin = System.nanoTime();
+        for (int i = 0; i < productCount; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int n = 2 + random.nextInt(2); n > 0; n--) {
+                name.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+            }
+            name.append("M").append(random.nextInt(100_000));
+            products.add(new Product(i + 1, name.toString(), 100, 10));
+        }
+        System.out.printf("indexed %,d products in %,d ms%n", productCount, (System.nanoTime() - begin) / 1_000_000);
+
+        String common = vocabulary[0];
+        String rare = vocabulary[1] + " " + vocabulary[2];
+        Micro.header();
+        for (String query : new String[]{"a", common.substring(0, 2), common, rare, "m123", common + " m1", "zzzzzzzz"}) {
+            Micro.measure("search \"" + query + "\" @" + Micro.label(productCount), () -> index.search(query, 1000));
+        }
+
+        List<Product> half = new ArrayList<>();
+        for (int i = 0; i < productCount; i += 2) half.add(products.getAt(i));
+        begin = System.nanoTime();
+        products.removeAll(half);
+        long removeNanos = System.nanoTime() - begin;
+        System.out.printf("removed %,d products in one removeAll in %,d ms (%,.0f ns each)%n",
+                half.size(), removeNanos / 1_000_000, (double) removeNanos / half.size());
+    }
+
+    /**
+     * SortedIndex reads by position, range lookups and key changes, at each
+     * of the configured store sizes, against the full sort that a
+     * TableRowSorter would do on every refresh.
+     */
+    static void sortedIndex() {
+        System.out.println("== Sorted index ==");
+        Micro.header();
+        int[] next = new int[1];
+        for (int size : Micro.sizes()) {
+            if (!Micro.fits(size, 300)) continue;
+            EntityStore<Product> products = new EntityStore<>(p -> p.id);
+            SortedIndex<Product> byPrice = new SortedIndex<>(products, p -> p.id, Product::getPrice);
+            Random random = new Random(42);
+            for (int i = 0; i < size; i++) {
+                products.add(new Product(i + 1, "Product " + i, random.nextInt(1_000_000), random.nextInt(1000)));
+            }
+            int[] positions = new int[1024];
+            long[] prices = new long[1024];
+            for (int i = 0; i < 1024; i++) {
+                positions[i] = random.nextInt(size);
+                prices[i] = random.nextInt(1_000_000);
+            }
+            Micro.measure("SortedIndex.get(position) @" + Micro.label(size), () -> byPrice.get(positions[next[0]++ & 1023]));
+            Micro.measure("SortedIndex range lookup @" + Micro.label(size), () -> {
+                long low = prices[next[0]++ & 1023];
+                return byPrice.endAtMost(low + 10_000) - byPrice.firstAtLeast(low) >= 0; // Boolean, not a boxed int
+            });
+            Micro.measure("products.update(price) with index @" + Micro.label(size), () -> {
+                Product p = products.get(1 + positions[next[0]++ & 1023]);
+                products.update(p, x -> x.setPrice(prices[next[0] & 1023]));
+                return byPrice.get(0); // Recomputes the block starts, as a table read would
+            });
+            if (size <= 1_000_000) {
+                Product[] all = products.stream().toArray(Product[]::new);
+                Micro.measure("full sort by price (for comparison) @" + Micro.label(size), () -> {
+                    Product[] copy = all.clone();
+                    Arrays.sort(copy, (a, b) -> Long.compare(a.getPrice(), b.getPrice()));
+                    return copy;
+                });
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Publish throughput on the event bus with 1..N producer threads and two
+     * subscribers draining it, one of which is deliberately slow.
+     */
+    static void eventBusPublish() {
+        System.out.println("== EventBus publish throughput ==");
+        int perProducer = 5_000_000;
+        int maxProducers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (int producers = 1; producers <= maxProducers; producers *= 2) {
+            for (int round = 0; round < 3; round++) { // First rounds are warm-up
+                EventBus bus = new EventBus(1 << 16);
+                AtomicLong fastSeen = new AtomicLong();
+                AtomicLong slowSeen = new AtomicLong();
+                EventBus.Subscription fast = bus.subscribe("fast", batch -> fastSeen.addAndGet(batch.size()));
+                EventBus.Subscription slow = bus.subscribe("slow", new EventBus.Subscriber() {
+                    @Override
+                    public void onEvents(List<EventBus.Event> batch) {
+                        slowSeen.addAndGet(batch.size());
+                        sleepQuietly(1);
+                    }
+                }, 64);
+
+                long elapsed = runConcurrently(producers, () -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        bus.publish(EventBus.Kind.ORDER_ADDED, 1, null);
+                    }
+                });
+                fast.close();
+                slow.close();
+
+                if (round == 2) {
+                    long total = (long) producers * perProducer;
+                    System.out.printf("producers=%-2d %,8.1f M events/s   fast consumer missed %,d   slow consumer missed %,d%n",
+                            producers, total / (elapsed / 1e3) / 1e6,
+                            fast.getMissedCount(), slow.getMissedCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * CSV and JSON-lines export throughput for one million orders.
+     */
+    static void exportThroughput() {
+        System.out.println("== Export throughput ==");
+        EntityStore<User> users = new EntityStore<>(u -> u.id);
+        EntityStore<Product> products = new EntityStore<>(p -> p.id);
+        EntityStore<Order> orders = new EntityStore<>(o -> o.id);
+        fillStores(users, products, orders, 10_000, 10_000, 1_000_000);
+        Exporter exporter = new Exporter(users, products, orders, Runnable::run);
+        try {
+            for (String format : new String[]{"csv", "jsonl"}) {
+                for (Exporter.Kind kind : new Exporter.Kind[]{Exporter.Kind.ORDERS, Exporter.Kind.ORDER_ITEMS}) {
+                    Path file = Files.createTempFile("export", "." + format);
+                    try {
+                        Exporter.Result result = null;
+                        for (int round = 0; round < 3; round++) { // First rounds are warm-up
+                            result = exporter.run(file, kind);
+                        }
+                        System.out.printf("%-11s %-5s %,10d rows %,8.1f MB %,8.1f MB/s%n", kind, format,
+                                result.rows, result.bytes / 1e6, result.bytes / 1e3 / Math.max(1, result.millis));
+                    } finally {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Time to run every report over -Dbench.orders (default 2,000,000)
+     * orders, on the common fork-join pool and on a single thread.
+     */
+    static void reportsScan() {
+        System.out.println("== Reports ==");
+        int orderCount = Integer.getInteger("bench.orders", 2_000_000);
+        if (!Micro.fits(orderCount, 300)) return;
+        EntityStore<User> users = new EntityStore<>(u -> u.id);
+        EntityStore<Product> products = new EntityStore<>(p -> p.id);
+        EntityStore<Order> orders = new EntityStore<>(o -> o.id);
+        fillStores(users, products, orders, 100_000, 10_000, orderCount);
+        Reports reports = new Reports(orders, Runnable::run);
+        int parallelism = java.util.concurrent.ForkJoinPool.getCommonPoolParallelism();
+        Reports.Report report = null;
+        for (int round = 0; round < 5; round++) { // First rounds are warm-up
+            report = reports.run(100);
+        }
+        System.out.printf("%,d orders, %d threads: %,d ms (%,d days, average order $%s)%n", orderCount,
+                parallelism, report.millis, report.byDay.size(), Money.format(report.getAverageOrderValue()));
+    }
+
+    /**
+     * Times EntityStore.snapshot at each store size, then stress-tests
+     * snapshot reads: an owner thread keeps rewriting orders' items and
+     * status and replacing orders while reader threads read snapshots.
+     * Every order is written so its quantities, status and total agree,
+     * and the owner keeps a checksum of all of them, so a torn order or a
+     * snapshot that is not of one point in time is caught. Fails with an
+     * AssertionError if any is.
+     */
+    static void snapshotReads() {
+        System.out.println("== Snapshot reads ==");
+        Micro.header();
+        for (int size : Micro.sizes()) {
+            if (!Micro.fits(size, 300)) continue;
+            EntityStore<User> users = new EntityStore<>(u -> u.id);
+            EntityStore<Product> products = new EntityStore<>(p -> p.id);
+            EntityStore<Order> orders = new EntityStore<>(o -> o.id, Order::new);
+            fillStores(users, products, orders, 1_000, 1_000, size);
+            Order first = orders.getAt(0);
+            Micro.measure("orders.snapshot() + update + close @" + Micro.label(size), () -> {
+                EntityStore.Snapshot<Order> snapshot = orders.snapshot();
+                orders.update(first, o -> o.status = o.status); // Pays for the chunk copy and the frozen copy
+                snapshot.close();
+                return snapshot;
+            });
+        }
+
+        ExecutorService ownerThread = Executors.newSingleThreadExecutor();
+        try {
+            EntityStore<User> users = new EntityStore<>(u -> u.id);
+            EntityStore<Product> products = new EntityStore<>(p -> p.id);
+            EntityStore<Order> orders = new EntityStore<>(o -> o.id, Order::new);
+            fillStores(users, products, orders, 1_000, 1_000, 0);
+            User user = users.get(1);
+            Product[] catalog = products.stream().toArray(Product[]::new);
+            int orderCount = 100_000;
+            Order[] live = new Order[orderCount];
+            long[] checksum = new long[1]; // Sum of every order's generation, owner thread only
+            long[] nextId = {1};
+            for (int i = 0; i < orderCount; i++) {
+                live[i] = newGeneration(new Order(nextId[0]++, user, new Date(), null), 1, catalog, i);
+                orders.add(live[i]);
+                checksum[0] += 1;
+            }
+
+            long deadline = System.nanoTime() + 3_000_000_000L;
+            AtomicLong writes = new AtomicLong();
+            CompletableFuture<Void> writer = new CompletableFuture<>();
+            Runnable writeBatch = new Runnable() {
+                final Random random = new Random(42);
+
+                @Override
+                public void run() {
+                    for (int n = 0; n < 1_000; n++) {
+                        int i = random.nextInt(orderCount);
+                        Order o = live[i];
+                        int generation = o.getQuantity(0);
+                        if (n % 100 == 0) { // Replace the order
+                            orders.remove(o.id);
+                            live[i] = newGeneration(new Order(nextId[0]++, user, new Date(), null), 1, catalog, n);
+                            orders.add(live[i]);
+                            checksum[0] += 1 - generation;
+                        } else {
+                            int next = generation % 50 + 1;
+                            orders.update(o, x -> newGeneration(x, next, catalog, random.nextInt(catalog.length)));
+                            checksum[0] += next - generation;
+                        }
+                    }
+                    writes.addAndGet(1_000);
+                    if (System.nanoTime() < deadline) ownerThread.execute(this); else writer.complete(null);
+                }
+            };
+            ownerThread.execute(writeBatch);
+
+            int readers = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+            AtomicLong snapshots = new AtomicLong();
+            AtomicLong reads = new AtomicLong();
+            AtomicLong torn = new AtomicLong();
+            AtomicLong inconsistent = new AtomicLong();
+            runConcurrently(readers, () -> {
+                long[] read = new long[1]; // The generation read, or -1 if torn
+                while (!writer.isDone()) {
+                    Object[] taken = CompletableFuture.supplyAsync(
+                            () -> new Object[] {orders.snapshot(), checksum[0]}, ownerThread).join();
+                    long sum = 0;
+                    try (@SuppressWarnings("unchecked") EntityStore.Snapshot<Order> snapshot = (EntityStore.Snapshot<Order>) taken[0]) {
+                        for (int i = 0, n = snapshot.getSlotCount(); i < n; i++) {
+                            long[] r = snapshot.read(i, o -> readGeneration(o, read));
+                            if (r == null) continue;
+                            reads.incrementAndGet();
+                            if (r[0] < 0) torn.incrementAndGet(); else sum += r[0];
+                        }
+                    }
+                    snapshots.incrementAndGet();
+                    if (sum != (Long) taken[1]) inconsistent.incrementAndGet();
+                }
+            });
+            if (torn.get() > 0 || inconsistent.get() > 0) {
+                throw new AssertionError(torn.get() + " torn orders, " + inconsistent.get() + " inconsistent snapshots");
+            }
+            System.out.printf("%d readers: %,d snapshots, %,d order reads, %,d writes; torn 0, inconsistent 0%n",
+                    readers, snapshots.get(), reads.get(), writes.get());
+        } finally {
+            ownerThread.shutdown();
+        }
+    }
+
+    /**
+     * Rewrites the order as the given generation: 1-4 items all of that
+     * quantity, and the status that goes with it.
+     */
+    private static Order newGeneration(Order o, int generation, Product[] catalog, int seed) {
+        o.clearItems();
+        for (int n = 0; n <= seed % 4; n++) {
+            o.addItem(catalog[(seed + n * 7) % catalog.length], generation);
+        }
+        o.status = Order.STATUSES[generation % Order.STATUSES.length];
+        return o;
+    }
+
+    /**
+     * Reads an order's generation into read[0], or -1 if its items, total
+     * and status do not agree.
+     */
+    private static long[] readGeneration(Order o, long[] read) {
+        int generation = o.getQuantity(0);
+        long total = 0;
+        boolean agree = o.status.equals(Order.STATUSES[generation % Order.STATUSES.length]);
+        for (int i = 0; i < o.getItemCount(); i++) {
+            agree &= o.getQuantity(i) == generation;
+            total += o.getLineTotal(i);
+        }
+        read[0] = agree && total == o.totalPrice ? generation : -1;
+        return read;
+    }
+
+    /**
+     * The cost of the diagnostics: recording into a histogram, and timing
+     * the dashboard figures, an order status change and, given a display,
+     * an order table refresh (the work behind refreshes and actions)
+     * against running them untimed. The dashboard figures without their
+     * painting are the cheapest timed path there is. Then checks
+     * that the EDT watchdog catches a stall with the EDT's stack and stays
+     * quiet while the EDT is idle; fails with an AssertionError otherwise.
+     */
+    static void metricsOverhead() {
+        System.out.println("== Metrics overhead ==");
+        Micro.header();
+        Metrics.Histogram histogram = Metrics.histogram("bench.record");
+        long[] next = new long[1];
+        Micro.measure("Histogram.record", () -> {
+            histogram.record(next[0]++ & 0xFFFFF);
+            return histogram;
+        });
+
+        Shop shop = new Shop(Runnable::run);
+        fillStores(shop.users, shop.products, shop.orders, 1_000, 1_000, 100_000);
+        long[] dashboard = new long[2 * shop.salesTimeline.getMinutes()];
+        Runnable stats = () -> {
+            shop.salesTimeline.copyTo(dashboard, dashboard);
+            dashboard[0] += shop.users.size() + shop.ordersByStatus.count("Pending") + shop.salesStats.getRealizedSales();
+        };
+        Runnable statusChange = () -> {
+            Order o = shop.orders.getAt((int) (next[0]++ * 7919 % shop.orders.size()));
+            shop.orders.update(o, x -> x.status = Order.STATUSES[(Order.statusIndex(x.status) + 1) % 4]);
+        };
+        overhead("dashboard figures, unpainted (worst case)", stats);
+        overhead("order status change", statusChange);
+        if (java.awt.GraphicsEnvironment.isHeadless()) {
+            System.out.println("OrderManagementPanel.loadTableData skipped: needs a display");
+        } else {
+            onEdt(() -> {
+                EcommerceApp app = new EcommerceApp(shop);
+                app.ensureCard("ORDERS");
+                overhead("OrderManagementPanel.loadTableData (1 edit)", () -> {
+                    app.orderPanel.markUpdated(shop.orders.getAt((int) (next[0]++ * 7919 % shop.orders.size())));
+                    app.orderPanel.loadTableData();
+                });
+                app.dispose();
+            });
+        }
+
+        EdtWatchdog watchdog = new EdtWatchdog(100);
+        Thread thread = new Thread(watchdog, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            sleepQuietly(1_000);
+            if (watchdog.getStallCount() != 0) {
+                throw new AssertionError("Watchdog reported a stall of an idle EDT");
+            }
+            onEdt(() -> sleepQuietly(500));
+            sleepQuietly(200); // Lets the watchdog see the heartbeat
+            List<EdtWatchdog.Stall> stalls = watchdog.getRecentStalls();
+            if (stalls.size() != 1 || stalls.get(0).getMillis() < 300
+                    || Arrays.stream(stalls.get(0).stack).noneMatch(f -> f.getMethodName().equals("sleepQuietly"))) {
+                throw new AssertionError("Watchdog missed a 500 ms stall: " + stalls);
+            }
+            System.out.printf("EDT watchdog: caught a 500 ms stall as %d ms, with the EDT's stack; no false alarms%n",
+                    stalls.get(0).getMillis());
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Measures the task untimed and wrapped in Metrics.timed, and prints
+     * the difference.
+     */
+    private static void overhead(String name, Runnable task) {
+        Runnable timed = Metrics.timed("bench." + name, task);
+        Micro.measure(name, () -> {
+            task.run();
+            return task;
+        });
+        Micro.measure(name + " (timed)", () -> {
+            timed.run();
+            return timed;
+        });
+        double plain = Micro.results.get(name)[0];
+        double withMetrics = Micro.results.get(name + " (timed)")[0];
+        System.out.printf("%-58s %+14.1f ns (%+.1f%%)%n", "  overhead", withMetrics - plain,
+                (withMetrics / plain - 1) * 100);
+    }
+
+    /**
+     * DataGenerator throughput into the stores and into CSV files, at
+     * -Dbench.orders (default 2,000,000) orders. Then checks that the data
+     * depends on the seed alone: one worker and all of them must write the
+     * same bytes, and another seed different ones. Fails with an
+     * AssertionError if not.
+     */
+    static void dataGeneration() {
+        System.out.println("== Data generation ==");
+        int orderCount = Integer.getInteger("bench.orders", 2_000_000);
+        if (!Micro.fits(orderCount, 300)) return;
+        int workers = Runtime.getRuntime().availableProcessors();
+        DataGenerator.Config config = new DataGenerator.Config(42, orderCount / 20, orderCount / 200, orderCount);
+        Path dir = null;
+        try {
+            for (int round = 0; round < 3; round++) { // First rounds are warm-up
+                Shop shop = new Shop(Runnable::run);
+                DataGenerator.Result result = new DataGenerator(config)
+                        .populate(shop.users, shop.products, shop.orders, Runnable::run);
+                if (round == 2) {
+                    long rows = result.users + result.products + result.orders;
+                    System.out.printf("populate, %d threads: %,d rows in %,d ms (%,.0f rows/s)%n",
+                            workers, rows, result.millis, rows * 1e3 / Math.max(1, result.millis));
+                }
+            }
+            dir = Files.createTempDirectory("generate");
+            DataGenerator.Result result = null;
+            for (int round = 0; round < 3; round++) {
+                result = new DataGenerator(config).writeCsv(dir);
+            }
+            long bytes = 0;
+            for (String file : new String[]{"users.csv", "products.csv", "orders.csv"}) {
+                bytes += Files.size(dir.resolve(file));
+            }
+            System.out.printf("writeCsv, %d threads: %,d rows %,8.1f MB in %,d ms (%,.1f MB/s)%n",
+                    workers, result.users + result.products + result.orders, bytes / 1e6, result.millis,
+                    bytes / 1e3 / Math.max(1, result.millis));
+
+            DataGenerator.Config small = new DataGenerator.Config(7, 5_000, 1_000, 100_000);
+            int many = Math.max(4, workers); // Even on a small machine, so chunks really finish out of order
+            long[] parallel = csvChecksums(new DataGenerator(small, many), dir);
+            long[] single = csvChecksums(new DataGenerator(small, 1), dir);
+            long[] reseeded = csvChecksums(new DataGenerator(new DataGenerator.Config(8, 5_000, 1_000, 100_000)), dir);
+            if (!Arrays.equals(parallel, single)) {
+                throw new AssertionError("Data differs between 1 and " + many + " workers");
+            }
+            for (int i = 0; i < parallel.length; i++) {
+                if (parallel[i] == reseeded[i]) throw new AssertionError("Seeds 7 and 8 gave the same file " + i);
+            }
+            System.out.printf("Deterministic: 1 and %d workers wrote the same bytes; another seed did not%n", many);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (dir != null) {
+                for (String file : new String[]{"users.csv", "products.csv", "orders.csv"}) {
+                    try {
+                        Files.deleteIfExists(dir.resolve(file));
+                    } catch (IOException e) {
+                        // Left for the OS's temp cleanup
+                    }
+                }
+                dir.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * CRC32 of each generated CSV file.
+     */
+    private static long[] csvChecksums(DataGenerator generator, Path dir) throws IOException {
+        generator.writeCsv(dir);
+        long[] checksums = new long[3];
+        String[] files = {"users.csv", "products.csv", "orders.csv"};
+        for (int i = 0; i < files.length; i++) {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(Files.readAllBytes(dir.resolve(files[i])));
+            checksums[i] = crc.getValue();
+        }
+        return checksums;
+    }
+
+    /**
+     * Stress test for concurrent order placement: 1..N threads place random
+     * orders for far more stock than there is, then the stores are checked
+     * for overselling. Then checks that an order whose stock was edited
+     * below its reservation before it was committed is rejected, that an
+     * order whose total overflows is rejected without taking stock, and
+     * that a non-positive quantity is refused before anything is reserved.
+     * Fails with an AssertionError if any product sold more than it had or
+     * the stock counters disagree with the orders.
+     */
+    static void orderPlacement() {
+        System.out.println("== Order placement (stock reservation) ==");
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int round = 0; round < 3; round++) { // First rounds are warm-up
+                String line = placementRound(threads, 200_000);
+                if (round == 2) {
+                    System.out.println(line);
+                }
+            }
+        }
+        checkStockEditBelowReserved();
+    }
+
+    private static void checkStockEditBelowReserved() {
+        Queue<Runnable> ownerTasks = new ArrayDeque<>(); // This thread is the owner; commits wait here
+        EntityStore<User> users = new EntityStore<>(u -> u.id);
+        EntityStore<Product> products = new EntityStore<>(p -> p.id);
+        EntityStore<Order> orders = new EntityStore<>(o -> o.id);
+        fillStores(users, products, orders, 1, 2, 0);
+        OrderPlacement placement = new OrderPlacement(users, products, orders, ownerTasks::add);
+        Product p = products.get(1);
+        products.update(p, x -> x.setStock(10));
+
+        CompletableFuture<Order> reserved = placement.place(1, Map.of(1L, 5));
+        products.update(p, x -> x.setStock(2)); // Below the 5 reserved but not committed
+        if (placement.getAvailable(1) != -3 || !placement.place(1, Map.of(1L, 1)).isCompletedExceptionally()) {
+            throw new AssertionError("Stock edited below reservations still reserves, counter "
+                    + placement.getAvailable(1));
+        }
+        while (!ownerTasks.isEmpty()) ownerTasks.poll().run();
+        if (!reserved.isCompletedExceptionally() || p.getStock() != 2 || placement.getAvailable(1) != 2
+                || !orders.isEmpty()) {
+            throw new AssertionError("Commit after stock edited below reservation: stock " + p.getStock()
+                    + ", counter " + placement.getAvailable(1) + ", orders " + orders.size());
+        }
+        CompletableFuture<Order> fits = placement.place(1, Map.of(1L, 2));
+        while (!ownerTasks.isEmpty()) ownerTasks.poll().run();
+        if (fits.isCompletedExceptionally() || p.getStock() != 0 || placement.getAvailable(1) != 0) {
+            throw new AssertionError("Order within the edited stock failed, stock " + p.getStock());
+        }
+
+        products.update(p, x -> x.setStock(5));
+        Product expensive = products.get(2);
+        products.update(expensive, x -> { x.setStock(10); x.setPrice(Long.MAX_VALUE / 2); });
+        CompletableFuture<Order> overflows = placement.place(1, Map.of(1L, 1, 2L, 3));
+        while (!ownerTasks.isEmpty()) ownerTasks.poll().run();
+        if (!overflows.isCompletedExceptionally() || p.getStock() != 5 || expensive.getStock() != 10
+                || placement.getAvailable(1) != 5 || placement.getAvailable(2) != 10 || orders.size() != 1) {
+            throw new AssertionError("Order whose total overflows: stock " + p.getStock() + " and "
+                    + expensive.getStock() + ", counters " + placement.getAvailable(1) + " and "
+                    + placement.getAvailable(2) + ", orders " + orders.size());
+        }
+
+        try {
+            placement.place(1, Map.of(2L, 1, 1L, 0));
+            throw new AssertionError("Quantity 0 was accepted");
+        } catch (IllegalArgumentException expected) {
+            if (placement.getAvailable(2) != products.get(2).getStock()) {
+                throw new AssertionError("Refused order reserved stock");
+            }
+        }
+        System.out.println("Stock edited below reservations: pending order rejected at commit, stock never negative;"
+                + " overflowing order took no stock; quantity 0 refused");
+    }
+
+    private static String placementRound(int threads, int perThread) {
+        ExecutorService ownerThread = Executors.newSingleThreadExecutor();
+        try {
+            EntityStore<User> users = new EntityStore<>(u -> u.id);
+            EntityStore<Product> products = new EntityStore<>(p -> p.id);
+            EntityStore<Order> orders = new EntityStore<>(o -> o.id);
+            fillStores(users, products, orders, 1_000, 500, 0);
+            Map<Long, Integer> initialStock = new HashMap<>();
+            products.forEach(p -> initialStock.put(p.id, p.getStock()));
+            OrderPlacement placement = new OrderPlacement(users, products, orders, ownerThread);
+
+            Queue<CompletableFuture<Order>> pending = new ConcurrentLinkedQueue<>();
+            long reserveMillis = runConcurrently(threads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < perThread; i++) {
+                    Map<Long, Integer> lines = new HashMap<>();
+                    for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                        lines.put(1L + random.nextInt(500), 1 + random.nextInt(3));
+                    }
+                    CompletableFuture<Order> order = placement.place(1 + random.nextInt(1_000), lines);
+                    if (!order.isCompletedExceptionally()) {
+                        pending.add(order);
+                    }
+                }
+            });
+            long begin = System.nanoTime();
+            pending.forEach(CompletableFuture::join);
+            long commitMillis = reserveMillis + (System.nanoTime() - begin) / 1_000_000;
+
+            String problem = CompletableFuture.supplyAsync(
+                    () -> checkNoOversell(products, orders, initialStock, placement), ownerThread).join();
+            if (problem != null) {
+                throw new AssertionError("threads=" + threads + ": " + problem);
+            }
+            long attempts = (long) threads * perThread;
+            return String.format("threads=%-2d %,6.2f M attempts/s reserved  %,6.2f M attempts/s committed  placed %,d  rejected %,d  oversold 0",
+                    threads, attempts / (reserveMillis / 1e3) / 1e6, attempts / (commitMillis / 1e3) / 1e6,
+                    placement.getPlacedCount(), placement.getRejectedCount());
+        } finally {
+            ownerThread.shutdown();
+        }
+    }
+
+    /**
+     * Returns null if every product's sold quantity matches its drop in
+     * stock, nothing went negative and the reservation counters agree.
+     */
+    private static String checkNoOversell(EntityStore<Product> products, EntityStore<Order> orders,
+                                          Map<Long, Integer> initialStock, OrderPlacement placement) {
+        Map<Long, Integer> sold = new HashMap<>();
+        for (Order o : orders) {
+            for (int i = 0; i < o.getItemCount(); i++) {
+                sold.merge(o.getProduct(i).id, o.getQuantity(i), Integer::sum);
+            }
+        }
+        for (Product p : products) {
+            int soldQuantity = sold.getOrDefault(p.id, 0);
+            if (p.getStock() < 0 || soldQuantity > initialStock.get(p.id)) {
+                return "product " + Ids.format(p.id) + " oversold: had " + initialStock.get(p.id) + ", sold " + soldQuantity;
+            }
+            if (initialStock.get(p.id) - soldQuantity != p.getStock() || placement.getAvailable(p.id) != p.getStock()) {
+                return "product " + Ids.format(p.id) + " stock " + p.getStock() + " does not match sales " + soldQuantity
+                        + " or counter " + placement.getAvailable(p.id);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load test of the HTTP API on localhost: -Dbench.connections (default
+     * 10,000) clients each hold a kept-alive connection and send
+     * -Dbench.requests (default 5) requests back to back, 90% product reads
+     * and 10% order placements. Reports
+     * throughput and p50/p99 latency.
+     */
+    static void httpLoad() {
+        System.out.println("== HTTP API load ==");
+        int connections = Integer.getInteger("bench.connections", 10_000);
+        int perConnection = Integer.getInteger("bench.requests", 5);
+        ExecutorService ownerThread = Executors.newSingleThreadExecutor();
+        Shop shop = new Shop(ownerThread);
+        fillStores(shop.users, shop.products, shop.orders, 10_000, 10_000, 0);
+        for (Product p : shop.products) {
+            shop.products.update(p, x -> x.setStock(1_000_000)); // Enough that placements never run out
+        }
+        HttpApi api = new HttpApi(shop);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            api.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            String base = "http://localhost:" + api.getPort() + "/api/";
+            for (int round = 0; round < 2; round++) { // First round is warm-up
+                long[] latencies = new long[connections * perConnection];
+                AtomicInteger recorded = new AtomicInteger();
+                AtomicInteger failures = new AtomicInteger();
+                long begin = System.nanoTime();
+                CompletableFuture<?>[] clients = new CompletableFuture<?>[connections];
+                for (int c = 0; c < connections; c++) {
+                    clients[c] = httpClientLoop(client, base, perConnection, latencies, recorded, failures);
+                }
+                CompletableFuture.allOf(clients).join();
+                long millis = Math.max(1, (System.nanoTime() - begin) / 1_000_000);
+                if (round == 1) {
+                    long[] sorted = Arrays.copyOf(latencies, recorded.get());
+                    Arrays.sort(sorted);
+                    System.out.printf("connections=%,d requests=%,d  %,8.0f req/s  p50 %,.2f ms  p99 %,.2f ms  failures %,d%n",
+                            connections, sorted.length, sorted.length / (millis / 1e3),
+                            percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, failures.get());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            api.stop();
+            ownerThread.shutdown();
+        }
+    }
+
+    /**
+     * One simulated client: sends count requests one after the other.
+     */
+    private static CompletableFuture<Void> httpClientLoop(HttpClient client, String base, int count, long[] latencies,
+                                                          AtomicInteger recorded, AtomicInteger failures) {
+        if (count == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpRequest request;
+        if (random.nextInt(10) == 0) {
+            String order = "{\"userId\":\"" + Ids.format(1 + random.nextInt(10_000)) + "\",\"items\":[{\"productId\":\""
+                    + Ids.format(1 + random.nextInt(10_000)) + "\",\"quantity\":1}]}";
+            request = HttpRequest.newBuilder(URI.create(base + "orders"))
+                    .POST(HttpRequest.BodyPublishers.ofString(order)).build();
+        } else {
+            request = HttpRequest.newBuilder(URI.create(base + "products/" + Ids.format(1 + random.nextInt(10_000)))).build();
+        }
+        long begin = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    latencies[recorded.getAndIncrement()] = System.nanoTime() - begin;
+                    if (error != null || response.statusCode() >= 300) {
+                        failures.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> httpClientLoop(client, base, count - 1, latencies, recorded, failures));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+    }
+
+    // --- Helpers ---
+
+    /**
+     * A small JMH-style harness: time-boxed warm-up and measurement
+     * iterations on the calling thread, with allocation measured through the
+     * JVM's per-thread allocation counter.
+     */
+    static final class Micro {
+        private static final long WARMUP_NANOS = 1_000_000_000L;
+        private static final int ITERATIONS = 5;
+        private static final long ITERATION_NANOS = 400_000_000L;
+        static final Map<String, double[]> results = new LinkedHashMap<>(); // name -> ns/op, B/op
+        static volatile Object sink; // Keeps results alive so the JIT cannot drop the work
+
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        static int[] sizes() {
+            return Arrays.stream(System.getProperty("bench.sizes", "1000,100000,10000000").split(","))
+                    .mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+        }
+
+        static String label(int size) {
+            return size >= 1_000_000 ? size / 1_000_000 + "M" : size >= 1_000 ? size / 1_000 + "K" : String.valueOf(size);
+        }
+
+        /**
+         * Whether size rows of about bytesPerRow fit comfortably in the heap;
+         * prints a note if not.
+         */
+        static boolean fits(int size, int bytesPerRow) {
+            System.gc();
+            Runtime rt = Runtime.getRuntime();
+            long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+            if ((long) size * bytesPerRow < free * 0.7) return true;
+            long neededMb = (long) ((long) size * bytesPerRow / 0.7 + rt.maxMemory() - free) / 1_000_000;
+            System.out.printf("skipped @%s: needs about %,d MB of heap, run with a larger -Xmx%n", label(size), neededMb);
+            return false;
+        }
+
+        static void header() {
+            System.out.printf("%-58s %14s %12s %12s%n", "Benchmark", "ns/op", "B/op", "MB/s alloc");
+        }
+
+        static void measure(String name, Supplier<?> op) {
+            run(op, WARMUP_NANOS);
+            double[] nanosPerOp = new double[ITERATIONS];
+            double bytesPerOp = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long thread = Thread.currentThread().getId();
+                long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+                long begin = System.nanoTime();
+                long ops = run(op, ITERATION_NANOS);
+                long elapsed = System.nanoTime() - begin;
+                bytesPerOp += (double) (THREADS.getThreadAllocatedBytes(thread) - bytesBefore) / ops / ITERATIONS;
+                nanosPerOp[i] = (double) elapsed / ops;
+            }
+            Arrays.sort(nanosPerOp);
+            double median = nanosPerOp[ITERATIONS / 2];
+            results.put(name, new double[]{median, bytesPerOp});
+            System.out.printf("%-58s %,14.1f %,12.1f %,12.1f%n", name, median, bytesPerOp,
+                    bytesPerOp / median * 1e9 / 1e6);
+        }
+
+        /**
+         * Runs op in growing batches until at least nanos have passed;
+         * returns the number of operations run.
+         */
+        private static long run(Supplier<?> op, long nanos) {
+            long ops = 0;
+            long begin = System.nanoTime();
+            for (int batch = 1; System.nanoTime() - begin < nanos; batch = Math.min(batch * 2, 1 << 16)) {
+                Object last = null;
+                for (int i = 0; i < batch; i++) last = op.get();
+                sink = last;
+                ops += batch;
+            }
+            return ops;
+        }
+
+        /**
+         * Writes -Dbench.save and checks -Dbench.baseline. Returns false if a
+         * benchmark regressed beyond the tolerance.
+         */
+        static boolean saveAndCompare() {
+            String save = System.getProperty("bench.save");
+            String baseline = System.getProperty("bench.baseline");
+            try {
+                if (save != null) {
+                    List<String> lines = new ArrayList<>();
+                    lines.add("benchmark,ns_per_op,bytes_per_op");
+                    results.forEach((name, r) -> lines.add(name + "," + r[0] + "," + r[1]));
+                    Files.write(Path.of(save), lines);
+                }
+                if (baseline == null) return true;
+                double tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "15"));
+                boolean ok = true;
+                for (String line : Files.readAllLines(Path.of(baseline))) {
+                    String[] f = line.split(",");
+                    double[] now = results.get(f[0]);
+                    if (now == null || f[0].equals("benchmark")) continue;
+                    double change = (now[0] / Double.parseDouble(f[1]) - 1) * 100;
+                    if (change > tolerance) {
+                        System.out.printf("REGRESSION %-50s %+.1f%% (%,.1f -> %,.1f ns/op)%n",
+                                f[0], change, Double.parseDouble(f[1]), now[0]);
+                        ok = false;
+                    }
+                }
+                System.out.println(ok ? "No regressions against " + baseline : "Regressions against " + baseline);
+                return ok;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Fills the stores with simple synthetic data; each order has 1-4 items.
+     * IDs are 1..count in each store, so benchmarks can pick them directly.
+     */
+    static void fillStores(EntityStore<User> users, EntityStore<Product> products,
+                           EntityStore<Order> orders, int userCount, int productCount, int orderCount) {
+        Random random = new Random(42);
+        User[] u = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            u[i] = new User(i + 1, "user" + i, "user" + i + "@example.com");
+            users.add(u[i]);
+        }
+        Product[] p = new Product[productCount];
+        for (int i = 0; i < productCount; i++) {
+            p[i] = new Product(i + 1, "Product " + i, 100 + random.nextInt(100_000), random.nextInt(1000));
+            products.add(p[i]);
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < orderCount; i++) {
+            Order o = new Order(i + 1, u[random.nextInt(userCount)],
+                    new Date(now - (orderCount - i) * 1000L), Order.STATUSES[random.nextInt(4)]);
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                o.addItem(p[random.nextInt(productCount)], 1 + random.nextInt(3));
+            }
+            orders.add(o);
+        }
+    }
+
+    /**
+     * Runs the task on the given number of threads, started together, and
+     * returns the wall-clock time in milliseconds until all have finished.
+     */
+    static long runConcurrently(int threads, Runnable task) {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Math.max(1, (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Seeded synthetic data at production scale, for load and soak tests:
+ * millions of users, products and orders, either put straight into the
+ * stores or written as CSV files the Importer reads.
+ *
+ * Every row is a pure function of the seed and its index: it draws from
+ * its own SplitMix64 stream, and its ID is composed from the index, so the
+ * same seed gives the same dataset whatever the number of threads. Rows
+ * are built on worker threads in chunks, and the chunks are inserted or
+ * written in order, at most two per worker in flight, like the Importer.
+ *
+ * The data is shaped like a real shop's:
+ *   users     names and emails from word lists, unique by an index suffix
+ *   products  names from adjective and noun lists; prices log-normal around
+ *             each noun's typical price, ending in .99; 5% out of stock
+ *   orders    dated evenly over the DAYS before the end date; users and
+ *             products picked with Zipf-like skew (a few bestsellers and
+ *             heavy buyers, a long tail); 1-8 items, half of them single;
+ *             status by age: recent orders pending, older ones shipped,
+ *             then delivered, with some cancelled
+ * Generated IDs use node GENERATOR_NODE, so they never clash with IDs a
+ * process hands out while it runs (unless it runs as that node).
+ *
+ * Usage (writes users.csv, products.csv and orders.csv into DIR):
+ *   java DataGenerator [--seed N] [--users N] [--products N] [--orders N] [--out DIR]
+ */
+public class DataGenerator {
+
+    public static final long GENERATOR_NODE = 1023;
+    private static final int CHUNK_ROWS = 16_384;
+    private static final long DAY = 86_400_000L;
+
+    // The default end date, so a seed alone pins the dataset: 2026-01-01 UTC
+    public static final long DEFAULT_END_MILLIS = 1_767_225_600_000L;
+
+    private static final String[] FIRST_NAMES = {
+            "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael", "Linda", "David", "Elizabeth",
+            "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Carlos", "Karen",
+            "Wei", "Aisha", "Anoop", "Priya", "Yuki", "Hiro", "Olga", "Ivan", "Fatima", "Omar",
+            "Lucas", "Sofia", "Mateo", "Camila", "Noah", "Emma", "Liam", "Olivia", "Ethan", "Mia"};
+    private static final String[] LAST_NAMES = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+            "Lee", "Perez", "Thompson", "White", "Harris", "Sanchez", "Clark", "Lewis", "Robinson", "Walker",
+            "Chen", "Wang", "Kumar", "Singh", "Tanaka", "Sato", "Ivanov", "Kowalski", "Nguyen", "Kim"};
+    private static final String[] DOMAINS = {
+            "example.com", "mail.net", "web.com", "inbox.org", "post.io", "email.co", "shop.dev", "home.net"};
+    private static final String[] ADJECTIVES = {
+            "Wireless", "Ergonomic", "Smart", "Portable", "Premium", "Compact", "Ultra", "Classic", "Pro", "Mini",
+            "Rugged", "Silent", "Gaming", "Travel", "Eco", "Deluxe", "Slim", "Heavy-Duty", "Digital", "Modular"};
+    private static final String[] NOUNS = {
+            "Laptop", "Mouse", "Monitor", "Keyboard", "Headphones", "Speaker", "Webcam", "Microphone", "Router",
+            "Tablet", "Phone Case", "Charger", "USB Hub", "SSD", "Desk Lamp", "Office Chair", "Backpack",
+            "Smartwatch", "Camera", "Printer"};
+    private static final long[] NOUN_PRICES = { // Typical price in cents, per noun
+            99_900, 2_999, 24_900, 7_999, 12_900, 8_999, 5_999, 9_999, 11_900,
+            39_900, 1_999, 3_499, 2_999, 10_900, 3_999, 22_900, 5_999,
+            24_900, 59_900, 17_900};
+    private static final String[] SERIES = {"X", "S", "M", "Z", "Air", "Max", "Neo", "One"};
+
+    /**
+     * What to generate. Skews are Zipf exponents: 0 picks uniformly, 1 is
+     * strongly skewed towards a few.
+     */
+    public static final class Config {
+        public final long seed;
+        public final int users;
+        public final int products;
+        public final int orders;
+        public final int days;
+        public final long endMillis;
+        public final double productSkew;
+        public final double userSkew;
+
+        public Config(long seed, int users, int products, int orders) {
+            this(seed, users, products, orders, 365, DEFAULT_END_MILLIS, 1.0, 0.8);
+        }
+
+        public Config(long seed, int users, int products, int orders, int days, long endMillis,
+                      double productSkew, double userSkew) {
+            if (users < 0 || products < 0 || orders < 0 || days < 0) {
+                throw new IllegalArgumentException("counts and days must not be negative, got " + users + " users, "
+                        + products + " products, " + orders + " orders and " + days + " days");
+            }
+            if (users < 1 && orders > 0 || products < 1 && orders > 0) {
+                throw new IllegalArgumentException("orders need at least one user and one product");
+            }
+            this.seed = seed;
+            this.users = users;
+            this.products = products;
+            this.orders = orders;
+            this.days = days;
+            this.endMillis = endMillis;
+            this.productSkew = productSkew;
+            this.userSkew = userSkew;
+        }
+
+        /**
+         * Parses "USERS,PRODUCTS,ORDERS[,SEED]", e.g. "1000000,5000000,50000000,42".
+         *
+         * @throws IllegalArgumentException if spec is not of that form
+         */
+        public static Config parse(String spec) {
+            String[] f = spec.split(",");
+            if (f.length < 3 || f.length > 4) {
+                throw new IllegalArgumentException("Expected USERS,PRODUCTS,ORDERS[,SEED], got '" + spec + "'");
+            }
+            return new Config(f.length == 4 ? Long.parseLong(f[3].trim()) : 42,
+                    Integer.parseInt(f[0].trim()), Integer.parseInt(f[1].trim()), Integer.parseInt(f[2].trim()));
+        }
+    }
+
+    public static final class Result {
+        public final long users;
+        public final long products;
+        public final long orders;
+        public final long millis;
+
+        Result(long users, long products, long orders, long millis) {
+            this.users = users;
+            this.products = products;
+            this.orders = orders;
+            this.millis = millis;
+        }
+    }
+
+    private final Config config;
+    private final int workers;
+    private final int productStride;
+    private final int userStride;
+
+    public DataGenerator(Config config) {
+        this(config, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers threads to build rows on; the data does not depend on it
+     */
+    public DataGenerator(Config config, int workers) {
+        this.config = config;
+        this.workers = Math.max(1, workers);
+        productStride = coprimeStride(config.products);
+        userStride = coprimeStride(config.users);
+    }
+
+    // =========================================================================
+    // --- Into the stores ---
+    // =========================================================================
+
+    /**
+     * Adds the generated users, products and orders to the stores, blocking
+     * the calling thread until done. Rows are built on worker threads and
+     * added one chunk at a time on the owner executor.
+     */
+    public Result populate(EntityStore<User> users, EntityStore<Product> products,
+                           EntityStore<Order> orders, Executor owner) throws IOException {
+        long begin = System.nanoTime();
+        User[] allUsers = new User[config.users];
+        Product[] allProducts = new Product[config.products];
+        inChunks(config.users, (from, to) -> {
+            for (int i = from; i < to; i++) allUsers[i] = user(i);
+            return null;
+        }, (from, to, unused) -> addAll(users, allUsers, from, to, owner));
+        inChunks(config.products, (from, to) -> {
+            for (int i = from; i < to; i++) allProducts[i] = product(i);
+            return null;
+        }, (from, to, unused) -> addAll(products, allProducts, from, to, owner));
+        inChunks(config.orders, (from, to) -> {
+            Order[] chunk = new Order[to - from];
+            OrderRow row = new OrderRow();
+            for (int i = from; i < to; i++) {
+                order(i, row);
+                Order o = new Order(orderId(i), allUsers[row.user], new Date(row.date), row.status);
+                for (int n = 0; n < row.items; n++) {
+                    o.addItem(allProducts[row.product[n]], row.quantity[n]);
+                }
+                chunk[i - from] = o;
+            }
+            return chunk;
+        }, (from, to, chunk) -> addAll(orders, chunk, 0, chunk.length, owner));
+        return new Result(config.users, config.products, config.orders, (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    private static <T> void addAll(EntityStore<T> store, T[] rows, int from, int to, Executor owner) {
+        CompletableFuture.runAsync(() -> store.addAll(Arrays.asList(rows).subList(from, to)), owner).join();
+    }
+
+    // =========================================================================
+    // --- Into import files ---
+    // =========================================================================
+
+    /**
+     * Writes users.csv, products.csv and orders.csv into dir in the layout
+     * the Importer reads. Nothing is held in memory beyond the chunks in
+     * flight, so any volume can be written.
+     */
+    public Result writeCsv(Path dir) throws IOException {
+        long begin = System.nanoTime();
+        Files.createDirectories(dir);
+        writeCsv(dir.resolve("users.csv"), "id,username,email", config.users, (i, out, row) -> {
+            User u = user(i);
+            out.append(Ids.format(u.id)).append(',').append(u.getUsername()).append(',').append(u.getEmail());
+        });
+        writeCsv(dir.resolve("products.csv"), "id,name,price,stock", config.products, (i, out, row) -> {
+            Product p = product(i);
+            out.append(Ids.format(p.id)).append(',').append(p.getName()).append(',');
+            Money.append(out, p.getPrice()).append(',').append(p.getStock());
+        });
+        writeCsv(dir.resolve("orders.csv"), "id,userId,date,status,items", config.orders, (i, out, row) -> {
+            order(i, row);
+            out.append(Ids.format(orderId(i))).append(',').append(Ids.format(userId(row.user))).append(',')
+                    .append(row.date).append(',').append(row.status).append(',');
+            for (int n = 0; n < row.items; n++) {
+                if (n > 0) out.append(';');
+                out.append(Ids.format(productId(row.product[n]))).append(':').append(row.quantity[n]);
+            }
+        });
+        return new Result(config.users, config.products, config.orders, (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    private interface LineWriter {
+        void write(int index, StringBuilder out, OrderRow row);
+    }
+
+    private void writeCsv(Path file, String header, int rows, LineWriter lines) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+            inChunks(rows, (from, to) -> {
+                StringBuilder text = new StringBuilder((to - from) * 64);
+                OrderRow row = new OrderRow();
+                for (int i = from; i < to; i++) {
+                    lines.write(i, text, row);
+                    text.append('\n');
+                }
+                return text.toString().getBytes(StandardCharsets.UTF_8);
+            }, (from, to, bytes) -> out.write(bytes));
+        }
+    }
+
+    // =========================================================================
+    // --- Chunked parallel pipeline ---
+    // =========================================================================
+
+    private interface ChunkBuilder<R> {
+        R build(int from, int to);
+    }
+
+    private interface ChunkSink<R> {
+        void accept(int from, int to, R chunk) throws IOException;
+    }
+
+    /**
+     * Builds rows [0, rows) in chunks on the workers and hands the chunks
+     * to the sink on the calling thread, in order.
+     */
+    private <R> void inChunks(int rows, ChunkBuilder<R> builder, ChunkSink<R> sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "DataGenerator-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<R>> inFlight = new ArrayDeque<>();
+        ArrayDeque<int[]> ranges = new ArrayDeque<>();
+        try {
+            for (int from = 0; from < rows || !inFlight.isEmpty(); ) {
+                if (from < rows && inFlight.size() < 2 * workers) {
+                    int start = from;
+                    int end = (int) Math.min(rows, (long) from + CHUNK_ROWS);
+                    inFlight.add(pool.submit(() -> builder.build(start, end)));
+                    ranges.add(new int[]{start, end});
+                    from = end;
+                    continue;
+                }
+                int[] range = ranges.poll();
+                sink.accept(range[0], range[1], inFlight.poll().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Generating data failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating data", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // =========================================================================
+    // --- Rows: pure functions of the seed and the index ---
+    // =========================================================================
+
+    private static final int USER_STREAM = 1, PRODUCT_STREAM = 2, ORDER_STREAM = 3;
+
+    User user(int i) {
+        SplitMix r = new SplitMix(config.seed, USER_STREAM, i);
+        String first = FIRST_NAMES[r.nextInt(FIRST_NAMES.length)];
+        String last = LAST_NAMES[r.nextInt(LAST_NAMES.length)];
+        String username = first.toLowerCase() + "_" + last.toLowerCase() + i;
+        String email = first.toLowerCase() + "." + last.toLowerCase() + i + "@" + DOMAINS[r.nextInt(DOMAINS.length)];
+        return new User(userId(i), username, email);
+    }
+
+    Product product(int i) {
+        SplitMix r = new SplitMix(config.seed, PRODUCT_STREAM, i);
+        int noun = r.nextInt(NOUNS.length);
+        String name = ADJECTIVES[r.nextInt(ADJECTIVES.length)] + " " + NOUNS[noun] + " "
+                + SERIES[r.nextInt(SERIES.length)] + (1 + r.nextInt(20));
+        double factor = Math.exp(r.nextGaussian() * 0.5); // Log-normal around the typical price
+        long price = Math.max(99, Math.round(NOUN_PRICES[noun] * factor / 100) * 100 - 1);
+        int stock = r.nextDouble() < 0.05 ? 0 : (int) Math.min(5_000, 1 + Math.exp(r.nextGaussian()) * 50);
+        return new Product(productId(i), name, price, stock);
+    }
+
+    /**
+     * An order's fields, as indexes into the users and products; reused by
+     * one worker for all of its rows.
+     */
+    static final class OrderRow {
+        static final int MAX_ITEMS = 8;
+
+        int user;
+        long date;
+        String status;
+        int items;
+        final int[] product = new int[MAX_ITEMS];
+        final int[] quantity = new int[MAX_ITEMS];
+    }
+
+    void order(int i, OrderRow row) {
+        SplitMix r = new SplitMix(config.seed, ORDER_STREAM, i);
+        long span = config.days * DAY;
+        long start = config.endMillis - span;
+        row.date = start + (long) ((i + r.nextDouble()) * span / config.orders);
+        row.user = pick(r, config.users, config.userSkew, userStride);
+        row.items = 1;
+        while (row.items < OrderRow.MAX_ITEMS && r.nextDouble() < 0.5) row.items++;
+        for (int n = 0; n < row.items; n++) {
+            int product;
+            int tries = 0;
+            do {
+                product = pick(r, config.products, config.productSkew, productStride);
+            } while (contains(row.product, n, product) && ++tries < 8);
+            if (tries == 8) { // Fewer distinct products than items
+                row.items = n;
+                break;
+            }
+            row.product[n] = product;
+            double q = r.nextDouble();
+            row.quantity[n] = q < 0.75 ? 1 : q < 0.92 ? 2 : 3 + r.nextInt(3);
+        }
+        row.status = status(config.endMillis - row.date, r.nextDouble());
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int n = 0; n < count; n++) {
+            if (values[n] == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Orders move from pending to shipped to delivered as they age; a few
+     * are cancelled at any age.
+     */
+    private static String status(long age, double p) {
+        if (p < 0.06) return "Cancelled";
+        if (age < 2 * DAY) return p < 0.75 ? "Pending" : "Shipped";
+        if (age < 10 * DAY) return p < 0.10 ? "Pending" : p < 0.70 ? "Shipped" : "Delivered";
+        return "Delivered";
+    }
+
+    /**
+     * An index in [0, n) with Zipf-like skew: rank k is picked with
+     * probability about proportional to 1/(k+1)^skew. Ranks are spread
+     * over the indexes by a fixed stride coprime to n, so the popular rows
+     * are scattered rather than the first ones.
+     */
+    private static int pick(SplitMix r, int n, double skew, int stride) {
+        double u = r.nextDouble();
+        double x;
+        if (skew == 0) {
+            x = 1 + u * n;
+        } else if (Math.abs(skew - 1) < 1e-9) {
+            x = Math.pow(n + 1, u);
+        } else {
+            double a = 1 - skew;
+            x = Math.pow((Math.pow(n + 1, a) - 1) * u + 1, 1 / a);
+        }
+        long rank = Math.min(n - 1, Math.max(0, (long) x - 1));
+        return (int) (rank * stride % n);
+    }
+
+    private static int coprimeStride(int n) {
+        if (n <= 1) return 1;
+        long stride = 0x9E3779B1L % n;
+        while (stride == 0 || gcd(stride, n) != 1) stride = (stride + 1) % n;
+        return (int) stride;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    // IDs: one counter over users, then products, then orders, on GENERATOR_NODE
+    long userId(int i) { return id(i); }
+    long productId(int i) { return id((long) config.users + i); }
+    long orderId(int i) { return id((long) config.users + config.products + i); }
+
+    private static long id(long counter) {
+        return Ids.compose(Ids.EPOCH_MILLIS + (counter >>> 12), GENERATOR_NODE, counter & 4095);
+    }
+
+    /**
+     * SplitMix64, seeded from the dataset seed, a stream per kind and the
+     * row index, so every row has its own reproducible sequence.
+     */
+    static final class SplitMix {
+        private long state;
+
+        SplitMix(long seed, int stream, long index) {
+            state = mix(mix(seed ^ stream * 0xD1B54A32D192ED03L) + index * 0x9E3779B97F4A7C15L);
+        }
+
+        long nextLong() {
+            return mix(state += 0x9E3779B97F4A7C15L);
+        }
+
+        int nextInt(int bound) {
+            return (int) ((nextLong() >>> 33) * bound >>> 31);
+        }
+
+        double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        double nextGaussian() { // Box-Muller
+            double u = 1 - nextDouble();
+            return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * nextDouble());
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 42;
+        int users = 1_000, products = 1_000, orders = 10_000;
+        Path out = Paths.get("generated");
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) usage("Missing value for " + args[i]);
+            switch (args[i++]) {
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--users": users = Integer.parseInt(value); break;
+                case "--products": products = Integer.parseInt(value); break;
+                case "--orders": orders = Integer.parseInt(value); break;
+                case "--out": out = Paths.get(value); break;
+                default: usage("Unknown option '" + args[i - 1] + "'");
+            }
+        }
+        Result result = new DataGenerator(new Config(seed, users, products, orders)).writeCsv(out);
+        System.out.printf("Wrote %,d users, %,d products and %,d orders (seed %d) to %s in %,d ms%n",
+                result.users, result.products, result.orders, seed, out, result.millis);
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: java DataGenerator [--seed N] [--users N] [--products N] [--orders N] [--out DIR]");
+        System.exit(2);
+    }
+}
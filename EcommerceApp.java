@@ -1,25 +1,45 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Path2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
 /**
  * A modern, white-themed E-commerce Management System application using Java Swing.
  *
  * This application manages Users, Products, and Orders. It uses a CardLayout
  * to switch between different management panels. Data is stored in-memory
- * using ArrayLists.
+ * in EntityStores, indexed by ID.
  */
 public class EcommerceApp extends JFrame {
 
@@ -34,11 +54,21 @@ public class EcommerceApp extends JFrame {
     private static final Color COLOR_SUCCESS = new Color(40, 167, 69);     // Green
     private static final Color COLOR_BORDER = new Color(220, 220, 225);     // Light gray border
 
+    // Set -Decommerce.verifyStats=true to check the dashboard's running
+    // totals against a full recompute on every refresh.
+    private static final boolean VERIFY_STATS = Boolean.getBoolean("ecommerce.verifyStats");
+
+    // The EDT watchdog records a stall when an event waits longer than this
+    // (-Decommerce.stallMs=...). Null until main starts it.
+    private static final long STALL_THRESHOLD_MS = Long.getLong("ecommerce.stallMs", 500);
+    private static volatile EdtWatchdog watchdog;
+
     // --- Fonts ---
     private static final Font FONT_HEADER = new Font("Segoe UI", Font.BOLD, 24);
     private static final Font FONT_NAV = new Font("Segoe UI", Font.BOLD, 16);
     private static final Font FONT_BODY = new Font("Segoe UI", Font.PLAIN, 14);
     private static final Font FONT_BODY_BOLD = new Font("Segoe UI", Font.BOLD, 14);
+    private static final Font FONT_SMALL = new Font("Segoe UI", Font.PLAIN, 12);
     private static final Font FONT_TABLE_HEADER = new Font("Segoe UI", Font.BOLD, 14);
 
     // --- Main Layout Components ---
@@ -46,22 +76,69 @@ public class EcommerceApp extends JFrame {
     private JPanel mainContentPanel;
     private JPanel navigationPanel;
 
-    // --- "Database" - In-memory lists ---
-    public List<User> users = new ArrayList<>();
-    public List<Product> products = new ArrayList<>();
-    public List<Order> orders = new ArrayList<>();
-
-    // --- Panels (Screens) ---
-    private DashboardPanel dashboardPanel;
-    private UserManagementPanel userPanel;
-    private ProductManagementPanel productPanel;
-    private OrderManagementPanel orderPanel;
+    // --- Data layer: stores, indexes, event bus and journal (see Shop) ---
+    private static final String DATA_DIR = System.getProperty("ecommerce.dataDir", "data");
+    // -Decommerce.generate=USERS,PRODUCTS,ORDERS[,SEED] fills an empty data
+    // directory with DataGenerator's synthetic data instead of dummy data
+    private static final String GENERATE = System.getProperty("ecommerce.generate");
+    public final Shop shop;
+    public final EntityStore<User> users;
+    public final EntityStore<Product> products;
+    public final EntityStore<Order> orders;
+    public final EntityStore.Index<Long, Order> ordersByUser;
+    public final EntityStore.Index<String, Order> ordersByStatus;
+    public final SalesStats salesStats;
+    public final EventBus events;
+
+    // --- Panels (Screens), built on first navigation and null until then;
+    // package-private for Benchmarks. Volatile as the event thread reads them.
+    volatile DashboardPanel dashboardPanel;
+    volatile UserManagementPanel userPanel;
+    volatile ProductManagementPanel productPanel;
+    volatile OrderManagementPanel orderPanel;
+    volatile ReportsPanel reportsPanel;
+    volatile DiagnosticsPanel diagnosticsPanel;
+    private final Map<String, Supplier<JComponent>> unbuiltCards = new HashMap<>(); // EDT only
+    private final List<JButton> navButtons = new ArrayList<>();
+    private RefreshScheduler refreshScheduler;
+    private final Metrics.Histogram refreshAllTimes = Metrics.histogram("ui.refreshAllPanels");
+
+    // Startup milestones in ms since the JVM started, 0 until reached (EDT only)
+    private long windowBuiltMillis;
+    private long firstFrameMillis;
+    private long dataLoadedMillis;
+    private long firstCardMillis;
 
     /**
-     * Constructor: Sets up the entire application.
+     * Constructor: Sets up the entire application. The window is shown at
+     * once in a loading state while the data loads in the background.
      */
     public EcommerceApp() {
-        // --- 1. Set up Main Window ---
+        this(new Shop(SwingUtilities::invokeLater), false);
+        windowBuiltMillis = uptimeMillis();
+        setVisible(true);
+        loadInBackground();
+    }
+
+    /**
+     * Builds the window over an already loaded shop, without showing it.
+     * Must be called on the EDT, which is the shop's owner thread.
+     */
+    EcommerceApp(Shop shop) {
+        this(shop, true);
+    }
+
+    private EcommerceApp(Shop shop, boolean loaded) {
+        this.shop = shop;
+        users = shop.users;
+        products = shop.products;
+        orders = shop.orders;
+        ordersByUser = shop.ordersByUser;
+        ordersByStatus = shop.ordersByStatus;
+        salesStats = shop.salesStats;
+        events = shop.events;
+
+        // --- 2. Set up Main Window ---
         setTitle("E-commerce Management System");
         setSize(1200, 800);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -69,35 +146,84 @@ public class EcommerceApp extends JFrame {
         getContentPane().setBackground(COLOR_BACKGROUND);
         setLayout(new BorderLayout());
 
-        // --- 2. Add Dummy Data (for demo) ---
-        addDummyData();
-
         // --- 3. Create Navigation Panel (West) ---
         createNavigationPanel();
         add(navigationPanel, BorderLayout.WEST);
 
-        // --- 4. Create Main Content Panel (Center) ---
+        // --- 4. Create Main Content Panel (Center); paints mark startup milestones ---
         cardLayout = new CardLayout();
-        mainContentPanel = new JPanel(cardLayout);
+        mainContentPanel = new JPanel(cardLayout) {
+            @Override
+            public void paint(Graphics g) {
+                super.paint(g);
+                onPainted();
+            }
+        };
         mainContentPanel.setBackground(COLOR_BACKGROUND);
         mainContentPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        mainContentPanel.add(createLoadingPanel(), "LOADING");
 
-        // --- 5. Create and Add Panels (Screens) ---
-        dashboardPanel = new DashboardPanel(this);
-        userPanel = new UserManagementPanel(this);
-        productPanel = new ProductManagementPanel(this);
-        orderPanel = new OrderManagementPanel(this);
-
-        mainContentPanel.add(dashboardPanel, "DASHBOARD");
-        mainContentPanel.add(userPanel, "USERS");
-        mainContentPanel.add(productPanel, "PRODUCTS");
-        mainContentPanel.add(orderPanel, "ORDERS");
+        // --- 5. Panels (Screens) are built when first shown ---
+        unbuiltCards.put("DASHBOARD", () -> dashboardPanel = new DashboardPanel(this));
+        unbuiltCards.put("USERS", () -> userPanel = new UserManagementPanel(this));
+        unbuiltCards.put("PRODUCTS", () -> productPanel = new ProductManagementPanel(this));
+        unbuiltCards.put("ORDERS", () -> orderPanel = new OrderManagementPanel(this));
+        unbuiltCards.put("REPORTS", () -> reportsPanel = new ReportsPanel(this));
+        unbuiltCards.put("DIAGNOSTICS", () -> diagnosticsPanel = new DiagnosticsPanel(this));
 
         add(mainContentPanel, BorderLayout.CENTER);
 
-        // --- 6. Finalize ---
-        cardLayout.show(mainContentPanel, "DASHBOARD"); // Show dashboard first
-        setVisible(true);
+        // --- 6. Refresh panels from store change events ---
+        refreshScheduler = new RefreshScheduler();
+        refreshScheduler.register("DASHBOARD", () -> dashboardPanel.updateStats(), DashboardPanel.FRAME_INTERVAL_MS);
+        refreshScheduler.register("USERS", () -> userPanel.loadTableData());
+        refreshScheduler.register("PRODUCTS", () -> productPanel.loadTableData());
+        refreshScheduler.register("ORDERS", () -> orderPanel.loadTableData());
+        refreshScheduler.register("REPORTS", () -> reportsPanel.runReports());
+        refreshScheduler.register("DIAGNOSTICS", () -> diagnosticsPanel.refresh());
+        refreshScheduler.markDirty("REPORTS"); // First run when the card is first shown
+        events.subscribe("ui", refreshScheduler);
+
+        // --- 7. Finalize ---
+        if (loaded) {
+            refreshScheduler.show("DASHBOARD"); // Show dashboard first
+        } else {
+            navButtons.forEach(b -> b.setEnabled(false)); // Until the data is loaded
+            refreshScheduler.show("LOADING");
+        }
+    }
+
+    /**
+     * The card shown while the data loads.
+     */
+    private JPanel createLoadingPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBackground(COLOR_BACKGROUND);
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.setBackground(COLOR_BACKGROUND);
+        JLabel label = new JLabel("Loading data...", SwingConstants.CENTER);
+        label.setFont(FONT_HEADER);
+        label.setForeground(COLOR_TEXT_LIGHT);
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setPreferredSize(new Dimension(300, 8));
+        content.add(label, BorderLayout.CENTER);
+        content.add(progressBar, BorderLayout.SOUTH);
+        panel.add(content);
+        return panel;
+    }
+
+    /**
+     * Builds a card's panel if it has not been shown before; the build time
+     * is recorded in the "build.CARD" Metrics histogram. Must be called on
+     * the EDT, and for the data cards only once the data is loaded.
+     */
+    void ensureCard(String card) {
+        Supplier<JComponent> build = unbuiltCards.remove(card);
+        if (build == null) return;
+        long begin = System.nanoTime();
+        mainContentPanel.add(build.get(), card);
+        Metrics.histogram("build." + card).record(System.nanoTime() - begin);
     }
 
     /**
@@ -119,10 +245,13 @@ public class EcommerceApp extends JFrame {
         navigationPanel.add(navTitle);
 
         // Add buttons
-        navigationPanel.add(createNavButton("Dashboard", "DASHBOARD"));
-        navigationPanel.add(createNavButton("Users", "USERS"));
-        navigationPanel.add(createNavButton("Products", "PRODUCTS"));
-        navigationPanel.add(createNavButton("Orders", "ORDERS"));
+        navButtons.add(createNavButton("Dashboard", "DASHBOARD"));
+        navButtons.add(createNavButton("Users", "USERS"));
+        navButtons.add(createNavButton("Products", "PRODUCTS"));
+        navButtons.add(createNavButton("Orders", "ORDERS"));
+        navButtons.add(createNavButton("Reports", "REPORTS"));
+        navButtons.add(createNavButton("Diagnostics", "DIAGNOSTICS"));
+        navButtons.forEach(navigationPanel::add);
 
         navigationPanel.add(Box.createVerticalGlue()); // Pushes buttons to the top
     }
@@ -154,10 +283,28 @@ public class EcommerceApp extends JFrame {
         });
 
         // Action
-        button.addActionListener(e -> cardLayout.show(mainContentPanel, cardName));
+        button.addActionListener(timed("nav." + cardName, e -> refreshScheduler.show(cardName)));
         return button;
     }
 
+    /**
+     * Wraps an action listener so that each run is recorded in the
+     * "action.NAME" Metrics histogram. Actions that open a dialog include
+     * the time it was open.
+     */
+    static ActionListener timed(String name, ActionListener listener) {
+        if (!Metrics.ENABLED) return listener;
+        Metrics.Histogram histogram = Metrics.histogram("action." + name);
+        return e -> {
+            long begin = System.nanoTime();
+            try {
+                listener.actionPerformed(e);
+            } finally {
+                histogram.record(System.nanoTime() - begin);
+            }
+        };
+    }
+
     /**
      * Helper to create styled JButtons for forms.
      */
@@ -194,103 +341,265 @@ public class EcommerceApp extends JFrame {
     }
 
     /**
-     * Refreshes all panels that might show summary data.
+     * Marks every panel as needing a full reload. The visible one is
+     * refreshed on the next frame, the others when they are shown.
      */
     public void refreshAllPanels() {
-        dashboardPanel.updateStats();
-        userPanel.loadTableData();
-        productPanel.loadTableData();
-        orderPanel.loadTableData();
+        long begin = System.nanoTime();
+        refreshScheduler.markAllDirty();
+        refreshAllTimes.record(System.nanoTime() - begin);
     }
 
     /**
-     * Populates the in-memory lists with sample data.
+     * Recovers the stores from the journal in DATA_DIR on a background
+     * thread, adds generated or dummy data on first run and arranges for
+     * the journal to be flushed on exit, then shows the dashboard. Until
+     * then the window shows the loading card with navigation disabled and
+     * nothing on the EDT touches the stores, so the loader owns the shop
+     * until it hands it over with invokeLater. If the journal cannot be
+     * opened the app runs in memory only, and if it fails later the user
+     * is told that changes are no longer being saved.
      */
-    private void addDummyData() {
-        // Add Users
-        User u1 = new User(genId(), "anoop_v", "anoop.v@example.com");
-        User u2 = new User(genId(), "jane_doe", "jane.d@web.com");
-        User u3 = new User(genId(), "alex_smith", "asmith@mail.net");
-        users.addAll(List.of(u1, u2, u3));
-
-        // Add Products
-        Product p1 = new Product(genId(), "Laptop Pro", 1299.99, 50);
-        Product p2 = new Product(genId(), "Wireless Mouse", 49.99, 150);
-        Product p3 = new Product(genId(), "4K Monitor", 399.00, 75);
-        Product p4 = new Product(genId(), "Mechanical Keyboard", 119.50, 120);
-        products.addAll(List.of(p1, p2, p3, p4));
-
-        // Add Orders
-        Order o1 = new Order(genId(), u1, new Date(), "Shipped");
-        o1.addItem(p1, 1);
-        o1.addItem(p2, 1);
-        orders.add(o1);
-
-        Order o2 = new Order(genId(), u2, new Date(), "Pending");
-        o2.addItem(p3, 2);
-        o2.addItem(p4, 1);
-        orders.add(o2);
+    private void loadInBackground() {
+        shop.setJournalFailureListener(e -> SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                "Changes can no longer be saved to " + DATA_DIR + " and will be lost on exit:\n" + e.getMessage(),
+                "Journal Error", JOptionPane.ERROR_MESSAGE)));
+        Thread loader = new Thread(() -> {
+            try {
+                shop.open(Paths.get(DATA_DIR));
+                System.out.printf("Recovered %,d records from %s in %d ms%n",
+                        shop.getRecoveredRecords(), DATA_DIR, shop.getRecoveryMillis());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        shop.close();
+                    } catch (IOException e) {
+                        System.err.println("Could not close journal: " + e);
+                    }
+                }));
+            } catch (IOException e) {
+                System.err.println("Could not open journal, changes will not be saved: " + e);
+            }
+            if (shop.isEmpty() && GENERATE != null) {
+                try {
+                    DataGenerator.Result result = new DataGenerator(DataGenerator.Config.parse(GENERATE))
+                            .populate(users, products, orders, Runnable::run); // This thread owns the shop for now
+                    System.out.printf("Generated %,d users, %,d products and %,d orders in %,d ms%n",
+                            result.users, result.products, result.orders, result.millis);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Could not generate data (" + e.getMessage() + "), adding dummy data instead");
+                }
+            }
+            if (shop.isEmpty()) {
+                shop.addSampleData();
+            }
+            SwingUtilities.invokeLater(this::onDataLoaded);
+        }, "shop-loader");
+        loader.start();
+    }
+
+    private void onDataLoaded() {
+        dataLoadedMillis = uptimeMillis();
+        shop.registerMetrics();
+        navButtons.forEach(b -> b.setEnabled(true));
+        refreshScheduler.show("DASHBOARD");
     }
 
     /**
-     * Generates a simple unique ID.
+     * Notes the startup milestones as the content area is painted: the
+     * first frame, and the first with data once it is loaded. When both are
+     * in, prints the startup report and publishes it as Metrics gauges
+     * (startup.*Millis), so time to first frame can be tracked.
      */
-    public static String genId() {
-        return UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+    private void onPainted() {
+        if (windowBuiltMillis == 0 || firstCardMillis != 0) return; // Not the app's startup, or done
+        if (firstFrameMillis == 0) {
+            firstFrameMillis = uptimeMillis();
+        }
+        if (dataLoadedMillis == 0) return;
+        firstCardMillis = uptimeMillis();
+        System.out.printf("Startup: window built at %,d ms, first frame at %,d ms, data loaded at %,d ms, "
+                        + "dashboard shown at %,d ms after JVM start%n",
+                windowBuiltMillis, firstFrameMillis, dataLoadedMillis, firstCardMillis);
+        long[] milestones = {windowBuiltMillis, firstFrameMillis, dataLoadedMillis, firstCardMillis};
+        Metrics.gauge("startup.windowBuiltMillis", () -> milestones[0]);
+        Metrics.gauge("startup.firstFrameMillis", () -> milestones[1]);
+        Metrics.gauge("startup.dataLoadedMillis", () -> milestones[2]);
+        Metrics.gauge("startup.firstCardMillis", () -> milestones[3]);
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
     }
 
     // =========================================================================
-    // --- Data Model Inner Classes ---
+    // --- UI Refresh Scheduling ---
     // =========================================================================
 
-    class User {
-        String id;
-        String username;
-        String email;
-        public User(String id, String username, String email) {
-            this.id = id; this.username = username; this.email = email;
+    /**
+     * Coalesces UI refreshes. Store change events mark the affected cards
+     * dirty, and at most once per frame interval the visible card is brought
+     * up to date. A card may ask for a longer interval, capping its frame
+     * rate. Hidden cards stay dirty until navigation shows them. A bulk
+     * change holds frames back until all of its events have arrived, so it
+     * is shown in one refresh. Each card's refreshes are timed in the
+     * "refresh.CARD" Metrics histogram.
+     *
+     * Events arrive on the event bus thread; all refreshing happens on the EDT.
+     */
+    class RefreshScheduler implements EventBus.Subscriber {
+        private static final int FRAME_INTERVAL_MS = 16;
+
+        private final Map<String, Runnable> refreshers = new HashMap<>();
+        private final Map<String, Integer> intervals = new HashMap<>();
+        private final Set<String> dirty = new HashSet<>(); // Guarded by this
+        private final AtomicBoolean frameScheduled = new AtomicBoolean();
+        private final Timer frameTimer;
+        private volatile String visibleCard;
+        private volatile long delivered; // Sequence after the last event seen
+        private volatile long bulkEnd;   // Sequence after the last bulk change's events
+
+        RefreshScheduler() {
+            frameTimer = new Timer(FRAME_INTERVAL_MS, e -> onFrame());
+            frameTimer.setRepeats(false);
         }
-    }
 
-    class Product {
-        String id;
-        String name;
-        double price;
-        int stock;
-        public Product(String id, String name, double price, int stock) {
-            this.id = id; this.name = name; this.price = price; this.stock = stock;
+        void register(String card, Runnable refresher) {
+            register(card, refresher, FRAME_INTERVAL_MS);
         }
-    }
 
-    class OrderItem {
-        Product product;
-        int quantity;
-        public OrderItem(Product product, int quantity) {
-            this.product = product; this.quantity = quantity;
+        void register(String card, Runnable refresher, int intervalMs) {
+            refreshers.put(card, Metrics.timed("refresh." + card, refresher));
+            intervals.put(card, intervalMs);
         }
-        public double getTotalPrice() {
-            return product.price * quantity;
+
+        /**
+         * Switches to a card, first building it if it is shown for the
+         * first time, or bringing it up to date if it went stale while
+         * hidden. Must be called on the EDT.
+         */
+        void show(String card) {
+            ensureCard(card);
+            visibleCard = card;
+            refreshIfDirty(card);
+            cardLayout.show(mainContentPanel, card);
         }
-    }
 
-    class Order {
-        String id;
-        User user;
-        List<OrderItem> items = new ArrayList<>();
-        double totalPrice;
-        Date orderDate;
-        String status; // e.g., "Pending", "Shipped", "Delivered"
+        void markDirty(String card) {
+            synchronized (this) {
+                dirty.add(card);
+            }
+            if (card.equals(visibleCard)) {
+                scheduleFrame();
+            }
+        }
 
-        public Order(String id, User user, Date orderDate, String status) {
-            this.id = id; this.user = user; this.orderDate = orderDate; this.status = status;
+        /**
+         * Runs a change to many entities, on the EDT, and shows it in one
+         * refresh once the event thread has seen all of its events.
+         */
+        void applyBulk(Runnable change) {
+            try {
+                change.run();
+            } finally {
+                bulkEnd = events.getPublishedCount();
+            }
         }
 
-        public void addItem(Product product, int quantity) {
-            items.add(new OrderItem(product, quantity));
-            recalculateTotal();
+        private void scheduleFrame() {
+            String card = visibleCard;
+            if (card != null && frameScheduled.compareAndSet(false, true)) {
+                frameTimer.setInitialDelay(intervals.getOrDefault(card, FRAME_INTERVAL_MS));
+                frameTimer.restart();
+            }
+        }
+
+        void markAllDirty() {
+            markAllChanged(userPanel);
+            markAllChanged(productPanel);
+            markAllChanged(orderPanel);
+            for (String card : refreshers.keySet()) {
+                markDirty(card);
+            }
+        }
+
+        // A panel that is not built yet has nothing to mark; it shows the
+        // stores as they are when it is built
+        private void markAllChanged(BaseManagementPanel<?> panel) {
+            if (panel != null) panel.markAllChanged();
+        }
+
+        private <T> void markUpdated(BaseManagementPanel<T> panel, T entity) {
+            if (panel != null) panel.markUpdated(entity);
+        }
+
+        private void onFrame() {
+            frameScheduled.set(false);
+            if (delivered < bulkEnd) return; // The rest of a bulk change is on its way
+            refreshIfDirty(visibleCard);
+        }
+
+        private void refreshIfDirty(String card) {
+            boolean wasDirty;
+            synchronized (this) {
+                wasDirty = dirty.remove(card);
+            }
+            if (wasDirty) {
+                refreshers.get(card).run();
+            }
+        }
+
+        @Override
+        public void onEvents(List<EventBus.Event> batch) {
+            for (EventBus.Event e : batch) {
+                switch (e.kind) {
+                    case USER_ADDED:
+                        markDirty("USERS");
+                        break;
+                    case USER_UPDATED:
+                        markUpdated(userPanel, (User) e.entity);
+                        markAllChanged(orderPanel); // Orders show the username
+                        markDirty("USERS");
+                        markDirty("ORDERS");
+                        break;
+                    case USER_REMOVED:
+                        markAllChanged(userPanel);
+                        markDirty("USERS");
+                        break;
+                    case PRODUCT_ADDED:
+                        markDirty("PRODUCTS");
+                        break;
+                    case PRODUCT_UPDATED:
+                        markUpdated(productPanel, (Product) e.entity);
+                        markDirty("PRODUCTS");
+                        break;
+                    case PRODUCT_REMOVED:
+                        markAllChanged(productPanel);
+                        markDirty("PRODUCTS");
+                        break;
+                    case ORDER_ADDED:
+                        markDirty("ORDERS");
+                        break;
+                    case ORDER_UPDATED:
+                    case ORDER_STATUS_CHANGED:
+                        markUpdated(orderPanel, (Order) e.entity);
+                        markDirty("ORDERS");
+                        break;
+                    case ORDER_REMOVED:
+                        markAllChanged(orderPanel);
+                        markDirty("ORDERS");
+                        break;
+                }
+            }
+            delivered = batch.get(batch.size() - 1).sequence + 1;
+            markDirty("DASHBOARD");
+            markDirty("REPORTS");
+            scheduleFrame(); // In case a frame was held back for this batch
         }
-        public void recalculateTotal() {
-            totalPrice = items.stream().mapToDouble(OrderItem::getTotalPrice).sum();
+
+        @Override
+        public void onOverrun(long missed) {
+            bulkEnd = 0; // Everything is reloaded anyway
+            markAllDirty();
         }
     }
 
@@ -299,14 +608,28 @@ public class EcommerceApp extends JFrame {
     // =========================================================================
 
     /**
-     * Dashboard Panel: Shows high-level statistics.
+     * Dashboard Panel: Shows high-level statistics and live charts of the
+     * last hour's orders and revenue per minute.
+     *
+     * The cards and charts paint themselves rather than being HTML labels,
+     * and repaint only what changed: a card its value line, a chart the
+     * strip holding its newest minute, unless the scale or window moved.
+     * Refreshes are capped at FRAME_INTERVAL_MS, and a clock tick moves the
+     * charts on at each new minute when no orders come in.
      */
     class DashboardPanel extends JPanel {
+        static final int FRAME_INTERVAL_MS = 250;
+
         private EcommerceApp app;
-        private JLabel userCountLabel;
-        private JLabel productCountLabel;
-        private JLabel orderCountLabel;
-        private JLabel salesTotalLabel;
+        private final StatCard userCountCard;
+        private final StatCard productCountCard;
+        private final StatCard orderCountCard;
+        private final StatCard salesTotalCard;
+        private final LineChart ordersChart;
+        private final LineChart revenueChart;
+        private final long[] ordersPerMinute;
+        private final long[] revenuePerMinute;
+        private long shownMinute;
 
         public DashboardPanel(EcommerceApp app) {
             this.app = app;
@@ -323,54 +646,247 @@ public class EcommerceApp extends JFrame {
             JPanel statsPanel = new JPanel(new GridLayout(1, 4, 20, 20)); // 1 row, 4 cols
             statsPanel.setBackground(COLOR_BACKGROUND);
 
-            userCountLabel = createStatCard("Total Users", "0");
-            productCountLabel = createStatCard("Total Products", "0");
-            orderCountLabel = createStatCard("Pending Orders", "0");
-            salesTotalLabel = createStatCard("Total Sales", "$0.00");
-
-            statsPanel.add(userCountLabel);
-            statsPanel.add(productCountLabel);
-            statsPanel.add(orderCountLabel);
-            statsPanel.add(salesTotalLabel);
-            
-            add(statsPanel, BorderLayout.CENTER);
+            userCountCard = new StatCard("Total Users");
+            productCountCard = new StatCard("Total Products");
+            orderCountCard = new StatCard("Pending Orders");
+            salesTotalCard = new StatCard("Total Sales");
+
+            statsPanel.add(userCountCard);
+            statsPanel.add(productCountCard);
+            statsPanel.add(orderCountCard);
+            statsPanel.add(salesTotalCard);
+
+            int minutes = app.shop.salesTimeline.getMinutes();
+            ordersPerMinute = new long[minutes];
+            revenuePerMinute = new long[minutes];
+            ordersChart = new LineChart("Orders per Minute", COLOR_PRIMARY, String::valueOf);
+            revenueChart = new LineChart("Revenue per Minute", COLOR_SUCCESS, cents -> "$" + Money.format(cents));
+
+            JPanel chartsPanel = new JPanel(new GridLayout(2, 1, 20, 20));
+            chartsPanel.setBackground(COLOR_BACKGROUND);
+            chartsPanel.setBorder(new EmptyBorder(20, 0, 0, 0));
+            chartsPanel.add(ordersChart);
+            chartsPanel.add(revenueChart);
+
+            JPanel content = new JPanel(new BorderLayout());
+            content.setBackground(COLOR_BACKGROUND);
+            content.add(statsPanel, BorderLayout.NORTH);
+            content.add(chartsPanel, BorderLayout.CENTER);
+            add(content, BorderLayout.CENTER);
             updateStats();
-        }
-        
-        private JLabel createStatCard(String title, String value) {
-            JLabel card = new JLabel("<html><body style='padding: 15px;'>"
-                    + "<div style='font-size: 12px; color: rgb(100,100,110);'>" + title + "</div>"
-                    + "<div style='font-size: 24px; font-weight: bold; padding-top: 10px;'>" + value + "</div>"
-                    + "</body></html>");
-            card.setOpaque(true);
-            card.setBackground(COLOR_PANEL);
-            card.setBorder(new LineBorder(COLOR_BORDER));
-            card.setVerticalAlignment(SwingConstants.TOP);
-            return card;
+
+            // Moves the charts on when a minute passes without orders
+            new Timer(1000, e -> {
+                if (System.currentTimeMillis() / 60_000 != shownMinute) {
+                    app.refreshScheduler.markDirty("DASHBOARD");
+                }
+            }).start();
         }
 
         public void updateStats() {
             int userCount = app.users.size();
             int productCount = app.products.size();
-            long pendingOrders = app.orders.stream().filter(o -> "Pending".equals(o.status)).count();
-            double totalSales = app.orders.stream().filter(o -> !"Pending".equals(o.status)).mapToDouble(o -> o.totalPrice).sum();
-
-            userCountLabel.setText("<html><body style='padding: 15px;'>"
-                    + "<div style='font-size: 12px; color: rgb(100,100,110);'>Total Users</div>"
-                    + "<div style='font-size: 24px; font-weight: bold; padding-top: 10px;'>" + userCount + "</div>"
-                    + "</body></html>");
-            productCountLabel.setText("<html><body style='padding: 15px;'>"
-                    + "<div style='font-size: 12px; color: rgb(100,100,110);'>Total Products</div>"
-                    + "<div style='font-size: 24px; font-weight: bold; padding-top: 10px;'>" + productCount + "</div>"
-                    + "</body></html>");
-            orderCountLabel.setText("<html><body style='padding: 15px;'>"
-                    + "<div style='font-size: 12px; color: rgb(100,100,110);'>Pending Orders</div>"
-                    + "<div style='font-size: 24px; font-weight: bold; padding-top: 10px;'>" + pendingOrders + "</div>"
-                    + "</body></html>");
-            salesTotalLabel.setText("<html><body style='padding: 15px;'>"
-                    + "<div style='font-size: 12px; color: rgb(100,100,110);'>Total Sales</div>"
-                    + "<div style='font-size: 24px; font-weight: bold; padding-top: 10px;'>" + String.format("$%.2f", totalSales) + "</div>"
-                    + "</body></html>");
+            int pendingOrders = app.ordersByStatus.count("Pending");
+            long totalSales = app.salesStats.getRealizedSales();
+            if (VERIFY_STATS) {
+                app.salesStats.verify(app.orders, app.ordersByStatus);
+            }
+
+            userCountCard.setValue(String.valueOf(userCount));
+            productCountCard.setValue(String.valueOf(productCount));
+            orderCountCard.setValue(String.valueOf(pendingOrders));
+            salesTotalCard.setValue("$" + Money.format(totalSales));
+
+            shownMinute = System.currentTimeMillis() / 60_000;
+            app.shop.salesTimeline.copyTo(ordersPerMinute, revenuePerMinute);
+            ordersChart.setValues(ordersPerMinute);
+            revenueChart.setValues(revenuePerMinute);
+        }
+    }
+
+    /**
+     * A dashboard figure under its title, painted directly. Setting a new
+     * value repaints only the value line.
+     */
+    static class StatCard extends JComponent {
+        private static final int PADDING = 15;
+
+        private final String title;
+        private String value = "";
+
+        StatCard(String title) {
+            this.title = title;
+            setOpaque(true);
+            setPreferredSize(new Dimension(200, 100));
+        }
+
+        void setValue(String value) {
+            if (value.equals(this.value)) return;
+            this.value = value;
+            repaint(0, valueTop(), getWidth(), getFontMetrics(FONT_HEADER).getHeight());
+        }
+
+        private int valueTop() {
+            return PADDING + getFontMetrics(FONT_SMALL).getHeight() + 10;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setColor(COLOR_PANEL);
+            g2.fillRect(0, 0, getWidth(), getHeight());
+            g2.setColor(COLOR_BORDER);
+            g2.drawRect(0, 0, getWidth() - 1, getHeight() - 1);
+
+            g2.setFont(FONT_SMALL);
+            g2.setColor(COLOR_TEXT_LIGHT);
+            g2.drawString(title, PADDING, PADDING + g2.getFontMetrics().getAscent());
+            g2.setFont(FONT_HEADER);
+            g2.setColor(COLOR_TEXT);
+            g2.drawString(value, PADDING, valueTop() + g2.getFontMetrics().getAscent());
+        }
+    }
+
+    /**
+     * A line chart of a series, oldest value on the left, with the newest
+     * value in the top right corner. The y axis runs from zero to a round
+     * number above the largest value, so it rescales rarely. While only the
+     * newest value changes, only the strip from the previous point to the
+     * right edge is repainted; a new minute or a new scale repaints it all.
+     */
+    static class LineChart extends JComponent {
+        private static final int PADDING = 15;
+
+        private final String title;
+        private final Color color;
+        private final Color fill;
+        private final LongFunction<String> format;
+        private long[] values = new long[0];
+        private long scale = 1;
+
+        LineChart(String title, Color color, LongFunction<String> format) {
+            this.title = title;
+            this.color = color;
+            this.fill = new Color(color.getRed(), color.getGreen(), color.getBlue(), 40);
+            this.format = format;
+            setOpaque(true);
+            setPreferredSize(new Dimension(400, 160));
+        }
+
+        void setValues(long[] next) {
+            int n = next.length;
+            long max = 0;
+            for (long v : next) max = Math.max(max, v);
+            long nextScale = niceScale(max);
+
+            boolean sameHistory = values.length == n && nextScale == scale;
+            for (int i = 0; sameHistory && i < n - 1; i++) {
+                sameHistory = values[i] == next[i];
+            }
+            if (sameHistory && (n == 0 || values[n - 1] == next[n - 1])) return;
+
+            String oldLabel = newestLabel();
+            if (values.length != n) values = new long[n];
+            System.arraycopy(next, 0, values, 0, n);
+            scale = nextScale;
+            if (!sameHistory || n < 2) {
+                repaint();
+                return;
+            }
+            FontMetrics fm = getFontMetrics(FONT_BODY_BOLD);
+            int labelLeft = getWidth() - PADDING
+                    - Math.max(fm.stringWidth(oldLabel), fm.stringWidth(newestLabel()));
+            int left = Math.min(xOf(n - 2, n) - 2, labelLeft);
+            repaint(left, 0, getWidth() - left, getHeight());
+        }
+
+        /**
+         * The smallest 1, 2 or 5 times a power of ten that is at least max.
+         */
+        private static long niceScale(long max) {
+            long step = 1;
+            while (true) {
+                if (max <= step) return step;
+                if (max <= step * 2) return step * 2;
+                if (max <= step * 5) return step * 5;
+                step *= 10;
+            }
+        }
+
+        private String newestLabel() {
+            return values.length == 0 ? "" : format.apply(values[values.length - 1]);
+        }
+
+        private int plotTop() {
+            return PADDING + getFontMetrics(FONT_BODY_BOLD).getHeight() + 8;
+        }
+
+        private int xOf(int i, int n) {
+            int width = getWidth() - 2 * PADDING;
+            return PADDING + (n < 2 ? width : (int) ((long) width * i / (n - 1)));
+        }
+
+        private int yOf(long value) {
+            int top = plotTop();
+            int bottom = getHeight() - PADDING;
+            return bottom - (int) ((bottom - top) * Math.max(0, value) / (double) scale);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            int width = getWidth();
+            int height = getHeight();
+            g2.setColor(COLOR_PANEL);
+            g2.fillRect(0, 0, width, height);
+            g2.setColor(COLOR_BORDER);
+            g2.drawRect(0, 0, width - 1, height - 1);
+
+            g2.setFont(FONT_BODY_BOLD);
+            int baseline = PADDING + g2.getFontMetrics().getAscent();
+            g2.setColor(COLOR_TEXT_LIGHT);
+            g2.drawString(title, PADDING, baseline);
+            String newest = newestLabel();
+            g2.setColor(COLOR_TEXT);
+            g2.drawString(newest, width - PADDING - g2.getFontMetrics().stringWidth(newest), baseline);
+
+            int top = plotTop();
+            int bottom = height - PADDING;
+            g2.setColor(COLOR_BORDER);
+            g2.drawLine(PADDING, top, width - PADDING, top);
+            g2.drawLine(PADDING, bottom, width - PADDING, bottom);
+            g2.setFont(FONT_SMALL);
+            g2.setColor(COLOR_TEXT_LIGHT);
+            g2.drawString(format.apply(scale), PADDING + 4, top + g2.getFontMetrics().getAscent() + 2);
+
+            int n = values.length;
+            if (n < 2) return;
+            // Only the points within the clip, plus one either side, are drawn
+            Rectangle clip = g2.getClipBounds();
+            int from = 0, to = n - 1;
+            if (clip != null) {
+                while (from < n - 1 && xOf(from + 1, n) < clip.x) from++;
+                while (to > from && xOf(to - 1, n) > clip.x + clip.width) to--;
+            }
+            Path2D.Float line = new Path2D.Float();
+            Path2D.Float area = new Path2D.Float();
+            area.moveTo(xOf(from, n), bottom);
+            for (int i = from; i <= to; i++) {
+                int x = xOf(i, n);
+                int y = yOf(values[i]);
+                if (i == from) line.moveTo(x, y); else line.lineTo(x, y);
+                area.lineTo(x, y);
+            }
+            area.lineTo(xOf(to, n), bottom);
+            area.closePath();
+            g2.setColor(fill);
+            g2.fill(area);
+            g2.setColor(color);
+            g2.setStroke(new BasicStroke(2f));
+            g2.draw(line);
         }
     }
 
@@ -378,41 +894,83 @@ public class EcommerceApp extends JFrame {
      * Base Panel for managing data (Users, Products).
      * Provides a common structure: a table and buttons for CRUD.
      */
-    abstract class BaseManagementPanel extends JPanel {
+    abstract class BaseManagementPanel<T> extends JPanel {
+        // Beyond this many edited rows per refresh, one full reload is cheaper
+        private static final int MAX_ROW_EVENTS = 500;
+        // Search results shown at most, and the pause in typing before searching
+        private static final int MAX_MATCHES = 1000;
+        private static final int SEARCH_DELAY_MS = 100;
+
         protected EcommerceApp app;
+        protected EntityStore<T> store;
         protected JTable table;
-        protected DefaultTableModel tableModel;
+        protected StoreTableModel tableModel;
         protected JButton addButton;
         protected JButton editButton;
         protected JButton removeButton;
-
-        public BaseManagementPanel(EcommerceApp app, String title, String[] columnNames) {
+        protected JButton importButton;
+        protected JButton exportButton;
+        protected JButton filterButton;
+        protected JPanel buttonPanel;
+        private final Importer.Kind importKind;
+        private final SearchIndex<T> search; // Null if the panel has no search field
+        private JTextField searchField;
+        private final JLabel matchesLabel = new JLabel(" ");
+        private Timer searchTimer;
+        private int searchSequence; // Bumped per search so stale results are dropped (EDT only)
+
+        // What the table shows (EDT only): search matches in store order, or
+        // null for no search; a range filter on a typed column; a sort column
+        private List<T> searchMatches;
+        private boolean searchTruncated; // The search stopped at MAX_MATCHES
+        private final Map<Integer, TypedColumn> typedColumns = new LinkedHashMap<>();
+        private TypedColumn rangeColumn; // Null for no range filter
+        private long rangeLow, rangeHigh;
+        private TypedColumn sortColumn;  // Null for store order
+        private boolean sortDescending;
+
+        // Changes not yet shown in the table; guarded by this panel's monitor
+        private final Set<T> updatedEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        private boolean allChanged;
+        private int reportedRows; // Row count the table last heard about (EDT only)
+
+        public BaseManagementPanel(EcommerceApp app, EntityStore<T> store, Importer.Kind importKind,
+                                   SearchIndex<T> search, String title, String[] columnNames) {
             this.app = app;
+            this.store = store;
+            this.importKind = importKind;
+            this.search = search;
             setBackground(COLOR_BACKGROUND);
             setLayout(new BorderLayout(0, 10));
             setBorder(new EmptyBorder(10, 10, 10, 10));
 
-            // Title
+            // Title, and the search field if any
+            JPanel titlePanel = new JPanel(new BorderLayout(10, 0));
+            titlePanel.setBackground(COLOR_BACKGROUND);
             JLabel titleLabel = new JLabel(title);
             titleLabel.setFont(FONT_HEADER);
             titleLabel.setForeground(COLOR_TEXT);
             titleLabel.setBorder(new EmptyBorder(0, 0, 10, 0));
-            add(titleLabel, BorderLayout.NORTH);
+            titlePanel.add(titleLabel, BorderLayout.WEST);
+            titlePanel.add(createSearchPanel(), BorderLayout.EAST);
+            add(titlePanel, BorderLayout.NORTH);
 
-            // Table
-            tableModel = new DefaultTableModel(columnNames, 0) {
-                @Override
-                public boolean isCellEditable(int row, int column) {
-                    return false; // Make table read-only
-                }
-            };
+            // Table; clicking a typed column's header cycles its sort order
+            tableModel = new StoreTableModel(columnNames);
+            reportedRows = store.size();
             table = new JTable(tableModel);
+            table.getTableHeader().addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent evt) {
+                    int column = table.convertColumnIndexToModel(table.columnAtPoint(evt.getPoint()));
+                    onHeaderClicked(column);
+                }
+            });
             JScrollPane scrollPane = new JScrollPane(table);
             styleTable(table, scrollPane);
             add(scrollPane, BorderLayout.CENTER);
 
             // Button Panel
-            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+            buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
             buttonPanel.setBackground(COLOR_BACKGROUND);
 
             addButton = new JButton("Add New");
@@ -424,38 +982,508 @@ public class EcommerceApp extends JFrame {
             removeButton = new JButton("Remove Selected");
             styleButton(removeButton, COLOR_DANGER);
 
+            importButton = new JButton("Import...");
+            styleButton(importButton, COLOR_TEXT_LIGHT);
+            String name = importKind.name().toLowerCase() + ".";
+            importButton.addActionListener(timed(name + "import", e -> onImport()));
+
+            exportButton = new JButton("Export...");
+            styleButton(exportButton, COLOR_TEXT_LIGHT);
+            exportButton.addActionListener(timed(name + "export", e -> onExport()));
+
+            filterButton = new JButton("Filter...");
+            styleButton(filterButton, COLOR_TEXT_LIGHT);
+            filterButton.addActionListener(timed(name + "filter", e -> onFilter()));
+            filterButton.setVisible(false); // Until a typed column is added
+
             buttonPanel.add(addButton);
             buttonPanel.add(editButton);
             buttonPanel.add(removeButton);
+            buttonPanel.add(importButton);
+            buttonPanel.add(exportButton);
+            buttonPanel.add(filterButton);
             add(buttonPanel, BorderLayout.SOUTH);
             
             // Add listeners (must be done in subclass)
         }
-        
-        public abstract void loadTableData();
+
+        private JPanel createSearchPanel() {
+            JPanel panel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+            panel.setBackground(COLOR_BACKGROUND);
+            matchesLabel.setFont(FONT_BODY);
+            matchesLabel.setForeground(COLOR_TEXT_LIGHT);
+            panel.add(matchesLabel);
+            if (search == null) return panel;
+
+            searchField = new JTextField(24);
+            searchField.setFont(FONT_BODY);
+            searchField.setToolTipText("Type the start of any words to filter the table");
+            searchTimer = new Timer(SEARCH_DELAY_MS, e -> runSearch());
+            searchTimer.setRepeats(false);
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                public void insertUpdate(DocumentEvent e) { searchTimer.restart(); }
+                public void removeUpdate(DocumentEvent e) { searchTimer.restart(); }
+                public void changedUpdate(DocumentEvent e) { searchTimer.restart(); }
+            });
+
+            JLabel searchLabel = new JLabel("Search:");
+            searchLabel.setFont(FONT_BODY_BOLD);
+            panel.add(searchLabel);
+            panel.add(searchField);
+            return panel;
+        }
+
+        /**
+         * Runs the search field's query in the background and then filters
+         * the table to the matches, in store order. An empty query shows
+         * the whole store again. Must be called on the EDT.
+         */
+        private void runSearch() {
+            String query = searchField.getText();
+            int sequence = ++searchSequence;
+            new SwingWorker<List<T>, Void>() {
+                @Override
+                protected List<T> doInBackground() {
+                    return search.search(query, MAX_MATCHES);
+                }
+
+                @Override
+                protected void done() {
+                    if (sequence != searchSequence) return; // A later search is on its way
+                    try {
+                        showMatches(get());
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        matchesLabel.setText("Search failed: " + cause.getMessage());
+                    }
+                }
+            }.execute();
+        }
+
+        /**
+         * Filters the table to the matches still in the store, or clears the
+         * search for null.
+         */
+        private void showMatches(List<T> matches) {
+            if (matches == null) {
+                searchMatches = null;
+                refreshView();
+                return;
+            }
+            // Positions are looked up here on the owner thread, which also drops
+            // entities removed since the search and any found twice
+            Map<T, Integer> positions = new IdentityHashMap<>();
+            for (T entity : matches) {
+                int position = store.indexOf(entity);
+                if (position >= 0) positions.put(entity, position);
+            }
+            List<T> rows = new ArrayList<>(positions.keySet());
+            rows.sort((a, b) -> Integer.compare(positions.get(a), positions.get(b)));
+            searchMatches = rows;
+            searchTruncated = matches.size() >= MAX_MATCHES;
+            refreshView();
+        }
+
+        /**
+         * Makes a column sortable and range-filterable through a sorted
+         * index. parser turns what the user types into the index's key, the
+         * last key of a day for a date's upper bound, and throws
+         * IllegalArgumentException if it cannot.
+         */
+        protected void addTypedColumn(int column, SortedIndex<T> index, String hint, BoundParser parser) {
+            typedColumns.put(column, new TypedColumn(column, index, hint, parser));
+            filterButton.setVisible(true);
+        }
+
+        interface BoundParser {
+            long parse(String text, boolean upper);
+        }
+
+        class TypedColumn {
+            final int column;
+            final SortedIndex<T> index;
+            final String hint;
+            final BoundParser parser;
+
+            TypedColumn(int column, SortedIndex<T> index, String hint, BoundParser parser) {
+                this.column = column;
+                this.index = index;
+                this.hint = hint;
+                this.parser = parser;
+            }
+
+            @Override
+            public String toString() {
+                return tableModel.getColumnName(column) + " (" + hint + ")";
+            }
+        }
+
+        /**
+         * Cycles a typed column through ascending, descending and unsorted.
+         */
+        private void onHeaderClicked(int column) {
+            TypedColumn clicked = typedColumns.get(column);
+            if (clicked == null) return;
+            if (sortColumn != clicked) {
+                sortColumn = clicked;
+                sortDescending = false;
+            } else if (!sortDescending) {
+                sortDescending = true;
+            } else {
+                sortColumn = null;
+            }
+            for (int c = 0; c < table.getColumnCount(); c++) {
+                int modelColumn = table.convertColumnIndexToModel(c);
+                String name = tableModel.getColumnName(modelColumn);
+                if (sortColumn != null && sortColumn.column == modelColumn) {
+                    name += sortDescending ? " \u25BC" : " \u25B2";
+                }
+                table.getColumnModel().getColumn(c).setHeaderValue(name);
+            }
+            table.getTableHeader().repaint();
+            refreshView();
+        }
+
+        /**
+         * Asks for a typed column and an inclusive range of it, and filters
+         * the table to that range; clears the filter if one is set.
+         */
+        private void onFilter() {
+            if (rangeColumn != null) {
+                rangeColumn = null;
+                filterButton.setText("Filter...");
+                refreshView();
+                return;
+            }
+            JComboBox<Object> columnBox = new JComboBox<>(typedColumns.values().toArray());
+            JTextField fromField = new JTextField(12);
+            JTextField toField = new JTextField(12);
+            JPanel form = new JPanel(new GridLayout(3, 2, 10, 10));
+            form.add(new JLabel("Column:"));
+            form.add(columnBox);
+            form.add(new JLabel("From (blank for no limit):"));
+            form.add(fromField);
+            form.add(new JLabel("To (blank for no limit):"));
+            form.add(toField);
+            if (JOptionPane.showConfirmDialog(app, form, "Filter",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            TypedColumn column = (TypedColumn) columnBox.getSelectedItem();
+            try {
+                String from = fromField.getText().trim();
+                String to = toField.getText().trim();
+                rangeLow = from.isEmpty() ? Long.MIN_VALUE : column.parser.parse(from, false);
+                rangeHigh = to.isEmpty() ? Long.MAX_VALUE : column.parser.parse(to, true);
+            } catch (RuntimeException e) {
+                JOptionPane.showMessageDialog(app, "Invalid value: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            rangeColumn = column;
+            filterButton.setText("Clear Filter");
+            refreshView();
+        }
+
+        private boolean inRange(T entity) {
+            if (rangeColumn == null) return true;
+            long key = rangeColumn.index.keyOf(entity);
+            return key >= rangeLow && key <= rangeHigh;
+        }
+
+        /**
+         * Points the table model at the rows to show, given the search, range
+         * filter and sort order. A range filter is two binary searches in its
+         * index, and a sort alone reads rows straight from the index; only
+         * search matches, or a range sorted by another column, are copied and
+         * sorted here.
+         */
+        private void refreshView() {
+            if (searchMatches != null) {
+                List<T> rows = new ArrayList<>();
+                for (T entity : searchMatches) {
+                    if (inRange(entity)) rows.add(entity);
+                }
+                sortRows(rows);
+                tableModel.showRows(rows);
+                matchesLabel.setText(String.format(searchTruncated ? "First %,d matches" : "%,d matches", rows.size()));
+            } else if (rangeColumn != null) {
+                SortedIndex<T> index = rangeColumn.index;
+                int from = index.firstAtLeast(rangeLow);
+                int to = Math.max(from, index.endAtMost(rangeHigh));
+                if (sortColumn == null || sortColumn == rangeColumn) {
+                    tableModel.showIndex(index, from, to, sortColumn != null && sortDescending);
+                } else {
+                    List<T> rows = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) rows.add(index.get(i));
+                    sortRows(rows);
+                    tableModel.showRows(rows);
+                }
+                matchesLabel.setText(String.format("%,d in range", to - from));
+            } else if (sortColumn != null) {
+                tableModel.showIndex(sortColumn.index, 0, sortColumn.index.size(), sortDescending);
+                matchesLabel.setText(" ");
+            } else {
+                tableModel.showStore();
+                reportedRows = store.size();
+                matchesLabel.setText(" ");
+            }
+        }
+
+        private void sortRows(List<T> rows) {
+            if (sortColumn == null) return;
+            SortedIndex<T> index = sortColumn.index;
+            Comparator<T> order = Comparator.comparingLong(index::keyOf);
+            rows.sort(sortDescending ? order.reversed() : order);
+        }
+
+        private void onImport() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV or JSON lines", "csv", "json", "jsonl", "ndjson"));
+            if (chooser.showOpenDialog(app) == JFileChooser.APPROVE_OPTION) {
+                new ImportDialog(chooser.getSelectedFile().toPath(), importKind).start();
+            }
+        }
+
+        /**
+         * Exports the panel's store in the background; the UI stays usable
+         * while the file is written.
+         */
+        private void onExport() {
+            Exporter.Kind kind = Exporter.Kind.valueOf(importKind.name());
+            if (kind == Exporter.Kind.ORDERS) {
+                Object[] options = {"Orders", "Order Items"};
+                int choice = JOptionPane.showOptionDialog(app, "What would you like to export?", "Export",
+                        JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+                if (choice < 0) return;
+                if (choice == 1) kind = Exporter.Kind.ORDER_ITEMS;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV or JSON lines", "csv", "json", "jsonl", "ndjson"));
+            chooser.setSelectedFile(new File(kind.name().toLowerCase() + ".csv"));
+            if (chooser.showSaveDialog(app) != JFileChooser.APPROVE_OPTION) return;
+
+            Path file = chooser.getSelectedFile().toPath();
+            Exporter.Kind exportKind = kind;
+            Exporter exporter = new Exporter(app.users, app.products, app.orders, SwingUtilities::invokeLater);
+            exportButton.setEnabled(false);
+            new SwingWorker<Exporter.Result, Void>() {
+                @Override
+                protected Exporter.Result doInBackground() throws Exception {
+                    return exporter.run(file, exportKind);
+                }
+
+                @Override
+                protected void done() {
+                    exportButton.setEnabled(true);
+                    try {
+                        Exporter.Result result = get();
+                        JOptionPane.showMessageDialog(app, String.format("Exported %,d rows (%.1f MB) to %s in %.1f s.",
+                                result.rows, result.bytes / 1e6, file.getFileName(), result.millis / 1000.0),
+                                "Export", JOptionPane.INFORMATION_MESSAGE);
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        JOptionPane.showMessageDialog(app, "Export failed: " + cause.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+        }
+
+        /**
+         * Returns the value shown in the given column for an entity.
+         * Called only for cells that are actually painted.
+         */
+        protected abstract Object getColumnValue(T entity, int column);
+
+        /**
+         * Returns the type of a column's values, for the table's renderers.
+         */
+        protected Class<?> getColumnClass(int column) {
+            return Object.class;
+        }
+
+        /**
+         * Returns the entity shown in the given table row.
+         */
+        protected T getRowEntity(int row) {
+            return tableModel.getEntity(table.convertRowIndexToModel(row));
+        }
+
+        /**
+         * Returns the entities in the selected rows, in table order.
+         */
+        protected List<T> getSelectedEntities() {
+            int[] rows = table.getSelectedRows();
+            List<T> selected = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                T entity = getRowEntity(row);
+                if (entity != null) selected.add(entity);
+            }
+            return selected;
+        }
+
+        /**
+         * Records that an entity's row needs repainting. Safe to call from
+         * any thread.
+         */
+        public synchronized void markUpdated(T entity) {
+            if (allChanged) return;
+            if (updatedEntities.size() >= MAX_ROW_EVENTS) {
+                allChanged = true;
+                updatedEntities.clear();
+            } else {
+                updatedEntities.add(entity);
+            }
+        }
+
+        /**
+         * Records that rows may have moved, e.g. after a removal, so the
+         * next refresh must reload the whole table. Safe to call from any thread.
+         */
+        public synchronized void markAllChanged() {
+            allChanged = true;
+            updatedEntities.clear();
+        }
+
+        /**
+         * Tells the table what changed in the store since the last call.
+         * Appended rows and edited rows get row-level events, so selection
+         * and scroll position survive; anything else reloads the table.
+         * Nothing is copied either way, rows are read from the store again
+         * as they are repainted. While the table is searched, filtered or
+         * sorted, rows can move anywhere, so the view is rebuilt instead
+         * (and the search run again).
+         */
+        public void loadTableData() {
+            List<T> updated;
+            boolean reload;
+            synchronized (this) {
+                updated = new ArrayList<>(updatedEntities);
+                reload = allChanged;
+                updatedEntities.clear();
+                allChanged = false;
+            }
+            if (searchMatches != null) {
+                runSearch();
+                return;
+            }
+            if (rangeColumn != null || sortColumn != null) {
+                refreshView();
+                return;
+            }
+            int rows = store.size();
+            if (reload || rows < reportedRows) {
+                tableModel.fireTableDataChanged();
+            } else {
+                if (rows > reportedRows) {
+                    tableModel.fireTableRowsInserted(reportedRows, rows - 1);
+                }
+                for (T entity : updated) {
+                    int row = store.indexOf(entity);
+                    if (row >= 0 && row < reportedRows) {
+                        tableModel.fireTableRowsUpdated(row, row);
+                    }
+                }
+            }
+            reportedRows = rows;
+        }
+
+        /**
+         * A read-only table model backed directly by the panel's store.
+         * Rows are fetched by position and formatted on demand, so a
+         * refresh costs the same whatever the number of rows. The rows can
+         * instead be a run of positions in a sorted index, read the same
+         * way, or a list such as search matches.
+         */
+        class StoreTableModel extends AbstractTableModel {
+            private final String[] columnNames;
+            private List<T> rows;           // Null to read rows from the index or store
+            private SortedIndex<T> ordered; // Null for store order
+            private int from, to;           // Positions in ordered
+            private boolean descending;
+
+            StoreTableModel(String[] columnNames) {
+                this.columnNames = columnNames;
+            }
+
+            void showStore() {
+                rows = null;
+                ordered = null;
+                fireTableDataChanged();
+            }
+
+            void showIndex(SortedIndex<T> index, int from, int to, boolean descending) {
+                rows = null;
+                ordered = index;
+                this.from = from;
+                this.to = to;
+                this.descending = descending;
+                fireTableDataChanged();
+            }
+
+            void showRows(List<T> rows) {
+                this.rows = rows;
+                fireTableDataChanged();
+            }
+
+            /**
+             * The entity in the given row, or null if the store shrank
+             * before the table caught up.
+             */
+            T getEntity(int row) {
+                if (row >= getRowCount()) return null;
+                if (rows != null) return rows.get(row);
+                if (ordered == null) return store.getAt(row);
+                int position = descending ? to - 1 - row : from + row;
+                return position < ordered.size() ? ordered.get(position) : null;
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows != null ? rows.size() : ordered != null ? to - from : store.size();
+            }
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return BaseManagementPanel.this.getColumnClass(column);
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                T entity = getEntity(row);
+                return entity == null ? null : getColumnValue(entity, column);
+            }
+        }
     }
 
     /**
      * User Management Panel: Manage CRUD for Users.
      */
-    class UserManagementPanel extends BaseManagementPanel {
+    class UserManagementPanel extends BaseManagementPanel<User> {
         public UserManagementPanel(EcommerceApp app) {
-            super(app, "User Management", new String[]{"ID", "Username", "Email"});
+            super(app, app.users, Importer.Kind.USERS, app.shop.userSearch, "User Management", new String[]{"ID", "Username", "Email"});
             
-            addButton.addActionListener(e -> onAdd());
-            editButton.addActionListener(e -> onEdit());
-            removeButton.addActionListener(e -> onRemove());
+            addButton.addActionListener(timed("users.add", e -> onAdd()));
+            editButton.addActionListener(timed("users.edit", e -> onEdit()));
+            removeButton.addActionListener(timed("users.remove", e -> onRemove()));
         }
         
         @Override
-        public void loadTableData() {
-            tableModel.setRowCount(0); // Clear table
-            for (User user : app.users) {
-                Vector<String> row = new Vector<>();
-                row.add(user.id);
-                row.add(user.username);
-                row.add(user.email);
-                tableModel.addRow(row);
+        protected Object getColumnValue(User user, int column) {
+            switch (column) {
+                case 0: return Ids.format(user.id);
+                case 1: return user.getUsername();
+                default: return user.getEmail();
             }
         }
         
@@ -468,8 +1496,7 @@ public class EcommerceApp extends JFrame {
                 String username = form.getUsername();
                 String email = form.getEmail();
                 if (!username.isEmpty() && !email.isEmpty()) {
-                    app.users.add(new User(genId(), username, email));
-                    app.refreshAllPanels();
+                    app.users.add(new User(Ids.next(), username, email));
                 } else {
                     JOptionPane.showMessageDialog(app, "All fields are required.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -483,34 +1510,35 @@ public class EcommerceApp extends JFrame {
                 return;
             }
             
-            String userId = (String) tableModel.getValueAt(selectedRow, 0);
-            User user = app.users.stream().filter(u -> u.id.equals(userId)).findFirst().orElse(null);
+            User user = getRowEntity(selectedRow);
             
-            if (user == null) return;
+            if (user == null || !app.users.contains(user.id)) return; // Removed since the view was built
             
             UserFormPanel form = new UserFormPanel(user);
             int result = JOptionPane.showConfirmDialog(app, form, "Edit User", 
                 JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
                 
-            if (result == JOptionPane.OK_OPTION) {
-                user.username = form.getUsername();
-                user.email = form.getEmail();
-                app.refreshAllPanels();
+            if (result == JOptionPane.OK_OPTION && app.users.contains(user.id)) {
+                String username = form.getUsername();
+                String email = form.getEmail();
+                app.users.update(user, u -> {
+                    u.setUsername(username);
+                    u.setEmail(email);
+                });
             }
         }
         
         private void onRemove() {
-            int selectedRow = table.getSelectedRow();
-            if (selectedRow == -1) {
+            List<User> selected = getSelectedEntities();
+            if (selected.isEmpty()) {
                 JOptionPane.showMessageDialog(app, "Please select a user to remove.", "Warning", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             
-            int confirm = JOptionPane.showConfirmDialog(app, "Are you sure you want to remove this user?", "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            String what = selected.size() == 1 ? "this user" : "these " + selected.size() + " users";
+            int confirm = JOptionPane.showConfirmDialog(app, "Are you sure you want to remove " + what + "?", "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (confirm == JOptionPane.YES_OPTION) {
-                String userId = (String) tableModel.getValueAt(selectedRow, 0);
-                app.users.removeIf(u -> u.id.equals(userId));
-                app.refreshAllPanels();
+                app.refreshScheduler.applyBulk(() -> app.users.removeAll(selected));
             }
         }
     }
@@ -518,25 +1546,35 @@ public class EcommerceApp extends JFrame {
     /**
      * Product Management Panel: Manage CRUD for Products.
      */
-    class ProductManagementPanel extends BaseManagementPanel {
+    class ProductManagementPanel extends BaseManagementPanel<Product> {
         public ProductManagementPanel(EcommerceApp app) {
-            super(app, "Product Management", new String[]{"ID", "Name", "Price", "Stock"});
+            super(app, app.products, Importer.Kind.PRODUCTS, app.shop.productSearch, "Product Management", new String[]{"ID", "Name", "Price", "Stock"});
             
-            addButton.addActionListener(e -> onAdd());
-            editButton.addActionListener(e -> onEdit());
-            removeButton.addActionListener(e -> onRemove());
+            addButton.addActionListener(timed("products.add", e -> onAdd()));
+            editButton.addActionListener(timed("products.edit", e -> onEdit()));
+            removeButton.addActionListener(timed("products.remove", e -> onRemove()));
+
+            JButton stockButton = new JButton("Adjust Stock");
+            styleButton(stockButton, COLOR_PRIMARY);
+            stockButton.addActionListener(timed("products.adjustStock", e -> onAdjustStock()));
+            buttonPanel.add(stockButton, 3); // After Remove Selected
+
+            addTypedColumn(2, app.shop.productsByPrice, "$", (text, upper) -> Money.parse(text));
+            addTypedColumn(3, app.shop.productsByStock, "units", (text, upper) -> Integer.parseInt(text));
+        }
+
+        @Override
+        protected Class<?> getColumnClass(int column) {
+            return column == 3 ? Integer.class : Object.class;
         }
         
         @Override
-        public void loadTableData() {
-            tableModel.setRowCount(0); // Clear table
-            for (Product p : app.products) {
-                Vector<Object> row = new Vector<>();
-                row.add(p.id);
-                row.add(p.name);
-                row.add(String.format("%.2f", p.price));
-                row.add(p.stock);
-                tableModel.addRow(row);
+        protected Object getColumnValue(Product p, int column) {
+            switch (column) {
+                case 0: return Ids.format(p.id);
+                case 1: return p.getName();
+                case 2: return Money.format(p.getPrice());
+                default: return p.getStock();
             }
         }
         
@@ -548,10 +1586,9 @@ public class EcommerceApp extends JFrame {
             if (result == JOptionPane.OK_OPTION) {
                 try {
                     String name = form.getProductName();
-                    double price = form.getPrice();
+                    long price = form.getPrice();
                     int stock = form.getStock();
-                    app.products.add(new Product(genId(), name, price, stock));
-                    app.refreshAllPanels();
+                    app.products.add(new Product(Ids.next(), name, price, stock));
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(app, "Invalid input. Check price and stock.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -565,21 +1602,24 @@ public class EcommerceApp extends JFrame {
                 return;
             }
             
-            String productId = (String) tableModel.getValueAt(selectedRow, 0);
-            Product p = app.products.stream().filter(prod -> prod.id.equals(productId)).findFirst().orElse(null);
+            Product p = getRowEntity(selectedRow);
             
-            if (p == null) return;
+            if (p == null || !app.products.contains(p.id)) return; // Removed since the view was built
             
             ProductFormPanel form = new ProductFormPanel(p);
             int result = JOptionPane.showConfirmDialog(app, form, "Edit Product", 
                 JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
                 
-            if (result == JOptionPane.OK_OPTION) {
+            if (result == JOptionPane.OK_OPTION && app.products.contains(p.id)) {
                 try {
-                    p.name = form.getProductName();
-                    p.price = form.getPrice();
-                    p.stock = form.getStock();
-                    app.refreshAllPanels();
+                    String name = form.getProductName();
+                    long price = form.getPrice();
+                    int stock = form.getStock();
+                    app.products.update(p, prod -> {
+                        prod.setName(name);
+                        prod.setPrice(price);
+                        prod.setStock(stock);
+                    });
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(app, "Invalid input. Check price and stock.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -587,17 +1627,44 @@ public class EcommerceApp extends JFrame {
         }
         
         private void onRemove() {
-            int selectedRow = table.getSelectedRow();
-            if (selectedRow == -1) {
+            List<Product> selected = getSelectedEntities();
+            if (selected.isEmpty()) {
                 JOptionPane.showMessageDialog(app, "Please select a product to remove.", "Warning", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             
-            int confirm = JOptionPane.showConfirmDialog(app, "Are you sure you want to remove this product?", "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            String what = selected.size() == 1 ? "this product" : "these " + selected.size() + " products";
+            int confirm = JOptionPane.showConfirmDialog(app, "Are you sure you want to remove " + what + "?", "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (confirm == JOptionPane.YES_OPTION) {
-                String productId = (String) tableModel.getValueAt(selectedRow, 0);
-                app.products.removeIf(p -> p.id.equals(productId));
-                app.refreshAllPanels();
+                app.refreshScheduler.applyBulk(() -> app.products.removeAll(selected));
+            }
+        }
+
+        /**
+         * Adds to or takes from the stock of every selected product. Stock
+         * never goes below zero.
+         */
+        private void onAdjustStock() {
+            List<Product> selected = getSelectedEntities();
+            if (selected.isEmpty()) {
+                JOptionPane.showMessageDialog(app, "Please select the products to adjust.", "Warning", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+
+            String what = selected.size() == 1 ? "this product" : "these " + selected.size() + " products";
+            String input = JOptionPane.showInputDialog(app, "Change in stock for " + what + " (e.g. 10 or -5):",
+                    "Adjust Stock", JOptionPane.PLAIN_MESSAGE);
+            if (input == null) return;
+            int change;
+            try {
+                change = Integer.parseInt(input.trim());
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(app, "Invalid input. Enter a whole number.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (change != 0) {
+                app.refreshScheduler.applyBulk(() -> app.products.updateAll(selected,
+                        p -> p.setStock((int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) p.getStock() + change)))));
             }
         }
     }
@@ -605,33 +1672,44 @@ public class EcommerceApp extends JFrame {
     /**
      * Order Management Panel: View Orders and update status.
      */
-    class OrderManagementPanel extends BaseManagementPanel {
+    class OrderManagementPanel extends BaseManagementPanel<Order> {
         private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
         
         public OrderManagementPanel(EcommerceApp app) {
-            super(app, "Order Management", new String[]{"ID", "User", "Total Price", "Date", "Status"});
+            super(app, app.orders, Importer.Kind.ORDERS, app.shop.orderSearch, "Order Management", new String[]{"ID", "User", "Total Price", "Date", "Status"});
             
             // Customize buttons for Orders
             addButton.setText("View Details");
-            addButton.addActionListener(e -> onViewDetails());
+            addButton.addActionListener(timed("orders.viewDetails", e -> onViewDetails()));
             
             editButton.setText("Update Status");
-            editButton.addActionListener(e -> onUpdateStatus());
+            editButton.addActionListener(timed("orders.updateStatus", e -> onUpdateStatus()));
             
             removeButton.setVisible(false); // Can't remove orders
+
+            addTypedColumn(2, app.shop.ordersByTotal, "$", (text, upper) -> Money.parse(text));
+            addTypedColumn(3, app.shop.ordersByDate, "yyyy-MM-dd", (text, upper) -> {
+                LocalDate day = LocalDate.parse(text);
+                if (upper) day = day.plusDays(1); // Up to the end of the day
+                long millis = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                return upper ? millis - 1 : millis;
+            });
+            addTypedColumn(4, app.shop.ordersByStatusRank, String.join(" < ", Order.STATUSES), (text, upper) -> {
+                for (int s = 0; s < Order.STATUSES.length; s++) {
+                    if (Order.STATUSES[s].equalsIgnoreCase(text)) return s;
+                }
+                throw new IllegalArgumentException("unknown status '" + text + "'");
+            });
         }
         
         @Override
-        public void loadTableData() {
-            tableModel.setRowCount(0); // Clear table
-            for (Order o : app.orders) {
-                Vector<Object> row = new Vector<>();
-                row.add(o.id);
-                row.add(o.user.username);
-                row.add(String.format("$%.2f", o.totalPrice));
-                row.add(dateFormat.format(o.orderDate));
-                row.add(o.status);
-                tableModel.addRow(row);
+        protected Object getColumnValue(Order o, int column) {
+            switch (column) {
+                case 0: return Ids.format(o.id);
+                case 1: return o.user.getUsername();
+                case 2: return "$" + Money.format(o.totalPrice);
+                case 3: return dateFormat.format(o.orderDate);
+                default: return o.status;
             }
         }
         
@@ -641,8 +1719,7 @@ public class EcommerceApp extends JFrame {
                 JOptionPane.showMessageDialog(app, "Please select an order.", "Warning", JOptionPane.WARNING_MESSAGE);
                 return null;
             }
-            String orderId = (String) tableModel.getValueAt(selectedRow, 0);
-            return app.orders.stream().filter(o -> o.id.equals(orderId)).findFirst().orElse(null);
+            return getRowEntity(selectedRow);
         }
         
         private void onViewDetails() {
@@ -650,15 +1727,15 @@ public class EcommerceApp extends JFrame {
             if (order == null) return;
             
             StringBuilder details = new StringBuilder();
-            details.append("Order ID: ").append(order.id).append("\n");
-            details.append("User: ").append(order.user.username).append("\n");
+            details.append("Order ID: ").append(Ids.format(order.id)).append("\n");
+            details.append("User: ").append(order.user.getUsername()).append("\n");
             details.append("Status: ").append(order.status).append("\n");
-            details.append("Total: $").append(String.format("%.2f", order.totalPrice)).append("\n\n");
+            details.append("Total: $").append(Money.format(order.totalPrice)).append("\n\n");
             details.append("Items:\n");
             
-            for (OrderItem item : order.items) {
-                details.append(String.format("- %s (Qty: %d) @ $%.2f ea.\n", 
-                    item.product.name, item.quantity, item.product.price));
+            for (OrderItem item : order.getItems()) {
+                details.append(String.format("- %s (Qty: %d) @ $%s ea.\n", 
+                    item.product.getName(), item.quantity, Money.format(item.unitPrice)));
             }
             
             JTextArea textArea = new JTextArea(details.toString());
@@ -671,17 +1748,314 @@ public class EcommerceApp extends JFrame {
         }
         
         private void onUpdateStatus() {
-            Order order = getSelectedOrder();
-            if (order == null) return;
+            List<Order> selected = getSelectedEntities();
+            if (selected.isEmpty()) {
+                JOptionPane.showMessageDialog(app, "Please select an order.", "Warning", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
             
-            String[] statuses = {"Pending", "Shipped", "Delivered", "Cancelled"};
+            Order first = selected.get(0);
+            String what = selected.size() == 1 ? "Order " + Ids.format(first.id) : selected.size() + " orders";
             String newStatus = (String) JOptionPane.showInputDialog(
-                app, "Select new status for Order " + order.id, "Update Status",
-                JOptionPane.PLAIN_MESSAGE, null, statuses, order.status);
-                
-            if (newStatus != null && !newStatus.equals(order.status)) {
-                order.status = newStatus;
-                app.refreshAllPanels();
+                app, "Select new status for " + what, "Update Status",
+                JOptionPane.PLAIN_MESSAGE, null, Order.STATUSES, first.status);
+            if (newStatus == null) return;
+
+            List<Order> changing = new ArrayList<>(selected.size());
+            for (Order o : selected) {
+                if (!newStatus.equals(o.status)) changing.add(o);
+            }
+            if (!changing.isEmpty()) {
+                app.refreshScheduler.applyBulk(() -> app.orders.updateAll(changing, o -> o.status = newStatus));
+            }
+        }
+    }
+
+    /**
+     * Reports Panel: revenue by product, user, status and day, the best
+     * sellers and the average order value. Reports run in the background
+     * (see Reports); a refresh while one is running queues one more run
+     * rather than starting another.
+     */
+    class ReportsPanel extends JPanel {
+        private static final int TOP_ROWS = 100;
+
+        private EcommerceApp app;
+        private final Reports reports;
+        private final JLabel summaryLabel = new JLabel(" ");
+        private final JButton refreshButton = new JButton("Refresh");
+        private final ReportTableModel byProductModel = new ReportTableModel("Product", "Units");
+        private final ReportTableModel topSellersModel = new ReportTableModel("Product", "Units");
+        private final ReportTableModel byUserModel = new ReportTableModel("User", "Orders");
+        private final ReportTableModel byStatusModel = new ReportTableModel("Status", "Orders");
+        private final ReportTableModel byDayModel = new ReportTableModel("Day", "Orders");
+        private boolean running;  // EDT only
+        private boolean runAgain; // EDT only
+
+        public ReportsPanel(EcommerceApp app) {
+            this.app = app;
+            reports = new Reports(app.orders, SwingUtilities::invokeLater);
+            setBackground(COLOR_BACKGROUND);
+            setLayout(new BorderLayout(0, 10));
+            setBorder(new EmptyBorder(10, 10, 10, 10));
+
+            JLabel title = new JLabel("Sales Reports");
+            title.setFont(FONT_HEADER);
+            title.setForeground(COLOR_TEXT);
+            title.setBorder(new EmptyBorder(0, 0, 10, 0));
+            add(title, BorderLayout.NORTH);
+
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.setFont(FONT_BODY_BOLD);
+            tabs.addTab("Best Sellers (Top " + TOP_ROWS + ")", createTable(topSellersModel));
+            tabs.addTab("By Product (Top " + TOP_ROWS + ")", createTable(byProductModel));
+            tabs.addTab("By User (Top " + TOP_ROWS + ")", createTable(byUserModel));
+            tabs.addTab("By Status", createTable(byStatusModel));
+            tabs.addTab("By Day", createTable(byDayModel));
+            add(tabs, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+            bottomPanel.setBackground(COLOR_BACKGROUND);
+            styleButton(refreshButton, COLOR_PRIMARY);
+            refreshButton.addActionListener(timed("reports.refresh", e -> runReports()));
+            summaryLabel.setFont(FONT_BODY);
+            summaryLabel.setForeground(COLOR_TEXT_LIGHT);
+            bottomPanel.add(refreshButton);
+            bottomPanel.add(summaryLabel);
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
+
+        private JScrollPane createTable(ReportTableModel model) {
+            JTable table = new JTable(model);
+            JScrollPane scrollPane = new JScrollPane(table);
+            styleTable(table, scrollPane);
+            return scrollPane;
+        }
+
+        /**
+         * Runs the reports off the EDT and shows them when done. Must be
+         * called on the EDT.
+         */
+        public void runReports() {
+            if (running) {
+                runAgain = true;
+                return;
+            }
+            running = true;
+            refreshButton.setEnabled(false);
+            summaryLabel.setText("Running...");
+            new SwingWorker<Reports.Report, Void>() {
+                @Override
+                protected Reports.Report doInBackground() {
+                    return reports.run(TOP_ROWS);
+                }
+
+                @Override
+                protected void done() {
+                    running = false;
+                    refreshButton.setEnabled(true);
+                    try {
+                        showReport(get());
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        summaryLabel.setText("Reports failed: " + cause.getMessage());
+                    }
+                    if (runAgain) {
+                        runAgain = false;
+                        runReports();
+                    }
+                }
+            }.execute();
+        }
+
+        private void showReport(Reports.Report report) {
+            topSellersModel.setRows(report.topSellers);
+            byProductModel.setRows(report.byProduct);
+            byUserModel.setRows(report.byUser);
+            byStatusModel.setRows(report.byStatus);
+            byDayModel.setRows(report.byDay);
+            summaryLabel.setText(String.format("%,d orders, revenue $%s, average order $%s (%,d ms)",
+                    report.orders, Money.format(report.revenue),
+                    Money.format(report.getAverageOrderValue()), report.millis));
+        }
+
+        /**
+         * A read-only table model over the rows of one report.
+         */
+        class ReportTableModel extends AbstractTableModel {
+            private final String[] columnNames;
+            private List<Reports.Row> rows = Collections.emptyList();
+
+            ReportTableModel(String labelColumn, String countColumn) {
+                columnNames = new String[]{labelColumn, "Revenue", countColumn};
+            }
+
+            void setRows(List<Reports.Row> rows) {
+                this.rows = rows;
+                fireTableDataChanged();
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                Reports.Row r = rows.get(row);
+                switch (column) {
+                    case 0: return r.label;
+                    case 1: return "$" + Money.format(r.revenue);
+                    default: return r.count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Diagnostics Panel: latency histograms of the hot paths, gauges such
+     * as row counts and heap, and the EDT stalls caught by the watchdog with
+     * what the EDT was doing. Refreshed every REFRESH_INTERVAL_MS while it
+     * is shown; the same figures are available over JMX (see Metrics).
+     */
+    class DiagnosticsPanel extends JPanel {
+        static final int REFRESH_INTERVAL_MS = 1000;
+
+        private EcommerceApp app;
+        private final RowsTableModel latencyModel =
+                new RowsTableModel("Path", "Count", "Mean ms", "p50 ms", "p99 ms", "Max ms");
+        private final RowsTableModel gaugeModel = new RowsTableModel("Gauge", "Value");
+        private final JTextArea stallsArea = new JTextArea();
+        private final JTabbedPane tabs = new JTabbedPane();
+        private final JLabel summaryLabel = new JLabel(" ");
+
+        public DiagnosticsPanel(EcommerceApp app) {
+            this.app = app;
+            setBackground(COLOR_BACKGROUND);
+            setLayout(new BorderLayout(0, 10));
+            setBorder(new EmptyBorder(10, 10, 10, 10));
+
+            JLabel title = new JLabel("Diagnostics");
+            title.setFont(FONT_HEADER);
+            title.setForeground(COLOR_TEXT);
+            title.setBorder(new EmptyBorder(0, 0, 10, 0));
+            add(title, BorderLayout.NORTH);
+
+            stallsArea.setEditable(false);
+            stallsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JScrollPane stallsPane = new JScrollPane(stallsArea);
+            stallsPane.setBorder(new LineBorder(COLOR_BORDER));
+
+            tabs.setFont(FONT_BODY_BOLD);
+            tabs.addTab("Latency", createTable(latencyModel));
+            tabs.addTab("Gauges", createTable(gaugeModel));
+            tabs.addTab("EDT Stalls", stallsPane);
+            add(tabs, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+            bottomPanel.setBackground(COLOR_BACKGROUND);
+            JButton resetButton = new JButton("Reset");
+            styleButton(resetButton, COLOR_TEXT_LIGHT);
+            resetButton.addActionListener(timed("diagnostics.reset", e -> {
+                Metrics.reset();
+                refresh();
+            }));
+            summaryLabel.setFont(FONT_BODY);
+            summaryLabel.setForeground(COLOR_TEXT_LIGHT);
+            bottomPanel.add(resetButton);
+            bottomPanel.add(summaryLabel);
+            add(bottomPanel, BorderLayout.SOUTH);
+
+            new Timer(REFRESH_INTERVAL_MS, e -> app.refreshScheduler.markDirty("DIAGNOSTICS")).start();
+        }
+
+        private JScrollPane createTable(RowsTableModel model) {
+            JTable table = new JTable(model);
+            JScrollPane scrollPane = new JScrollPane(table);
+            styleTable(table, scrollPane);
+            return scrollPane;
+        }
+
+        public void refresh() {
+            List<Object[]> latencies = new ArrayList<>();
+            Metrics.histograms().forEach((name, histogram) -> {
+                Metrics.Summary s = histogram.summary();
+                if (s.count == 0) return;
+                latencies.add(new Object[]{name, String.format("%,d", s.count), millis(s.getMean()),
+                        millis(s.getPercentile(0.5)), millis(s.getPercentile(0.99)), millis(s.max)});
+            });
+            latencyModel.setRows(latencies);
+
+            List<Object[]> gauges = new ArrayList<>();
+            Metrics.gauges().forEach((name, value) -> gauges.add(new Object[]{name, String.format("%,d", value)}));
+            gaugeModel.setRows(gauges);
+
+            if (watchdog == null) {
+                summaryLabel.setText("EDT watchdog not running");
+                return;
+            }
+            List<EdtWatchdog.Stall> stalls = watchdog.getRecentStalls();
+            StringBuilder text = new StringBuilder();
+            for (EdtWatchdog.Stall stall : stalls) {
+                text.append(stall).append('\n');
+            }
+            if (!text.toString().equals(stallsArea.getText())) {
+                stallsArea.setText(text.toString());
+                stallsArea.setCaretPosition(0);
+            }
+            tabs.setTitleAt(2, "EDT Stalls (" + watchdog.getStallCount() + ")");
+            summaryLabel.setText(String.format("%,d EDT stalls over %d ms; latest %d shown",
+                    watchdog.getStallCount(), watchdog.getThresholdMillis(), stalls.size()));
+        }
+
+        private String millis(long nanos) {
+            return String.format("%.3f", nanos / 1e6);
+        }
+
+        /**
+         * A read-only table model over rows of preformatted cells.
+         */
+        class RowsTableModel extends AbstractTableModel {
+            private final String[] columnNames;
+            private List<Object[]> rows = Collections.emptyList();
+
+            RowsTableModel(String... columnNames) {
+                this.columnNames = columnNames;
+            }
+
+            void setRows(List<Object[]> rows) {
+                this.rows = rows;
+                fireTableDataChanged();
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                return rows.get(row)[column];
             }
         }
     }
@@ -690,6 +2064,103 @@ public class EcommerceApp extends JFrame {
     // --- Reusable Form Panels for Dialogs ---
     // =========================================================================
 
+    /**
+     * Runs an Importer in the background with a progress bar and a Cancel
+     * button. Rows appear in the tables batch by batch as they are inserted.
+     */
+    class ImportDialog extends JDialog {
+        private final JProgressBar progressBar = new JProgressBar(0, 1000);
+        private final JLabel statusLabel = new JLabel("Starting...");
+        private final Importer importer = new Importer(users, products, orders, SwingUtilities::invokeLater);
+        private final Path file;
+        private final Importer.Kind kind;
+
+        public ImportDialog(Path file, Importer.Kind kind) {
+            super(EcommerceApp.this, "Importing " + file.getFileName(), true);
+            this.file = file;
+            this.kind = kind;
+            setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+            JPanel panel = new JPanel(new BorderLayout(0, 10));
+            panel.setBackground(COLOR_PANEL);
+            panel.setBorder(new EmptyBorder(15, 15, 15, 15));
+            statusLabel.setFont(FONT_BODY);
+            progressBar.setPreferredSize(new Dimension(400, 20));
+            JButton cancelButton = new JButton("Cancel");
+            styleButton(cancelButton, COLOR_DANGER);
+            cancelButton.addActionListener(timed("import.cancel", e -> {
+                importer.cancel();
+                statusLabel.setText("Cancelling...");
+            }));
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+            buttonPanel.setBackground(COLOR_PANEL);
+            buttonPanel.add(cancelButton);
+
+            panel.add(statusLabel, BorderLayout.NORTH);
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(buttonPanel, BorderLayout.SOUTH);
+            setContentPane(panel);
+            pack();
+            setLocationRelativeTo(EcommerceApp.this);
+        }
+
+        /**
+         * Starts the import and shows the dialog until it finishes.
+         */
+        public void start() {
+            new SwingWorker<Importer.Result, long[]>() {
+                @Override
+                protected Importer.Result doInBackground() throws Exception {
+                    return importer.run(file, kind, (read, total, imported, rejected) ->
+                            publish(new long[]{read, total, imported, rejected}));
+                }
+
+                @Override
+                protected void process(List<long[]> updates) {
+                    long[] last = updates.get(updates.size() - 1); // Only the latest matters
+                    progressBar.setValue(last[1] == 0 ? 1000 : (int) (last[0] * 1000 / last[1]));
+                    statusLabel.setText(String.format("Imported %,d, rejected %,d", last[2], last[3]));
+                }
+
+                @Override
+                protected void done() {
+                    dispose();
+                    try {
+                        showSummary(get());
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        JOptionPane.showMessageDialog(EcommerceApp.this, "Import failed: " + cause.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+            setVisible(true);
+        }
+
+        private void showSummary(Importer.Result result) {
+            StringBuilder summary = new StringBuilder();
+            summary.append(result.cancelled ? "Import cancelled.\n" : "Import finished.\n");
+            summary.append(String.format("Imported %,d, rejected %,d in %.1f s.%n", result.imported, result.rejected, result.millis / 1000.0));
+            if (!result.errors.isEmpty()) {
+                summary.append("\nRejected rows:\n");
+                for (String error : result.errors) {
+                    summary.append(error).append("\n");
+                }
+                if (result.rejected > result.errors.size()) {
+                    summary.append("...\n");
+                }
+            }
+            JTextArea textArea = new JTextArea(summary.toString());
+            textArea.setEditable(false);
+            textArea.setOpaque(false);
+            textArea.setFont(FONT_BODY);
+            JScrollPane scrollPane = new JScrollPane(textArea);
+            scrollPane.setPreferredSize(new Dimension(450, 250));
+            JOptionPane.showMessageDialog(EcommerceApp.this, scrollPane, "Import", 
+                    result.rejected > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
     /**
      * A reusable form panel for adding/editing a User.
      */
@@ -705,8 +2176,8 @@ public class EcommerceApp extends JFrame {
             emailField = new JTextField(20);
 
             if (user != null) {
-                usernameField.setText(user.username);
-                emailField.setText(user.email);
+                usernameField.setText(user.getUsername());
+                emailField.setText(user.getEmail());
             }
 
             add(new JLabel("Username:"));
@@ -731,7 +2202,7 @@ public class EcommerceApp extends JFrame {
             setBackground(COLOR_PANEL);
 
             nameField = new JTextField(20);
-            priceSpinner = new JSpinner(new SpinnerNumberModel(0.0, 0.0, 100000.0, 0.01));
+            priceSpinner = new JSpinner(new SpinnerNumberModel(0.0, 0.0, Money.toDouble(Money.MAX_PRICE), 0.01));
             stockSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000, 1));
             
             // Fix for spinner text field width
@@ -742,9 +2213,9 @@ public class EcommerceApp extends JFrame {
 
 
             if (product != null) {
-                nameField.setText(product.name);
-                priceSpinner.setValue(product.price);
-                stockSpinner.setValue(product.stock);
+                nameField.setText(product.getName());
+                priceSpinner.setValue(Money.toDouble(product.getPrice()));
+                stockSpinner.setValue(product.getStock());
             }
 
             add(new JLabel("Product Name:"));
@@ -755,7 +2226,7 @@ public class EcommerceApp extends JFrame {
             add(stockSpinner);
         }
         public String getProductName() { return nameField.getText(); }
-        public double getPrice() { return (Double) priceSpinner.getValue(); }
+        public long getPrice() { return Money.fromDouble((Double) priceSpinner.getValue()); }
         public int getStock() { return (Integer) stockSpinner.getValue(); }
     }
 
@@ -764,6 +2235,12 @@ public class EcommerceApp extends JFrame {
      * Main method: Sets up UIManager defaults and runs the app.
      */
     public static void main(String[] args) {
+        if (List.of(args).contains("--headless")) {
+            // Too late to run without AWT: loading this class has loaded it
+            System.err.println("For headless mode run java Launcher --headless or java ShopServer");
+            System.exit(2);
+        }
+
         // --- Set global UI defaults for the white theme ---
         try {
             // Set Nimbus L&F for a cleaner base
@@ -796,5 +2273,10 @@ public class EcommerceApp extends JFrame {
         
         // Run the GUI creation on the Event Dispatch Thread (EDT)
         SwingUtilities.invokeLater(EcommerceApp::new);
+
+        // Diagnostics: hot path metrics over JMX, and EDT stall detection.
+        // Started meanwhile, as the JMX server takes a while to come up.
+        Metrics.registerMBean();
+        watchdog = EdtWatchdog.start(STALL_THRESHOLD_MS);
     }
 }
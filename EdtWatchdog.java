@@ -0,0 +1,176 @@
+import java.awt.EventQueue;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Detects stalls of the Swing event dispatch thread. A daemon thread posts
+ * a heartbeat to the event queue and waits for the EDT to run it; if the
+ * heartbeat has waited longer than the threshold, the EDT is busy with
+ * something that should not be on it, and its stack is captured right then
+ * so the culprit is on record. The stall's length is filled in once the
+ * heartbeat finally runs.
+ *
+ * The time each heartbeat waited is recorded in the "edt.queueLatency"
+ * histogram and stall lengths in "edt.stall". The latest stalls are kept
+ * for the Diagnostics card, logged to stderr and readable over JMX as
+ * "ecommerce:type=EdtWatchdog". The cost is one queued event per check
+ * interval. As the event queue is never empty for long, AWT does not shut
+ * down by itself while a watchdog runs; the app exits explicitly anyway.
+ */
+public final class EdtWatchdog implements Runnable {
+    private static final int KEPT_STALLS = 20;
+
+    private final long thresholdNanos;
+    private final long intervalMillis;
+    private final Metrics.Histogram queueLatency = Metrics.histogram("edt.queueLatency");
+    private final Metrics.Histogram stallLength = Metrics.histogram("edt.stall");
+    private final ArrayDeque<Stall> stalls = new ArrayDeque<>(); // Guarded by itself, newest first
+    private volatile Thread edt; // As of the latest heartbeat
+    private volatile long stallCount;
+
+    /**
+     * A stall that was caught: when it began, how long it lasted (-1 while
+     * it still goes on) and what the EDT was doing at the threshold.
+     */
+    public static final class Stall {
+        public final long startMillis;
+        public final StackTraceElement[] stack;
+        volatile long millis = -1;
+
+        Stall(long startMillis, StackTraceElement[] stack) {
+            this.startMillis = startMillis;
+            this.stack = stack;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder()
+                    .append("EDT stalled at ").append(new Date(startMillis))
+                    .append(millis < 0 ? " (still stalled)" : " for " + millis + " ms").append('\n');
+            for (StackTraceElement frame : stack) {
+                sb.append("    at ").append(frame).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * JMX view of the watchdog.
+     */
+    public interface StatsMXBean {
+        long getThresholdMillis();
+        long getStallCount();
+        String[] getRecentStalls();
+    }
+
+    /**
+     * A watchdog to run on a thread of the caller's; interrupting the
+     * thread stops it. See start for the usual way.
+     */
+    EdtWatchdog(long thresholdMillis) {
+        thresholdNanos = thresholdMillis * 1_000_000;
+        intervalMillis = Math.max(10, thresholdMillis / 4);
+    }
+
+    /**
+     * Starts a watchdog on a daemon thread and registers it over JMX.
+     */
+    public static EdtWatchdog start(long thresholdMillis) {
+        EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis);
+        Thread thread = new Thread(watchdog, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(watchdog.new Stats(),
+                    new ObjectName("ecommerce:type=EdtWatchdog"));
+        } catch (JMException e) {
+            System.err.println("Could not register EDT watchdog MBean: " + e);
+        }
+        return watchdog;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * The latest stalls, newest first.
+     */
+    public List<Stall> getRecentStalls() {
+        synchronized (stalls) {
+            return new ArrayList<>(stalls);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Heartbeat heartbeat = new Heartbeat();
+            EventQueue.invokeLater(heartbeat);
+            Stall stall = null;
+            while (heartbeat.ranAt == 0) {
+                if (!sleep(intervalMillis)) return;
+                long waited = System.nanoTime() - heartbeat.postedAt;
+                if (stall == null && heartbeat.ranAt == 0 && waited >= thresholdNanos) {
+                    Thread thread = edt;
+                    stall = new Stall(System.currentTimeMillis() - waited / 1_000_000,
+                            thread == null ? new StackTraceElement[0] : thread.getStackTrace());
+                    synchronized (stalls) {
+                        if (stalls.size() == KEPT_STALLS) stalls.removeLast();
+                        stalls.addFirst(stall);
+                    }
+                    stallCount++;
+                }
+            }
+            long waited = heartbeat.ranAt - heartbeat.postedAt;
+            queueLatency.record(waited);
+            if (stall != null) {
+                stall.millis = waited / 1_000_000;
+                stallLength.record(waited);
+                System.err.print(stall);
+            }
+            if (!sleep(intervalMillis)) return;
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private final class Heartbeat implements Runnable {
+        final long postedAt = System.nanoTime();
+        volatile long ranAt;
+
+        @Override
+        public void run() {
+            edt = Thread.currentThread();
+            ranAt = Math.max(postedAt + 1, System.nanoTime()); // Never 0
+        }
+    }
+
+    private final class Stats implements StatsMXBean {
+        @Override public long getThresholdMillis() { return EdtWatchdog.this.getThresholdMillis(); }
+        @Override public long getStallCount() { return stallCount; }
+        @Override public String[] getRecentStalls() {
+            return EdtWatchdog.this.getRecentStalls().stream().map(Stall::toString).toArray(String[]::new);
+        }
+    }
+}
@@ -0,0 +1,624 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An in-memory table of entities with a primary hash index by ID and
+ * optional secondary indexes.
+ *
+ * Entities are kept in insertion order for display. Lookup and removal by ID
+ * are O(1): a removed entity leaves an empty slot behind, and empty slots are
+ * compacted away the next time the store is read by position. IDs are
+ * primitive longs (see Ids) and the ID index stores them unboxed.
+ *
+ * Listeners are told about every change, so derived data such as running
+ * totals can be maintained without rescanning the store.
+ *
+ * The store is confined to its owner thread, but other threads can read a
+ * snapshot of it (see Snapshot). The slots are held in fixed-size chunks
+ * that snapshots share with the store: taking a snapshot only bumps an
+ * epoch, and the first write to a chunk after that copies the chunk, so a
+ * snapshot costs O(1) and each later change at most one chunk copy.
+ */
+public class EntityStore<T> implements Iterable<T> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK - 1;
+
+    private final ToLongFunction<T> idOf;
+    private final UnaryOperator<T> copyOf; // Null if snapshots only isolate membership
+    private final SlotMap slotById = new SlotMap();
+    private final List<Index<?, T>> indexes = new ArrayList<>();
+    private final List<Listener<? super T>> listeners = new ArrayList<>();
+
+    // Slot s is chunks[s >>> CHUNK_BITS][s & CHUNK_MASK]. The array and a
+    // chunk may only be written in the epoch they were made or copied in;
+    // before that a snapshot may be reading them.
+    private Object[][] chunks = new Object[1][];
+    private int[] chunkEpochs = new int[1];
+    private int chunksEpoch;
+    private int epoch;
+    private final List<Snapshot<T>> openSnapshots = new CopyOnWriteArrayList<>();
+    private int used;     // Slots handed out so far, including empty ones
+    private int size;     // Live entities
+
+    public EntityStore(ToLongFunction<T> idOf) {
+        this(idOf, null);
+    }
+
+    /**
+     * @param copyOf copies an entity, so that snapshots can keep an entity
+     *               as it was while the store changes it
+     */
+    public EntityStore(ToLongFunction<T> idOf, UnaryOperator<T> copyOf) {
+        this.idOf = idOf;
+        this.copyOf = copyOf;
+    }
+
+    /**
+     * Registers a secondary index. The index is filled with the entities
+     * already in the store and kept up to date from then on.
+     */
+    public <K> Index<K, T> addIndex(Function<T, K> keyOf) {
+        Index<K, T> index = new Index<>(keyOf);
+        for (T entity : this) {
+            index.insert(entity);
+        }
+        indexes.add(index);
+        return index;
+    }
+
+    public void addListener(Listener<? super T> listener) {
+        listeners.add(listener);
+    }
+
+    public void add(T entity) {
+        long id = idOf.applyAsLong(entity);
+        if (slotById.get(id) >= 0) {
+            throw new IllegalArgumentException("Duplicate id: " + Ids.format(id));
+        }
+        if (used == chunks.length * CHUNK) {
+            compact();
+            if (used == chunks.length * CHUNK) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                chunkEpochs = Arrays.copyOf(chunkEpochs, chunks.length);
+                chunksEpoch = epoch;
+            }
+        }
+        slotById.put(id, used);
+        setSlot(used++, entity);
+        size++;
+        for (Index<?, T> index : indexes) {
+            index.insert(entity);
+        }
+        for (Listener<? super T> listener : listeners) {
+            listener.entityAdded(entity);
+        }
+    }
+
+    public void addAll(Collection<? extends T> entities) {
+        for (T entity : entities) {
+            add(entity);
+        }
+    }
+
+    /**
+     * Returns the entity with the given ID, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long id) {
+        int slot = slotById.get(id);
+        return slot < 0 ? null : (T) slot(slot);
+    }
+
+    /**
+     * Returns the entity at the given position in insertion order.
+     */
+    @SuppressWarnings("unchecked")
+    public T getAt(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        compact();
+        return (T) slot(position);
+    }
+
+    /**
+     * Returns the position of the entity in insertion order, or -1.
+     */
+    public int indexOf(T entity) {
+        long id = idOf.applyAsLong(entity);
+        int slot = slotById.get(id);
+        if (slot < 0 || slot(slot) != entity) return -1;
+        if (used == size) return slot;
+        compact();
+        return slotById.get(id);
+    }
+
+    public boolean contains(long id) {
+        return slotById.get(id) >= 0;
+    }
+
+    /**
+     * Removes the entity with the given ID and returns it, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(long id) {
+        int slot = slotById.remove(id);
+        if (slot < 0) return null;
+        T entity = (T) slot(slot);
+        setSlot(slot, null);
+        size--;
+        for (Index<?, T> index : indexes) {
+            index.delete(entity);
+        }
+        for (Listener<? super T> listener : listeners) {
+            listener.entityRemoved(entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Removes each of the entities still in the store, in one pass, and
+     * returns the number removed. The slots they leave are compacted once,
+     * on the next read by position.
+     */
+    public int removeAll(Collection<? extends T> entities) {
+        int removed = 0;
+        for (T entity : entities) {
+            long id = idOf.applyAsLong(entity);
+            if (get(id) == entity) {
+                remove(id);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Applies a mutation to a stored entity and re-files it in every
+     * secondary index whose key changed. The ID must not be changed.
+     */
+    public void update(T entity, Consumer<? super T> mutation) {
+        long id = idOf.applyAsLong(entity);
+        if (get(id) != entity) {
+            throw new IllegalArgumentException("Not in store: " + Ids.format(id));
+        }
+        apply(entity, id, mutation, new Object[indexes.size()]);
+    }
+
+    /**
+     * Applies one mutation to each of the entities still in the store, in
+     * one pass, as update would to each, and returns the number updated.
+     */
+    public int updateAll(Collection<? extends T> entities, Consumer<? super T> mutation) {
+        Object[] keys = new Object[indexes.size()];
+        int updated = 0;
+        for (T entity : entities) {
+            long id = idOf.applyAsLong(entity);
+            if (get(id) == entity) {
+                apply(entity, id, mutation, keys);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Updates a stored entity, using keys as scratch space for its old index
+     * keys.
+     */
+    private void apply(T entity, long id, Consumer<? super T> mutation, Object[] keys) {
+        if (copyOf != null && !openSnapshots.isEmpty()) {
+            freeze(entity, id);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = indexes.get(i).keyOf.apply(entity);
+        }
+        for (Listener<? super T> listener : listeners) {
+            listener.entityUpdating(entity);
+        }
+        mutation.accept(entity);
+        if (id != idOf.applyAsLong(entity)) {
+            throw new IllegalStateException("Entity id changed during update: " + Ids.format(id));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            indexes.get(i).move(entity, keys[i]);
+        }
+        for (Listener<? super T> listener : listeners) {
+            listener.entityUpdated(entity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a snapshot of the store as it is now, for reading on other
+     * threads, in O(1). Must be called on the owner thread, and the
+     * snapshot closed when done with: while it is open, the first change to
+     * each entity copies it.
+     */
+    public Snapshot<T> snapshot() {
+        Snapshot<T> snapshot = new Snapshot<>(this, chunks, used, size);
+        epoch++; // Chunks in use are the snapshot's now
+        openSnapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Gives every open snapshot that does not have one yet a copy of the
+     * entity as it is before a change.
+     */
+    private void freeze(T entity, long id) {
+        T copy = null;
+        for (Snapshot<T> snapshot : openSnapshots) {
+            if (snapshot.frozen.containsKey(id)) continue;
+            if (copy == null) copy = copyOf.apply(entity);
+            snapshot.frozen.put(id, copy);
+            snapshot.frozenCount++;
+        }
+        VarHandle.storeStoreFence(); // Readers must see the copy before any change
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < used && slot(from) == null) from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < used;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= used) throw new NoSuchElementException();
+                T entity = (T) slot(next);
+                next = advance(next + 1);
+                return entity;
+            }
+        };
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliterator(iterator(), size, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private Object slot(int slot) {
+        return chunks[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    private void setSlot(int slot, Object entity) {
+        writableChunk(slot >>> CHUNK_BITS)[slot & CHUNK_MASK] = entity;
+    }
+
+    /**
+     * The chunk, made or copied first if it does not exist yet or a
+     * snapshot may be reading it.
+     */
+    private Object[] writableChunk(int c) {
+        Object[][] chunks = writableChunks();
+        Object[] chunk = chunks[c];
+        if (chunk == null || chunkEpochs[c] != epoch) {
+            chunk = chunk == null ? new Object[CHUNK] : chunk.clone();
+            chunks[c] = chunk;
+            chunkEpochs[c] = epoch;
+        }
+        return chunk;
+    }
+
+    private Object[][] writableChunks() {
+        if (chunksEpoch != epoch) {
+            chunks = chunks.clone();
+            chunksEpoch = epoch;
+        }
+        return chunks;
+    }
+
+    /**
+     * Squeezes out the slots left behind by removals. Runs at most once per
+     * batch of removals, so its cost is amortized over them.
+     */
+    @SuppressWarnings("unchecked")
+    private void compact() {
+        if (used == size) return;
+        int to = 0;
+        for (int from = 0; from < used; from++) {
+            Object entity = slot(from);
+            if (entity == null) continue;
+            if (to != from) {
+                setSlot(to, entity);
+                slotById.put(idOf.applyAsLong((T) entity), to);
+            }
+            to++;
+        }
+        if ((to & CHUNK_MASK) != 0) {
+            Arrays.fill(writableChunk(to >>> CHUNK_BITS), to & CHUNK_MASK, CHUNK, null);
+        }
+        for (int c = (to + CHUNK_MASK) >>> CHUNK_BITS; c <= (used - 1) >>> CHUNK_BITS; c++) {
+            writableChunks()[c] = null;
+        }
+        used = to;
+    }
+
+    /**
+     * A point-in-time view of a store, which other threads can read while
+     * the owner thread carries on changing the store; neither waits for
+     * the other. The snapshot has the entities the store had when it was
+     * taken, in the same slots, and each entity as it was then: the store
+     * copies an entity before changing it while the snapshot is open.
+     * Stores made without a copy function only keep which entities there
+     * were. Entities an entity refers to, such as an order's user, are
+     * read as they are now.
+     *
+     * Reads go through read, which checks that the entity was not changed
+     * while it was being read and if it was, reads the copy instead, as
+     * StampedLock's optimistic reads do; so a reader may be called twice
+     * and must not have side effects.
+     */
+    public static final class Snapshot<T> implements AutoCloseable {
+        private final EntityStore<T> store;
+        private final Object[][] chunks;
+        private final int slots;
+        private final int size;
+        private final ConcurrentHashMap<Long, T> frozen = new ConcurrentHashMap<>();
+        private volatile int frozenCount; // Written by the owner thread only
+
+        private Snapshot(EntityStore<T> store, Object[][] chunks, int slots, int size) {
+            this.store = store;
+            this.chunks = chunks;
+            this.slots = slots;
+            this.size = size;
+        }
+
+        /**
+         * Number of entities in the snapshot.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Number of slots to read, some of which may be empty.
+         */
+        public int getSlotCount() {
+            return slots;
+        }
+
+        /**
+         * Applies the reader to the entity in the slot as it was when the
+         * snapshot was taken and returns the result, or null for an empty
+         * slot.
+         */
+        @SuppressWarnings("unchecked")
+        public <R> R read(int slot, Function<? super T, ? extends R> reader) {
+            if (slot < 0 || slot >= slots) {
+                throw new IndexOutOfBoundsException("Slot " + slot + " of " + slots);
+            }
+            T entity = (T) chunks[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+            if (entity == null) return null;
+            if (frozenCount == 0) { // Nothing changed yet, so no map lookups unless that changes
+                R result;
+                try {
+                    result = reader.apply(entity);
+                } catch (RuntimeException e) {
+                    VarHandle.loadLoadFence();
+                    if (frozenCount == 0) throw e;
+                    return readFrozen(entity, reader);
+                }
+                VarHandle.loadLoadFence();
+                return frozenCount == 0 ? result : readFrozen(entity, reader);
+            }
+            return readFrozen(entity, reader);
+        }
+
+        private <R> R readFrozen(T entity, Function<? super T, ? extends R> reader) {
+            Long id = store.idOf.applyAsLong(entity);
+            T copy = frozen.get(id);
+            if (copy != null) return reader.apply(copy);
+            R result;
+            try {
+                result = reader.apply(entity);
+            } catch (RuntimeException e) { // Perhaps read half-changed
+                VarHandle.loadLoadFence();
+                copy = frozen.get(id);
+                if (copy == null) throw e;
+                return reader.apply(copy);
+            }
+            VarHandle.loadLoadFence(); // Finish reading the entity before checking it
+            copy = frozen.get(id);
+            return copy == null ? result : reader.apply(copy);
+        }
+
+        /**
+         * Stops the store keeping copies for this snapshot. Safe to call
+         * from any thread, and more than once.
+         */
+        @Override
+        public void close() {
+            store.openSnapshots.remove(this);
+        }
+    }
+
+    /**
+     * Open-addressing hash map from ID to slot, with linear probing and
+     * backward-shift deletion, so neither keys nor values are boxed.
+     */
+    private static final class SlotMap {
+        private long[] keys = new long[16];
+        private int[] values = newValues(16); // -1 marks a free bucket
+        private int count;
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, -1);
+            return values;
+        }
+
+        private int bucket(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ h >>> 32) & (keys.length - 1);
+        }
+
+        /**
+         * Returns the slot for the key, or -1.
+         */
+        int get(long key) {
+            for (int i = bucket(key); values[i] >= 0; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == key) return values[i];
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            int i = bucket(key);
+            for (; values[i] >= 0; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++count * 2 > keys.length) grow(); // Load factor at most 1/2
+        }
+
+        /**
+         * Removes the key and returns its slot, or -1.
+         */
+        int remove(long key) {
+            int mask = keys.length - 1;
+            int i = bucket(key);
+            for (; values[i] >= 0; i = (i + 1) & mask) {
+                if (keys[i] == key) break;
+            }
+            int removed = values[i];
+            if (removed < 0) return -1;
+            // Shift later entries of the probe run back over the hole
+            for (int hole = i, j = (i + 1) & mask; ; j = (j + 1) & mask) {
+                if (values[j] < 0) {
+                    values[hole] = -1;
+                    break;
+                }
+                int home = bucket(keys[j]);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            count--;
+            return removed;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = newValues(oldKeys.length * 2);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Receives store changes synchronously, on the thread that made them.
+     * For an update, entityUpdating sees the entity before the mutation and
+     * entityUpdated sees it after.
+     */
+    public interface Listener<T> {
+        default void entityAdded(T entity) {}
+        default void entityRemoved(T entity) {}
+        default void entityUpdating(T entity) {}
+        default void entityUpdated(T entity) {}
+    }
+
+    /**
+     * A secondary index grouping entities by a derived key. Each group keeps
+     * its entities in insertion order.
+     */
+    public static final class Index<K, T> {
+        private final Function<T, K> keyOf;
+        private final Map<K, Set<T>> groups = new HashMap<>();
+
+        private Index(Function<T, K> keyOf) {
+            this.keyOf = keyOf;
+        }
+
+        /**
+         * Returns a read-only view of the entities filed under the key.
+         */
+        public Set<T> get(K key) {
+            Set<T> group = groups.get(key);
+            return group == null ? Collections.emptySet() : Collections.unmodifiableSet(group);
+        }
+
+        public int count(K key) {
+            Set<T> group = groups.get(key);
+            return group == null ? 0 : group.size();
+        }
+
+        public Set<K> keys() {
+            return Collections.unmodifiableSet(groups.keySet());
+        }
+
+        private void insert(T entity) {
+            groups.computeIfAbsent(keyOf.apply(entity), k -> new LinkedHashSet<>()).add(entity);
+        }
+
+        private void delete(T entity) {
+            remove(keyOf.apply(entity), entity);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void move(T entity, Object oldKey) {
+            K newKey = keyOf.apply(entity);
+            if (Objects.equals(oldKey, newKey)) return;
+            remove((K) oldKey, entity);
+            insert(entity);
+        }
+
+        private void remove(K key, T entity) {
+            Set<T> group = groups.get(key);
+            if (group == null) return;
+            group.remove(entity);
+            if (group.isEmpty()) groups.remove(key);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded, lock-free bus for entity change events.
+ *
+ * Producers claim a sequence number with a single atomic increment and drop
+ * the event into a fixed ring of slots; they never wait for consumers. Each
+ * subscriber reads the ring on its own thread at its own pace and receives
+ * events in batches. A subscriber that falls more than a ring's worth of
+ * events behind is told how many it missed and carries on from the oldest
+ * event still available, so it can resync instead of holding producers up.
+ */
+public class EventBus {
+
+    public enum Kind {
+        USER_ADDED, USER_UPDATED, USER_REMOVED,
+        PRODUCT_ADDED, PRODUCT_UPDATED, PRODUCT_REMOVED,
+        ORDER_ADDED, ORDER_UPDATED, ORDER_STATUS_CHANGED, ORDER_REMOVED
+    }
+
+    /**
+     * A published change. The entity is the live object, so consumers that
+     * need a stable view of it should copy what they need promptly.
+     */
+    public static final class Event {
+        public final long sequence;
+        public final Kind kind;
+        public final long entityId;
+        public final Object entity;
+
+        Event(long sequence, Kind kind, long entityId, Object entity) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.entityId = entityId;
+            this.entity = entity;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + kind + " " + Ids.format(entityId);
+        }
+    }
+
+    /**
+     * Consumes events on the subscription's own thread. The batch list is
+     * reused and only valid for the duration of the call.
+     */
+    public interface Subscriber {
+        void onEvents(List<Event> batch);
+
+        /**
+         * Called instead of delivering events the subscriber fell too far
+         * behind to see. Subscribers that keep derived state should rebuild
+         * it from the store.
+         */
+        default void onOverrun(long missed) {}
+    }
+
+    private static final int DEFAULT_MAX_BATCH = 256;
+    private static final long MAX_IDLE_PARK_NANOS = 1_000_000; // 1 ms
+
+    private final int mask;
+    private final AtomicReferenceArray<Event> ring;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity ring size; rounded up to a power of two
+     */
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<>(size);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Publishes an event and returns its sequence number. Never blocks.
+     */
+    public long publish(Kind kind, long entityId, Object entity) {
+        long sequence = nextSequence.getAndIncrement();
+        Event event = new Event(sequence, kind, entityId, entity);
+        int slot = (int) sequence & mask;
+        // A producer that stalled for a whole lap must not overwrite a newer event.
+        Event current;
+        do {
+            current = ring.get(slot);
+            if (current != null && current.sequence > sequence) return sequence;
+        } while (!ring.compareAndSet(slot, current, event));
+        return sequence;
+    }
+
+    /**
+     * Returns the number of events published so far.
+     */
+    public long getPublishedCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Returns how far the slowest subscriber is behind the producers. A
+     * producer that can afford to slow down, such as a bulk import, may use
+     * this to throttle itself; nothing else ever waits on it.
+     */
+    public long getMaxLag() {
+        long published = nextSequence.get();
+        long lag = 0;
+        for (Subscription s : subscriptions) {
+            lag = Math.max(lag, published - s.cursor);
+        }
+        return lag;
+    }
+
+    public Subscription subscribe(String name, Subscriber subscriber) {
+        return subscribe(name, subscriber, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Starts a daemon thread that delivers events published from now on to
+     * the subscriber, at most maxBatch at a time.
+     */
+    public Subscription subscribe(String name, Subscriber subscriber, int maxBatch) {
+        Subscription subscription = new Subscription(name, subscriber, maxBatch, nextSequence.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Returns a store listener that publishes the store's changes under the
+     * given kinds.
+     */
+    public <T> EntityStore.Listener<T> publisherFor(Kind added, Kind updated, Kind removed, ToLongFunction<T> idOf) {
+        return new EntityStore.Listener<T>() {
+            @Override public void entityAdded(T entity) { publish(added, idOf.applyAsLong(entity), entity); }
+            @Override public void entityUpdated(T entity) { publish(updated, idOf.applyAsLong(entity), entity); }
+            @Override public void entityRemoved(T entity) { publish(removed, idOf.applyAsLong(entity), entity); }
+        };
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final Subscriber subscriber;
+        private final int maxBatch;
+        private final Thread thread;
+        private volatile long cursor;  // Next sequence to deliver
+        private volatile boolean closed;
+        private long missed;
+
+        private Subscription(String name, Subscriber subscriber, int maxBatch, long start) {
+            this.subscriber = subscriber;
+            this.maxBatch = maxBatch;
+            this.cursor = start;
+            this.thread = new Thread(this::run, "EventBus-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Returns the total number of events this subscriber missed by
+         * falling behind.
+         */
+        public long getMissedCount() {
+            return missed;
+        }
+
+        public long getLag() {
+            return nextSequence.get() - cursor;
+        }
+
+        private void run() {
+            List<Event> batch = new ArrayList<>(maxBatch);
+            List<Event> view = Collections.unmodifiableList(batch);
+            long idleNanos = 0;
+            while (!closed) {
+                long next = poll(batch);
+                if (batch.isEmpty()) {
+                    idleNanos = Math.min(MAX_IDLE_PARK_NANOS, Math.max(1_000, idleNanos * 2));
+                    LockSupport.parkNanos(idleNanos);
+                    continue;
+                }
+                idleNanos = 0;
+                try {
+                    subscriber.onEvents(view);
+                } catch (RuntimeException e) {
+                    System.err.println(thread.getName() + ": " + e);
+                }
+                batch.clear();
+                cursor = next;
+            }
+        }
+
+        /**
+         * Collects the next run of published events into the batch and
+         * returns the sequence to continue from.
+         */
+        private long poll(List<Event> batch) {
+            long next = cursor;
+            while (batch.size() < maxBatch) {
+                Event event = ring.get((int) next & mask);
+                if (event == null || event.sequence < next) break; // Not published yet
+                if (event.sequence > next) {
+                    // Lapped: skip to the oldest event the ring still holds.
+                    long oldest = Math.max(next, nextSequence.get() - mask);
+                    if (!batch.isEmpty()) break; // Deliver what we have first
+                    missed += oldest - next;
+                    try {
+                        subscriber.onOverrun(oldest - next);
+                    } catch (RuntimeException e) {
+                        System.err.println(thread.getName() + ": " + e);
+                    }
+                    next = cursor = oldest;
+                    continue;
+                }
+                batch.add(event);
+                next++;
+            }
+            return next;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Streaming export of users, products, orders or order items to CSV or
+ * JSON-lines files.
+ *
+ * The only work done on the owner thread is taking a snapshot of the
+ * store, in O(1), so the file holds the entities as they were at that
+ * point however they change meanwhile. Rows are then encoded straight
+ * into a reusable direct buffer that is written to a FileChannel whenever
+ * it fills up; numbers, prices and dates are written digit by digit,
+ * without String.format or per-row Strings. The files are laid out so
+ * that Importer can read them back (the extra columns are ignored).
+ *
+ *   users        id,username,email
+ *   products     id,name,price,stock
+ *   orders       id,userId,date,status,items,total   with items as "P1:2;P2:1"
+ *   order items  orderId,productId,productName,quantity,unitPrice,lineTotal
+ */
+public class Exporter {
+
+    public enum Kind { USERS, PRODUCTS, ORDERS, ORDER_ITEMS }
+
+    public static final class Result {
+        public final long rows;
+        public final long bytes;
+        public final long millis;
+
+        Result(long rows, long bytes, long millis) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final EntityStore<User> users;
+    private final EntityStore<Product> products;
+    private final EntityStore<Order> orders;
+    private final Executor owner;
+
+    /**
+     * @param owner runs tasks on the thread that mutates the stores
+     */
+    public Exporter(EntityStore<User> users, EntityStore<Product> products,
+                    EntityStore<Order> orders, Executor owner) {
+        this.users = users;
+        this.products = products;
+        this.orders = orders;
+        this.owner = owner;
+    }
+
+    /**
+     * Exports to the file, replacing it, and blocks until done. JSON-lines
+     * is written for .json, .jsonl and .ndjson files, CSV otherwise.
+     */
+    public Result run(Path file, Kind kind) throws IOException {
+        long begin = System.nanoTime();
+        String name = file.getFileName().toString().toLowerCase();
+        boolean json = name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson");
+        EntityStore<?> store = kind == Kind.USERS ? users : kind == Kind.PRODUCTS ? products : orders;
+        @SuppressWarnings("unchecked")
+        EntityStore.Snapshot<Object> snapshot = (EntityStore.Snapshot<Object>)
+                CompletableFuture.supplyAsync(store::snapshot, owner).join();
+        Order order = new Order(0, null, null, null); // Reused copy of each order
+        Function<Object, Object> copy = kind == Kind.USERS ? u -> new User((User) u)
+                : kind == Kind.PRODUCTS ? p -> new Product((Product) p)
+                : o -> order.copyFrom((Order) o);
+
+        long rows = 0;
+        try (snapshot; Output out = new Output(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            if (!json) out.ascii(header(kind)).newLine();
+            for (int i = 0, n = snapshot.getSlotCount(); i < n; i++) {
+                Object entity = snapshot.read(i, copy);
+                if (entity == null) continue;
+                switch (kind) {
+                    case USERS:
+                        writeUser(out, (User) entity, json);
+                        rows++;
+                        break;
+                    case PRODUCTS:
+                        writeProduct(out, (Product) entity, json);
+                        rows++;
+                        break;
+                    case ORDERS:
+                        writeOrder(out, (Order) entity, json);
+                        rows++;
+                        break;
+                    case ORDER_ITEMS:
+                        rows += writeOrderItems(out, (Order) entity, json);
+                        break;
+                }
+            }
+            out.flush();
+            return new Result(rows, out.written, (System.nanoTime() - begin) / 1_000_000);
+        }
+    }
+
+    private static String header(Kind kind) {
+        switch (kind) {
+            case USERS: return "id,username,email";
+            case PRODUCTS: return "id,name,price,stock";
+            case ORDERS: return "id,userId,date,status,items,total";
+            default: return "orderId,productId,productName,quantity,unitPrice,lineTotal";
+        }
+    }
+
+    private static void writeUser(Output out, User u, boolean json) throws IOException {
+        if (json) {
+            out.ascii("{\"id\":").jsonId(u.id)
+               .ascii(",\"username\":").jsonString(u.getUsername())
+               .ascii(",\"email\":").jsonString(u.getEmail()).ascii("}");
+        } else {
+            out.id(u.id).comma().csv(u.getUsername()).comma().csv(u.getEmail());
+        }
+        out.newLine();
+    }
+
+    private static void writeProduct(Output out, Product p, boolean json) throws IOException {
+        if (json) {
+            out.ascii("{\"id\":").jsonId(p.id)
+               .ascii(",\"name\":").jsonString(p.getName())
+               .ascii(",\"price\":").money(p.getPrice())
+               .ascii(",\"stock\":").number(p.getStock()).ascii("}");
+        } else {
+            out.id(p.id).comma().csv(p.getName()).comma().money(p.getPrice()).comma().number(p.getStock());
+        }
+        out.newLine();
+    }
+
+    private static void writeOrder(Output out, Order o, boolean json) throws IOException {
+        int items = o.getItemCount();
+        if (json) {
+            out.ascii("{\"id\":").jsonId(o.id)
+               .ascii(",\"userId\":").jsonId(o.user.id)
+               .ascii(",\"date\":\"").date(o.orderDate.getTime())
+               .ascii("\",\"status\":").jsonString(o.status)
+               .ascii(",\"items\":[");
+            for (int i = 0; i < items; i++) {
+                if (i > 0) out.comma();
+                out.ascii("{\"productId\":").jsonId(o.getProduct(i).id)
+                   .ascii(",\"quantity\":").number(o.getQuantity(i)).ascii("}");
+            }
+            out.ascii("],\"total\":").money(o.totalPrice).ascii("}");
+        } else {
+            out.id(o.id).comma().id(o.user.id).comma().date(o.orderDate.getTime()).comma().csv(o.status).comma();
+            // IDs are base32, without ':' or ';', so the items field needs no quoting
+            for (int i = 0; i < items; i++) {
+                if (i > 0) out.ascii(";");
+                out.id(o.getProduct(i).id).ascii(":").number(o.getQuantity(i));
+            }
+            out.comma().money(o.totalPrice);
+        }
+        out.newLine();
+    }
+
+    private static int writeOrderItems(Output out, Order o, boolean json) throws IOException {
+        int items = o.getItemCount();
+        for (int i = 0; i < items; i++) {
+            Product product = o.getProduct(i);
+            if (json) {
+                out.ascii("{\"orderId\":").jsonId(o.id)
+                   .ascii(",\"productId\":").jsonId(product.id)
+                   .ascii(",\"productName\":").jsonString(product.getName())
+                   .ascii(",\"quantity\":").number(o.getQuantity(i))
+                   .ascii(",\"unitPrice\":").money(o.getUnitPrice(i))
+                   .ascii(",\"lineTotal\":").money(o.getLineTotal(i)).ascii("}");
+            } else {
+                out.id(o.id).comma().id(product.id).comma().csv(product.getName()).comma()
+                   .number(o.getQuantity(i)).comma().money(o.getUnitPrice(i)).comma().money(o.getLineTotal(i));
+            }
+            out.newLine();
+        }
+        return items;
+    }
+
+    /**
+     * A buffered UTF-8 writer over a FileChannel with the few encodings the
+     * export formats need. The direct buffer is allocated once per export.
+     */
+    private static final class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final byte[] digits = new byte[20];
+        private long written;
+        private long cachedMinute = Long.MIN_VALUE;
+        private byte[] cachedDate;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                written += channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        Output comma() throws IOException {
+            ensure(1);
+            buf.put((byte) ',');
+            return this;
+        }
+
+        Output newLine() throws IOException {
+            ensure(1);
+            buf.put((byte) '\n');
+            return this;
+        }
+
+        /**
+         * Writes a string known to be plain ASCII, such as a literal.
+         */
+        Output ascii(String s) throws IOException {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf.put((byte) s.charAt(i));
+            }
+            return this;
+        }
+
+        /**
+         * Writes part of a string as UTF-8.
+         */
+        private void utf8(String s, int from, int to) throws IOException {
+            if ((to - from) * 4 <= BUFFER_BYTES) {
+                ensure((to - from) * 4); // Room for the worst case, so no checks per char
+                for (int i = from; i < to; i++) {
+                    char c = s.charAt(i);
+                    if (c >= 0x80) {
+                        utf8Slow(s, i, to);
+                        return;
+                    }
+                    buf.put((byte) c);
+                }
+                return;
+            }
+            utf8Slow(s, from, to);
+        }
+
+        private void utf8Slow(String s, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    ensure(1);
+                    buf.put((byte) c);
+                } else if (c < 0x800) {
+                    ensure(2);
+                    buf.put((byte) (0xC0 | (c >> 6)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    buf.put((byte) (0xF0 | (cp >> 18)));
+                    buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    ensure(3);
+                    buf.put((byte) (0xE0 | (c >> 12)));
+                    buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        /**
+         * Writes a CSV field, quoted only if it contains a delimiter.
+         */
+        Output csv(String s) throws IOException {
+            if (s == null) return this;
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                utf8(s, 0, s.length());
+                return this;
+            }
+            ascii("\"");
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == '"') {
+                    utf8(s, start, i + 1);
+                    ascii("\"");
+                    start = i + 1;
+                }
+            }
+            utf8(s, start, s.length());
+            return ascii("\"");
+        }
+
+        /**
+         * Writes an ID in its base32 form; it never needs quoting in CSV.
+         */
+        Output id(long id) throws IOException {
+            int start = Ids.encode(id, digits);
+            ensure(digits.length - start);
+            buf.put(digits, start, digits.length - start);
+            return this;
+        }
+
+        Output jsonId(long id) throws IOException {
+            return ascii("\"").id(id).ascii("\"");
+        }
+
+        Output jsonString(String s) throws IOException {
+            if (s == null) return ascii("null");
+            ascii("\"");
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    utf8(s, start, i);
+                    switch (c) {
+                        case '"': ascii("\\\""); break;
+                        case '\\': ascii("\\\\"); break;
+                        case '\n': ascii("\\n"); break;
+                        case '\r': ascii("\\r"); break;
+                        case '\t': ascii("\\t"); break;
+                        default:
+                            ascii("\\u00");
+                            ensure(2);
+                            buf.put((byte) Character.forDigit(c >> 4, 16));
+                            buf.put((byte) Character.forDigit(c & 0xF, 16));
+                    }
+                    start = i + 1;
+                }
+            }
+            utf8(s, start, s.length());
+            return ascii("\"");
+        }
+
+        Output number(long v) throws IOException {
+            ensure(20);
+            if (v < 0) {
+                buf.put((byte) '-');
+                v = -v;  // Long.MIN_VALUE never occurs in the data
+            }
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            while (n > 0) {
+                buf.put(digits[--n]);
+            }
+            return this;
+        }
+
+        /**
+         * Writes an amount in cents as a decimal, e.g. 1299.90.
+         */
+        Output money(long cents) throws IOException {
+            if (cents < 0) {
+                ascii("-");
+                cents = -cents;
+            }
+            number(cents / 100);
+            ensure(3);
+            long fraction = cents % 100;
+            buf.put((byte) '.');
+            buf.put((byte) ('0' + fraction / 10));
+            buf.put((byte) ('0' + fraction % 10));
+            return this;
+        }
+
+        /**
+         * Writes a timestamp as "yyyy-MM-dd HH:mm" in the local zone.
+         * Consecutive orders usually share a minute, so the last rendering
+         * is reused.
+         */
+        Output date(long millis) throws IOException {
+            long minute = Math.floorDiv(millis, 60_000);
+            if (minute != cachedMinute) {
+                cachedMinute = minute;
+                cachedDate = DATE_FORMAT.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()))
+                        .getBytes(StandardCharsets.US_ASCII);
+            }
+            ensure(cachedDate.length);
+            buf.put(cachedDate);
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,449 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * A JSON API over the shop, on the JDK's built-in HTTP server.
+ *
+ *   GET  /api/users[?offset=&limit=]          GET /api/users/{id}
+ *   GET  /api/products[?offset=&limit=]       GET /api/products/{id}
+ *   GET  /api/orders[?status=&userId=&offset=&limit=]
+ *   GET  /api/orders/{id}
+ *   POST /api/orders                {"userId":..., "items":[{"productId":..., "quantity":2}]}
+ *   POST /api/orders/{id}/status    {"status":"Shipped"}
+ *   POST /api/batch                 [{"method":"GET", "path":"/api/products/A889AWRG0000"}, ...]
+ *
+ * Entities use the same JSON layout as the JSON-lines export. Lists return
+ * at most limit (default 100, at most 1000) entities. Errors are
+ * {"error": message} with 400 for bad input, 404 for unknown IDs and 409
+ * when an order cannot be placed for lack of stock.
+ *
+ * Each request runs on its own virtual thread when the JDK has them (21+),
+ * otherwise on a cached thread pool. Requests only touch the stores on the
+ * shop's owner thread; orders are placed through OrderPlacement, so stock is
+ * reserved before that hop. The batch endpoint runs its requests in order
+ * over a single round trip, which is how scanners pipeline their work.
+ */
+public class HttpApi {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    /**
+     * A status code and a JSON body.
+     */
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, Json.quote(new StringBuilder("{\"error\":"), message).append('}').toString());
+        }
+    }
+
+    private final Shop shop;
+    private HttpServer server;
+    private ExecutorService requestThreads;
+
+    public HttpApi(Shop shop) {
+        this.shop = shop;
+    }
+
+    /**
+     * Starts serving on the address; port 0 picks a free port.
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        // The server reads these once, when first used
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            // The default of 200 closes kept-alive connections under load
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "20000");
+        }
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            // Headers and body are separate writes; with Nagle on, the body
+            // waits out the client's delayed ACK (~40 ms per request)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(address, 4096);
+        requestThreads = newRequestExecutor();
+        server.setExecutor(requestThreads);
+        server.createContext("/api/", this::handle);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            requestThreads.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * One virtual thread per request where available, without requiring a
+     * JDK that has them.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "http-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Response response;
+        try (InputStream in = exchange.getRequestBody()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            response = dispatch(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                    exchange.getRequestURI().getRawQuery(), body, true);
+        } catch (RuntimeException e) {
+            response = Response.error(500, String.valueOf(e));
+        }
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    Response dispatch(String method, String path, String query, String body, boolean allowBatch) {
+        if (!path.startsWith("/api/")) {
+            return Response.error(404, "No such resource " + path);
+        }
+        String[] parts = path.substring("/api/".length()).split("/");
+        Map<String, String> params = parseQuery(query);
+        try {
+            switch (parts[0]) {
+                case "users":
+                    return resource(method, parts, params, shop.users, HttpApi::writeUser);
+                case "products":
+                    return resource(method, parts, params, shop.products, HttpApi::writeProduct);
+                case "orders":
+                    if (method.equals("POST") && parts.length == 1) {
+                        return placeOrder(body);
+                    }
+                    if ((method.equals("POST") || method.equals("PUT")) && parts.length == 3 && parts[2].equals("status")) {
+                        return updateStatus(pathId(parts[1]), body);
+                    }
+                    if (method.equals("GET") && parts.length == 1 && (params.containsKey("status") || params.containsKey("userId"))) {
+                        return onOwner(() -> listOrders(params));
+                    }
+                    return resource(method, parts, params, shop.orders, HttpApi::writeOrder);
+                case "batch":
+                    if (allowBatch && method.equals("POST") && parts.length == 1) {
+                        return batch(body);
+                    }
+                    return Response.error(405, "Batch requests must be POSTed and cannot nest");
+                default:
+                    return Response.error(404, "No such resource " + path);
+            }
+        } catch (IllegalArgumentException e) {
+            return Response.error(400, e.getMessage());
+        }
+    }
+
+    private interface Writer<T> {
+        void write(StringBuilder out, T entity);
+    }
+
+    private <T> Response resource(String method, String[] parts, Map<String, String> params,
+                                  EntityStore<T> store, Writer<T> writer) {
+        if (!method.equals("GET")) {
+            return Response.error(405, method + " is not supported here");
+        }
+        if (parts.length == 2) {
+            long id = pathId(parts[1]);
+            return onOwner(() -> {
+                T entity = store.get(id);
+                if (entity == null) {
+                    String noun = parts[0].substring(0, parts[0].length() - 1); // users -> user
+                    return Response.error(404, "No such " + noun + " " + parts[1]);
+                }
+                StringBuilder out = new StringBuilder(256);
+                writer.write(out, entity);
+                return new Response(200, out.toString());
+            });
+        }
+        if (parts.length != 1) {
+            return Response.error(404, "No such resource");
+        }
+        int offset = intParam(params, "offset", 0);
+        int limit = Math.min(intParam(params, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+        return onOwner(() -> {
+            StringBuilder out = new StringBuilder(64 + limit * 96).append('[');
+            int end = (int) Math.min(store.size(), (long) offset + limit);
+            for (int i = offset; i < end; i++) {
+                if (i > offset) out.append(',');
+                writer.write(out, store.getAt(i));
+            }
+            return new Response(200, out.append(']').toString());
+        });
+    }
+
+    private Response listOrders(Map<String, String> params) {
+        String status = params.get("status");
+        String userId = params.get("userId");
+        long user = userId == null ? -1 : idField(userId, "userId");
+        Collection<Order> matches = status != null ? shop.ordersByStatus.get(status) : shop.ordersByUser.get(user);
+        int offset = intParam(params, "offset", 0);
+        int limit = Math.min(intParam(params, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+        StringBuilder out = new StringBuilder().append('[');
+        int seen = 0;
+        int written = 0;
+        for (Order o : matches) {
+            if (status != null && userId != null && o.user.id != user) continue;
+            if (seen++ < offset) continue;
+            if (written == limit) break;
+            if (written++ > 0) out.append(',');
+            writeOrder(out, o);
+        }
+        return new Response(200, out.append(']').toString());
+    }
+
+    private Response placeOrder(String body) {
+        Map<String, Object> request = Json.parseObject(body);
+        long userId = idField(stringField(request, "userId"), "userId");
+        Object items = request.get("items");
+        if (!(items instanceof List) || ((List<?>) items).isEmpty()) {
+            throw new IllegalArgumentException("items must be a non-empty array");
+        }
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (Object item : (List<?>) items) {
+            if (!(item instanceof Map)) throw new IllegalArgumentException("items must be objects");
+            Map<?, ?> line = (Map<?, ?>) item;
+            Object quantity = line.get("quantity");
+            if (!(quantity instanceof Long)) throw new IllegalArgumentException("quantity must be an integer");
+            long q = (Long) quantity;
+            if (q < 1 || q > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("quantity must be between 1 and " + Integer.MAX_VALUE);
+            }
+            long productId = idField(stringField(line, "productId"), "productId");
+            quantities.merge(productId, (int) q, (a, b) -> {
+                if ((long) a + b > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("total quantity of product " + Ids.format(productId)
+                            + " must be at most " + Integer.MAX_VALUE);
+                }
+                return a + b;
+            });
+        }
+        try {
+            Order order = shop.placement.place(userId, quantities).join();
+            return onOwner(() -> {
+                StringBuilder out = new StringBuilder(256);
+                writeOrder(out, order);
+                return new Response(201, out.toString());
+            });
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof OrderPlacement.RejectedException) {
+                OrderPlacement.RejectedException rejected = (OrderPlacement.RejectedException) e.getCause();
+                return Response.error(rejected.productId >= 0 ? 409 : 400, rejected.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Same transition as the Orders panel's Update Status: any known status,
+     * and setting the current one is a no-op.
+     */
+    private Response updateStatus(long orderId, String body) {
+        String status = stringField(Json.parseObject(body), "status");
+        if (!Arrays.asList(Order.STATUSES).contains(status)) {
+            throw new IllegalArgumentException("status must be one of " + Arrays.toString(Order.STATUSES));
+        }
+        return onOwner(() -> {
+            Order order = shop.orders.get(orderId);
+            if (order == null) return Response.error(404, "No such order " + Ids.format(orderId));
+            if (!status.equals(order.status)) {
+                shop.orders.update(order, o -> o.status = status);
+            }
+            StringBuilder out = new StringBuilder(256);
+            writeOrder(out, order);
+            return new Response(200, out.toString());
+        });
+    }
+
+    private Response batch(String body) {
+        Object requests = Json.parse(body);
+        if (!(requests instanceof List)) {
+            throw new IllegalArgumentException("A batch must be an array of requests");
+        }
+        StringBuilder out = new StringBuilder().append('[');
+        boolean first = true;
+        for (Object r : (List<?>) requests) {
+            if (!(r instanceof Map)) throw new IllegalArgumentException("Batch requests must be objects");
+            Map<?, ?> request = (Map<?, ?>) r;
+            String method = request.containsKey("method") ? stringField(request, "method") : "GET";
+            String target = stringField(request, "path");
+            int q = target.indexOf('?');
+            Object requestBody = request.get("body");
+            Response response = dispatch(method.toUpperCase(Locale.ROOT),
+                    q < 0 ? target : target.substring(0, q), q < 0 ? null : target.substring(q + 1),
+                    requestBody == null ? "" : toJson(requestBody), false);
+            if (!first) out.append(',');
+            first = false;
+            out.append("{\"status\":").append(response.status).append(",\"body\":").append(response.body).append('}');
+        }
+        return new Response(200, out.append(']').toString());
+    }
+
+    private Response onOwner(Supplier<Response> task) {
+        return CompletableFuture.supplyAsync(task, shop.getOwner()).join();
+    }
+
+    // --- JSON ---
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm"));
+
+    static void writeUser(StringBuilder out, User u) {
+        quoteId(out.append("{\"id\":"), u.id);
+        Json.quote(out.append(",\"username\":"), u.getUsername());
+        Json.quote(out.append(",\"email\":"), u.getEmail()).append('}');
+    }
+
+    static void writeProduct(StringBuilder out, Product p) {
+        quoteId(out.append("{\"id\":"), p.id);
+        Json.quote(out.append(",\"name\":"), p.getName());
+        Money.append(out.append(",\"price\":"), p.getPrice()).append(",\"stock\":").append(p.getStock()).append('}');
+    }
+
+    static void writeOrder(StringBuilder out, Order o) {
+        quoteId(out.append("{\"id\":"), o.id);
+        quoteId(out.append(",\"userId\":"), o.user.id);
+        Json.quote(out.append(",\"date\":"), DATE_FORMAT.get().format(o.orderDate));
+        Json.quote(out.append(",\"status\":"), o.status);
+        out.append(",\"items\":[");
+        for (int i = 0; i < o.getItemCount(); i++) {
+            if (i > 0) out.append(',');
+            quoteId(out.append("{\"productId\":"), o.getProduct(i).id);
+            out.append(",\"quantity\":").append(o.getQuantity(i)).append('}');
+        }
+        Money.append(out.append("],\"total\":"), o.totalPrice).append('}');
+    }
+
+    private static StringBuilder quoteId(StringBuilder out, long id) {
+        return out.append('"').append(Ids.format(id)).append('"');
+    }
+
+    /**
+     * Re-serializes a parsed batch body for dispatch.
+     */
+    private static String toJson(Object value) {
+        StringBuilder out = new StringBuilder();
+        appendJson(out, value);
+        return out.toString();
+    }
+
+    private static void appendJson(StringBuilder out, Object value) {
+        if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if (!first) out.append(',');
+                first = false;
+                Json.quote(out, (String) e.getKey()).append(':');
+                appendJson(out, e.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            for (int i = 0; i < ((List<?>) value).size(); i++) {
+                if (i > 0) out.append(',');
+                appendJson(out, ((List<?>) value).get(i));
+            }
+            out.append(']');
+        } else if (value instanceof String) {
+            Json.quote(out, (String) value);
+        } else {
+            out.append(value); // Number, Boolean or null
+        }
+    }
+
+    // --- Request parsing ---
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) return defaultValue;
+        try {
+            int n = Integer.parseInt(value);
+            if (n < 0) throw new NumberFormatException();
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a non-negative integer");
+        }
+    }
+
+    /**
+     * An ID in a path can only be unknown: text that is not an ID names no
+     * entity, so it is a 404 like any other, not a 400.
+     */
+    private static long pathId(String text) {
+        try {
+            return Ids.parse(text);
+        } catch (IllegalArgumentException e) {
+            return -1; // Never generated
+        }
+    }
+
+    private static long idField(String text, String name) {
+        try {
+            return Ids.parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " must be an ID, not '" + text + "'");
+        }
+    }
+
+    private static String stringField(Map<?, ?> object, String name) {
+        Object value = object.get(name);
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return (String) value;
+    }
+}
@@ -0,0 +1,153 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit IDs, Snowflake style:
+ *
+ *   | 41 bits: milliseconds since 2024-01-01 UTC | 10 bits: node | 12 bits: sequence |
+ *
+ * The millisecond and sequence parts together form one counter shared by
+ * all threads. Each thread reserves a block of it with a single
+ * compare-and-set and hands IDs out of that block without any further
+ * synchronization, so IDs are unique across threads however many there
+ * are. A thread takes a fresh block once the clock has moved past its
+ * current one, which keeps IDs ordered by creation time to the
+ * millisecond. When more than 4096 IDs are asked for in a millisecond the
+ * counter simply runs ahead of the clock rather than waiting for it.
+ *
+ * The node number (-Decommerce.nodeId, 0..1023) keeps IDs from separate
+ * processes apart. IDs loaded from the journal or imported are passed to
+ * observe, so the counter never hands out one that is already in use even
+ * if the clock has gone backwards since.
+ *
+ * IDs are stored as long and only turned into text for display and files:
+ * Crockford base32, at most 13 characters, e.g. "3NZ4KXQ2M1C0".
+ */
+public final class Ids {
+
+    static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    private static final int BLOCK = 64;
+
+    static final long NODE = Long.getLong("ecommerce.nodeId", 0L) & NODE_MASK;
+
+    // Crockford's base32: no I, L, O or U
+    static final byte[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUES = new byte[128];
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i++) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toLowerCase(DIGITS[i])] = (byte) i;
+        }
+        VALUES['O'] = VALUES['o'] = 0;
+        VALUES['I'] = VALUES['i'] = VALUES['L'] = VALUES['l'] = 1;
+    }
+
+    // First (millis << SEQUENCE_BITS | sequence) value not yet reserved by any thread
+    private static final AtomicLong reserved = new AtomicLong();
+
+    // This thread's block: {next, end} of the counter
+    private static final ThreadLocal<long[]> block = ThreadLocal.withInitial(() -> new long[2]);
+
+    private Ids() {
+    }
+
+    /**
+     * Returns a new ID, unique within this node.
+     */
+    public static long next() {
+        long[] b = block.get();
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        if (b[0] == b[1] || b[0] < now) {
+            while (true) {
+                long current = reserved.get();
+                long start = Math.max(current, now);
+                if (reserved.compareAndSet(current, start + BLOCK)) {
+                    b[0] = start;
+                    b[1] = start + BLOCK;
+                    break;
+                }
+            }
+        }
+        long counter = b[0]++;
+        return (counter >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | NODE << SEQUENCE_BITS | counter & SEQUENCE_MASK;
+    }
+
+    /**
+     * Records an ID that exists already, so next() will not hand it out.
+     */
+    public static void observe(long id) {
+        if ((id >>> SEQUENCE_BITS & NODE_MASK) != NODE) return; // Another node's, cannot clash
+        long counter = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | id & SEQUENCE_MASK;
+        long current;
+        while ((current = reserved.get()) <= counter) {
+            if (reserved.compareAndSet(current, counter + 1)) return;
+        }
+    }
+
+    /**
+     * The ID with the given parts, for data generated with known IDs rather
+     * than handed out by next().
+     */
+    static long compose(long epochMillis, long node, long sequence) {
+        return (epochMillis - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS) | (node & NODE_MASK) << SEQUENCE_BITS
+                | sequence & SEQUENCE_MASK;
+    }
+
+    /**
+     * The wall-clock time the ID was generated at, in epoch milliseconds.
+     */
+    public static long timestamp(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Encodes an ID for display.
+     */
+    public static String format(long id) {
+        byte[] buf = new byte[13];
+        int start = encode(id, buf);
+        return new String(buf, start, buf.length - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes an ID right-aligned into buf (13 bytes or more) and returns
+     * the index of its first character.
+     */
+    static int encode(long id, byte[] buf) {
+        int pos = buf.length;
+        do {
+            buf[--pos] = DIGITS[(int) (id & 31)];
+            id >>>= 5;
+        } while (id != 0);
+        return pos;
+    }
+
+    /**
+     * Decodes an ID from its display form. Case is ignored, and O, I and L
+     * are read as 0, 1 and 1.
+     *
+     * @throws IllegalArgumentException if text is not an ID
+     */
+    public static long parse(String text) {
+        int length = text.length();
+        if (length == 0 || length > 13) {
+            throw new IllegalArgumentException("Not an ID: '" + text + "'");
+        }
+        long id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0 || (i == 0 && length == 13 && value > 7)) {
+                throw new IllegalArgumentException("Not an ID: '" + text + "'");
+            }
+            id = id << 5 | value;
+        }
+        return id;
+    }
+}
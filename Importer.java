@@ -0,0 +1,543 @@
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming bulk import of users, products or orders from CSV or
+ * JSON-lines files.
+ *
+ * The calling thread reads the file in chunks of lines. Worker threads parse
+ * and validate chunks in parallel, and the parsed chunks are inserted in
+ * file order, one batch per chunk, on the owner executor (the thread that
+ * mutates the stores). At most two chunks per worker are in flight, so
+ * memory stays bounded whatever the size of the file.
+ *
+ * File layouts (a CSV header row starting with "id" is skipped; an empty
+ * id gets a generated one):
+ *   users     CSV: id,username,email
+ *             JSON: {"id":..., "username":..., "email":...}
+ *   products  CSV: id,name,price,stock
+ *             JSON: {"id":..., "name":..., "price":12.5, "stock":10}
+ *   orders    CSV: id,userId,date,status,items   with items as "P1:2;P2:1"
+ *             JSON: {"id":..., "userId":..., "date":..., "status":...,
+ *                    "items":[{"productId":..., "quantity":2}]}
+ * IDs are in the base32 form Ids.format writes. Dates may be
+ * "yyyy-MM-dd HH:mm", ISO-8601 instants or epoch millis.
+ * Orders must refer to users and products that already exist.
+ */
+public class Importer {
+
+    public enum Kind { USERS, PRODUCTS, ORDERS }
+
+    /**
+     * Receives progress reports on the importing thread.
+     */
+    public interface Progress {
+        void update(long bytesRead, long totalBytes, long imported, long rejected);
+    }
+
+    public static final class Result {
+        public final long imported;
+        public final long rejected;
+        public final List<String> errors;  // The first MAX_ERRORS rejections
+        public final boolean cancelled;
+        public final long millis;
+
+        Result(long imported, long rejected, List<String> errors, boolean cancelled, long millis) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.errors = errors;
+            this.cancelled = cancelled;
+            this.millis = millis;
+        }
+    }
+
+    private static final int CHUNK_LINES = 4096;
+    private static final int MAX_ERRORS = 100;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final EntityStore<User> users;
+    private final EntityStore<Product> products;
+    private final EntityStore<Order> orders;
+    private final Executor owner;
+    private final int workers;
+
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<String> errors = new ArrayList<>(); // Guarded by itself
+    private volatile boolean cancelled;
+
+    /**
+     * @param owner runs tasks on the thread that mutates the stores
+     */
+    public Importer(EntityStore<User> users, EntityStore<Product> products,
+                    EntityStore<Order> orders, Executor owner) {
+        this.users = users;
+        this.products = products;
+        this.orders = orders;
+        this.owner = owner;
+        this.workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Stops the import after the chunks already being inserted. Rows
+     * inserted so far stay in the stores.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Imports the file, blocking the calling thread until done. JSON-lines
+     * is assumed for .json, .jsonl and .ndjson files, CSV otherwise.
+     */
+    public Result run(Path file, Kind kind, Progress progress) throws IOException {
+        long begin = System.nanoTime();
+        String name = file.getFileName().toString().toLowerCase();
+        boolean json = name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson");
+        long totalBytes = Files.size(file);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "Importer-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Object[]>> inFlight = new ArrayDeque<>();
+        try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            int lineNumber = 0;
+            boolean firstLine = true;
+            while (!cancelled) {
+                List<String> lines = new ArrayList<>(CHUNK_LINES);
+                int firstLineNumber = lineNumber + 1;
+                String line;
+                while (lines.size() < CHUNK_LINES && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (firstLine && !json && isCsvHeader(line)) {
+                        lines.add(""); // Header, kept as a blank line so numbering stays right
+                    } else {
+                        lines.add(line);
+                    }
+                    firstLine = false;
+                }
+                if (lines.isEmpty()) break;
+                inFlight.add(pool.submit(() -> parseChunk(lines, firstLineNumber, kind, json)));
+                if (inFlight.size() >= 2 * workers) {
+                    commit(inFlight.poll(), kind);
+                    progress.update(in.getCount(), totalBytes, imported.get(), rejected.get());
+                }
+            }
+            while (!inFlight.isEmpty() && !cancelled) {
+                commit(inFlight.poll(), kind);
+                progress.update(in.getCount(), totalBytes, imported.get(), rejected.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        List<String> firstErrors;
+        synchronized (errors) {
+            firstErrors = new ArrayList<>(errors);
+        }
+        return new Result(imported.get(), rejected.get(), firstErrors, cancelled,
+                (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    /**
+     * Waits for a parsed chunk and inserts its rows as one batch on the
+     * owner thread. Rows whose references do not resolve are rejected.
+     */
+    private void commit(Future<Object[]> parsed, Kind kind) throws IOException {
+        Object[] rows;
+        try {
+            rows = parsed.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            for (Object row : rows) {
+                if (row == null) continue;
+                if (row instanceof String) {
+                    reject((String) row);
+                } else {
+                    insert(kind, (Row) row);
+                }
+            }
+        }, owner).join();
+    }
+
+    private void insert(Kind kind, Row row) {
+        long id = row.id;
+        if (id < 0) {
+            id = Ids.next();
+        } else {
+            Ids.observe(id);
+        }
+        switch (kind) {
+            case USERS:
+                if (users.contains(id)) {
+                    reject(row.line, "duplicate user id " + Ids.format(id));
+                    return;
+                }
+                users.add(new User(id, row.text[0], row.text[1]));
+                break;
+            case PRODUCTS:
+                if (products.contains(id)) {
+                    reject(row.line, "duplicate product id " + Ids.format(id));
+                    return;
+                }
+                products.add(new Product(id, row.text[0], row.price, row.quantities[0]));
+                break;
+            case ORDERS:
+                if (orders.contains(id)) {
+                    reject(row.line, "duplicate order id " + Ids.format(id));
+                    return;
+                }
+                User user = users.get(row.userId);
+                if (user == null) {
+                    reject(row.line, "unknown user " + Ids.format(row.userId));
+                    return;
+                }
+                Order order = new Order(id, user, row.date, row.text[0]);
+                for (int i = 0; i < row.productIds.length; i++) {
+                    Product product = products.get(row.productIds[i]);
+                    if (product == null) {
+                        reject(row.line, "unknown product " + Ids.format(row.productIds[i]));
+                        return;
+                    }
+                    try {
+                        order.addItem(product, row.quantities[i]);
+                    } catch (ArithmeticException e) {
+                        reject(row.line, "order total overflows");
+                        return;
+                    }
+                }
+                orders.add(order);
+                break;
+        }
+        imported.incrementAndGet();
+    }
+
+    private void reject(int line, String message) {
+        reject("line " + line + ": " + message);
+    }
+
+    private void reject(String error) {
+        rejected.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) errors.add(error);
+        }
+    }
+
+    // =========================================================================
+    // --- Parsing (worker threads) ---
+    // =========================================================================
+
+    /**
+     * A parsed, validated row. The meaning of text[] depends on the kind:
+     * users (username, email), products (name), orders (status).
+     */
+    private static final class Row {
+        int line;
+        long id;           // -1 to generate one
+        String[] text;
+        long price; // In cents
+        Date date;
+        long userId;
+        long[] productIds;
+        int[] quantities;  // Products keep their stock in quantities[0]
+    }
+
+    /**
+     * Parses a chunk into Rows, error Strings for invalid lines, and nulls
+     * for blank lines.
+     */
+    private Object[] parseChunk(List<String> lines, int firstLineNumber, Kind kind, boolean json) {
+        Object[] rows = new Object[lines.size()];
+        for (int i = 0; i < rows.length; i++) {
+            if (cancelled) break;
+            String line = lines.get(i);
+            if (line.trim().isEmpty()) continue;
+            int lineNumber = firstLineNumber + i;
+            try {
+                Row row = json ? parseJson(line, kind) : parseCsv(line, kind);
+                row.line = lineNumber;
+                rows[i] = row;
+            } catch (IllegalArgumentException e) {
+                rows[i] = "line " + lineNumber + ": " + e.getMessage();
+            }
+        }
+        return rows;
+    }
+
+    private static Row parseCsv(String line, Kind kind) {
+        List<String> f = splitCsv(line);
+        Row row = new Row();
+        row.id = parseRowId(f.get(0));
+        switch (kind) {
+            case USERS:
+                require(f, 3);
+                row.text = new String[]{checkUsername(f.get(1)), checkEmail(f.get(2))};
+                break;
+            case PRODUCTS:
+                require(f, 4);
+                row.text = new String[]{checkName(f.get(1))};
+                row.price = parsePrice(f.get(2));
+                row.quantities = new int[]{parseCount(f.get(3), "stock")};
+                break;
+            case ORDERS:
+                require(f, 5);
+                row.userId = parseId(f.get(1), "userId");
+                row.text = new String[]{checkStatus(f.get(3))};
+                row.date = parseDate(f.get(2));
+                String[] items = f.get(4).trim().isEmpty() ? new String[0] : f.get(4).split(";");
+                row.productIds = new long[items.length];
+                row.quantities = new int[items.length];
+                for (int i = 0; i < items.length; i++) {
+                    int colon = items[i].lastIndexOf(':');
+                    if (colon < 0) throw new IllegalArgumentException("item '" + items[i] + "' is not productId:quantity");
+                    row.productIds[i] = parseId(items[i].substring(0, colon), "productId");
+                    row.quantities[i] = parseQuantity(items[i].substring(colon + 1));
+                }
+                break;
+        }
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Row parseJson(String line, Kind kind) {
+        Map<String, Object> o = Json.parseObject(line);
+        Row row = new Row();
+        row.id = o.get("id") == null ? -1 : parseRowId(o.get("id").toString());
+        switch (kind) {
+            case USERS:
+                row.text = new String[]{checkUsername(field(o, "username")), checkEmail(field(o, "email"))};
+                break;
+            case PRODUCTS:
+                row.text = new String[]{checkName(field(o, "name"))};
+                row.price = parsePrice(field(o, "price"));
+                row.quantities = new int[]{parseCount(field(o, "stock"), "stock")};
+                break;
+            case ORDERS:
+                row.userId = parseId(field(o, "userId"), "userId");
+                row.text = new String[]{checkStatus(field(o, "status"))};
+                row.date = parseDate(field(o, "date"));
+                Object items = o.get("items");
+                List<Object> list = items instanceof List ? (List<Object>) items : List.of();
+                row.productIds = new long[list.size()];
+                row.quantities = new int[list.size()];
+                for (int i = 0; i < list.size(); i++) {
+                    if (!(list.get(i) instanceof Map)) throw new IllegalArgumentException("items must be objects");
+                    Map<String, Object> item = (Map<String, Object>) list.get(i);
+                    row.productIds[i] = parseId(field(item, "productId"), "productId");
+                    row.quantities[i] = parseQuantity(field(item, "quantity"));
+                }
+                break;
+        }
+        return row;
+    }
+
+    private static String field(Map<String, Object> o, String key) {
+        Object value = o.get(key);
+        if (value == null) throw new IllegalArgumentException("missing " + key);
+        return value.toString();
+    }
+
+    private static void require(List<String> fields, int count) {
+        if (fields.size() < count) {
+            throw new IllegalArgumentException("expected " + count + " fields, found " + fields.size());
+        }
+    }
+
+    private static String checkNotEmpty(String value, String what) {
+        String s = value.trim();
+        if (s.isEmpty()) throw new IllegalArgumentException(what + " is empty");
+        return s;
+    }
+
+    private static long parseId(String value, String what) {
+        try {
+            return Ids.parse(checkNotEmpty(value, what));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + what + " '" + value.trim() + "'");
+        }
+    }
+
+    /**
+     * An entity's own ID; empty means generate one.
+     */
+    private static long parseRowId(String value) {
+        return value.trim().isEmpty() ? -1 : parseId(value, "id");
+    }
+
+    private static String checkUsername(String value) {
+        return checkNotEmpty(value, "username");
+    }
+
+    private static String checkName(String value) {
+        return checkNotEmpty(value, "name");
+    }
+
+    private static String checkEmail(String value) {
+        String s = checkNotEmpty(value, "email");
+        if (s.indexOf('@') < 1) throw new IllegalArgumentException("invalid email '" + s + "'");
+        return s;
+    }
+
+    private static String checkStatus(String value) {
+        String s = value.trim();
+        if (!Arrays.asList(Order.STATUSES).contains(s)) {
+            throw new IllegalArgumentException("unknown status '" + s + "'");
+        }
+        return s;
+    }
+
+    private static long parsePrice(String value) {
+        long price;
+        try {
+            price = Money.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid price '" + value + "'");
+        }
+        if (price < 0 || price > Money.MAX_PRICE) {
+            throw new IllegalArgumentException("price " + value.trim() + " is not between 0 and " + Money.format(Money.MAX_PRICE));
+        }
+        return price;
+    }
+
+    private static int parseCount(String value, String what) {
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n < 0) throw new IllegalArgumentException(what + " is negative");
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + what + " '" + value + "'");
+        }
+    }
+
+    private static int parseQuantity(String value) {
+        int n = parseCount(value, "quantity");
+        if (n == 0) throw new IllegalArgumentException("quantity is zero");
+        return n;
+    }
+
+    private static Date parseDate(String value) {
+        String s = value.trim();
+        try {
+            if (!s.isEmpty() && s.chars().allMatch(Character::isDigit)) {
+                return new Date(Long.parseLong(s));
+            }
+            if (s.endsWith("Z") || s.contains("+")) {
+                return Date.from(Instant.parse(s));
+            }
+            return Date.from(LocalDateTime.parse(s, DATE_FORMAT).atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("invalid date '" + s + "'");
+        }
+    }
+
+    private static boolean isCsvHeader(String line) {
+        try {
+            return splitCsv(line).get(0).trim().equalsIgnoreCase("id");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields with "" escapes.
+     * Quoted fields cannot span lines.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Counts bytes read so progress can be reported against the file size.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,806 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable storage for the entity stores: an append-only write-ahead journal
+ * plus periodic compact snapshots.
+ *
+ * Every store change is encoded on the thread that made it and queued; a
+ * single writer thread appends whatever has queued up since its last write
+ * and then fsyncs once for the whole batch (group commit). Records are full
+ * "put" or "remove" images, so replaying them is idempotent.
+ *
+ * After a million records a checkpoint starts a new journal segment and
+ * writes a snapshot of the stores in the background. The stores' snapshots
+ * (see EntityStore.Snapshot) are taken at the segment boundary, so the file
+ * holds exactly the state before it, however the stores change while it is
+ * written. Once a snapshot is complete, older segments and snapshots are
+ * deleted.
+ *
+ * On startup the latest snapshot is memory-mapped and loaded, then only the
+ * journal tail after it is replayed.
+ *
+ * Files in the data directory:
+ *   journal-&lt;first LSN&gt;.log    journal segments
+ *   snapshot-&lt;LSN&gt;.snap        snapshot of everything before LSN
+ *
+ * Every record is framed as [int length][int CRC32C][byte type][payload],
+ * so a torn write at the tail of the journal is detected and dropped.
+ *
+ * If a write fails the writer stops and the journal is failed for good:
+ * further changes are no longer queued, awaitDurable and close throw, and
+ * the failure listener is told, so the app can say that changes are no
+ * longer being saved.
+ */
+public class Journal implements AutoCloseable {
+
+    private static final byte USER_PUT = 1;
+    private static final byte USER_REMOVE = 2;
+    private static final byte PRODUCT_PUT = 3;
+    private static final byte PRODUCT_REMOVE = 4;
+    private static final byte ORDER_PUT = 5;
+    private static final byte ORDER_REMOVE = 6;
+
+    private static final int SNAPSHOT_MAGIC = 0x45435331; // "ECS1"
+    private static final int HEADER_BYTES = 8;            // Length + CRC
+    private static final long SNAPSHOT_EVERY_RECORDS = 1_000_000;
+    private static final long MAP_WINDOW_BYTES = 256L << 20;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path dir;
+    private final EntityStore<User> users;
+    private final EntityStore<Product> products;
+    private final EntityStore<Order> orders;
+
+    // Records and segment rolls waiting for the writer thread; guarded by lock
+    private final Object lock = new Object();
+    private List<Object> pending = new ArrayList<>();
+    private long nextLsn;
+    private boolean closed;
+
+    private final Object durableLock = new Object();
+    private volatile long durableLsn;  // Every record below this is on disk
+    private volatile IOException failure; // Why the writer stopped, if it failed
+    private volatile Consumer<IOException> failureListener = e -> { };
+
+    private Executor owner;
+    private Thread writer;
+    private FileChannel segment;
+    private volatile long segmentStartLsn;
+    private long recordsSinceSnapshot;
+    private volatile boolean checkpointRunning;
+
+    private long recoveredRecords;
+    private long recoveryMillis;
+
+    public Journal(Path dir, EntityStore<User> users, EntityStore<Product> products,
+                   EntityStore<Order> orders) {
+        this.dir = dir;
+        this.users = users;
+        this.products = products;
+        this.orders = orders;
+    }
+
+    // =========================================================================
+    // --- Recovery ---
+    // =========================================================================
+
+    /**
+     * Loads the latest snapshot and replays the journal tail into the
+     * stores. Must be called before start().
+     */
+    public void recover() throws IOException {
+        long begin = System.nanoTime();
+        Files.createDirectories(dir);
+
+        long snapshotLsn = 0;
+        TreeMap<Long, Path> snapshots = listFiles("snapshot-", ".snap");
+        for (Long lsn : snapshots.descendingKeySet()) {
+            try {
+                recoveredRecords += loadSnapshot(snapshots.get(lsn));
+                snapshotLsn = lsn;
+                break;
+            } catch (IOException e) {
+                System.err.println("Journal: skipping unreadable snapshot " + snapshots.get(lsn) + ": " + e.getMessage());
+            }
+        }
+
+        long lsn = snapshotLsn;
+        TreeMap<Long, Path> segments = listFiles("journal-", ".log");
+        Long first = segments.floorKey(snapshotLsn);
+        for (Long start : segments.tailMap(first == null ? snapshotLsn : first).keySet()) {
+            if (start > lsn) {
+                System.err.println("Journal: records " + lsn + " to " + (start - 1) + " are missing, stopping replay");
+                break;
+            }
+            long end = replaySegment(segments.get(start), start, snapshotLsn);
+            lsn = Math.max(lsn, end);
+        }
+
+        nextLsn = lsn;
+        durableLsn = lsn;
+        recoveryMillis = (System.nanoTime() - begin) / 1_000_000;
+    }
+
+    /**
+     * Replays one segment, skipping records already covered by the
+     * snapshot. Returns the LSN after the last good record; a torn tail is
+     * truncated away.
+     */
+    private long replaySegment(Path file, long startLsn, long snapshotLsn) throws IOException {
+        long lsn = startLsn;
+        try (RecordReader reader = new RecordReader(file)) {
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                if (lsn >= snapshotLsn) {
+                    apply(record);
+                    recoveredRecords++;
+                }
+                lsn++;
+            }
+            if (reader.isTorn()) {
+                System.err.println("Journal: dropping torn record at end of " + file);
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    ch.truncate(reader.getGoodLength());
+                }
+            }
+        }
+        return lsn;
+    }
+
+    private long loadSnapshot(Path file) throws IOException {
+        try (RecordReader reader = new RecordReader(file)) {
+            ByteBuffer header = reader.next();
+            int magic = header == null ? 0 : header.getInt();
+            if (magic != SNAPSHOT_MAGIC) {
+                throw new IOException("bad snapshot header");
+            }
+            header.getLong(); // LSN, also in the file name
+            long expected = header.getLong();
+            long count = 0;
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                apply(record);
+                count++;
+            }
+            if (reader.isTorn() || count != expected) {
+                throw new IOException("snapshot has " + count + " of " + expected + " records");
+            }
+            return count;
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        int type = record.get();
+        long id = record.getLong();
+        switch (type) {
+            case USER_PUT: {
+                String username = getString(record);
+                String email = getString(record);
+                User u = users.get(id);
+                if (u == null) {
+                    users.add(new User(id, username, email));
+                } else {
+                    users.update(u, x -> { x.setUsername(username); x.setEmail(email); });
+                }
+                break;
+            }
+            case PRODUCT_PUT: {
+                String name = getString(record);
+                long price = record.getLong();
+                int stock = record.getInt();
+                Product p = products.get(id);
+                if (p == null) {
+                    products.add(new Product(id, name, price, stock));
+                } else {
+                    products.update(p, x -> { x.setName(name); x.setPrice(price); x.setStock(stock); });
+                }
+                break;
+            }
+            case ORDER_PUT: {
+                User user = resolveUser(record.getLong(), getString(record));
+                Date date = new Date(record.getLong());
+                String status = getString(record);
+                int itemCount = record.getInt();
+                Product[] itemProducts = new Product[itemCount];
+                int[] quantities = new int[itemCount];
+                long[] unitPrices = new long[itemCount];
+                for (int i = 0; i < itemCount; i++) {
+                    long productId = record.getLong();
+                    String name = getString(record);
+                    unitPrices[i] = record.getLong();
+                    itemProducts[i] = resolveProduct(productId, name, unitPrices[i]);
+                    quantities[i] = record.getInt();
+                }
+                Order o = orders.get(id);
+                if (o == null) {
+                    o = new Order(id, user, date, status);
+                    for (int i = 0; i < itemCount; i++) o.addItem(itemProducts[i], quantities[i], unitPrices[i]);
+                    orders.add(o);
+                } else {
+                    orders.update(o, x -> {
+                        x.user = user; x.orderDate = date; x.status = status;
+                        // Usually only the status changed; rewriting the items would
+                        // leave their old rows unused (see LineItems)
+                        if (!sameItems(x, itemProducts, quantities, unitPrices)) {
+                            x.clearItems();
+                            for (int i = 0; i < itemCount; i++) x.addItem(itemProducts[i], quantities[i], unitPrices[i]);
+                        }
+                    });
+                }
+                break;
+            }
+            case USER_REMOVE:
+                users.remove(id);
+                break;
+            case PRODUCT_REMOVE:
+                products.remove(id);
+                break;
+            case ORDER_REMOVE:
+                orders.remove(id);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static boolean sameItems(Order o, Product[] products, int[] quantities, long[] unitPrices) {
+        if (o.getItemCount() != products.length) return false;
+        for (int i = 0; i < products.length; i++) {
+            if (o.getProduct(i).id != products[i].id || o.getQuantity(i) != quantities[i]
+                    || o.getUnitPrice(i) != unitPrices[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Orders keep pointing at users and products that were later removed,
+     * so those are recreated from the copy stored with the order.
+     */
+    private User resolveUser(long id, String username) {
+        User u = users.get(id);
+        return u != null ? u : new User(id, username, "");
+    }
+
+    private Product resolveProduct(long id, String name, long price) {
+        Product p = products.get(id);
+        return p != null ? p : new Product(id, name, price, 0);
+    }
+
+    // =========================================================================
+    // --- Appending ---
+    // =========================================================================
+
+    /**
+     * Sets what to call, on the writer thread, if the journal fails.
+     */
+    public void setFailureListener(Consumer<IOException> listener) {
+        failureListener = listener;
+    }
+
+    /**
+     * Why the journal stopped writing, or null if it has not failed.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Starts journaling every change made to the stores. Checkpoints copy
+     * the stores on the owner executor, which must run tasks on the thread
+     * that mutates the stores.
+     */
+    public void start(Executor owner) throws IOException {
+        this.owner = owner;
+        openSegment(nextLsn);
+        users.addListener(new EntityStore.Listener<User>() {
+            @Override public void entityAdded(User u) { append(encodeUser(u)); }
+            @Override public void entityUpdated(User u) { append(encodeUser(u)); }
+            @Override public void entityRemoved(User u) { append(encodeRemove(USER_REMOVE, u.id)); }
+        });
+        products.addListener(new EntityStore.Listener<Product>() {
+            @Override public void entityAdded(Product p) { append(encodeProduct(p)); }
+            @Override public void entityUpdated(Product p) { append(encodeProduct(p)); }
+            @Override public void entityRemoved(Product p) { append(encodeRemove(PRODUCT_REMOVE, p.id)); }
+        });
+        orders.addListener(new EntityStore.Listener<Order>() {
+            @Override public void entityAdded(Order o) { append(encodeOrder(o)); }
+            @Override public void entityUpdated(Order o) { append(encodeOrder(o)); }
+            @Override public void entityRemoved(Order o) { append(encodeRemove(ORDER_REMOVE, o.id)); }
+        });
+        writer = new Thread(this::writeLoop, "Journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a framed record and returns its LSN. Never waits for the disk.
+     * Once the journal has failed the record is dropped, as it could never
+     * be written.
+     */
+    private long append(byte[] record) {
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Journal is closed");
+            if (failure != null) return nextLsn;
+            pending.add(record);
+            lock.notify();
+            return nextLsn++;
+        }
+    }
+
+    /**
+     * Returns the LSN the next record will get. Every change made before
+     * this call is durable once awaitDurable returns for this value.
+     */
+    public long getAppendedLsn() {
+        synchronized (lock) {
+            return nextLsn;
+        }
+    }
+
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Blocks until every record below the given LSN has been fsynced.
+     *
+     * @throws IOException if the journal failed before they were
+     */
+    public void awaitDurable(long lsn) throws IOException, InterruptedException {
+        synchronized (durableLock) {
+            while (durableLsn < lsn && failure == null && writer.isAlive()) {
+                durableLock.wait();
+            }
+        }
+        if (durableLsn < lsn && failure != null) {
+            throw new IOException("Journal failed before record " + lsn + " was written", failure);
+        }
+    }
+
+    private void writeLoop() {
+        List<Object> spare = new ArrayList<>();
+        List<ByteBuffer> writes = new ArrayList<>();
+        long lsn = nextLsn;
+        try {
+            while (true) {
+                List<Object> batch;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !closed) {
+                        lock.wait();
+                    }
+                    if (pending.isEmpty()) break;
+                    batch = pending;
+                    pending = spare;
+                }
+                for (Object item : batch) {
+                    if (item instanceof byte[]) {
+                        writes.add(ByteBuffer.wrap((byte[]) item));
+                        lsn++;
+                    } else {
+                        flush(writes, lsn);
+                        openSegment((Long) item);
+                    }
+                }
+                flush(writes, lsn);
+                batch.clear();
+                spare = batch;
+                maybeCheckpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (durableLock) {
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Marks the journal failed and drops whatever is queued, as the writer
+     * has stopped and nothing would ever write it.
+     */
+    private void fail(IOException e) {
+        synchronized (lock) {
+            failure = e;
+            pending = new ArrayList<>();
+        }
+        System.err.println("Journal: write failed, changes are no longer being persisted: " + e);
+        try {
+            failureListener.accept(e);
+        } catch (RuntimeException listenerFailure) {
+            System.err.println("Journal: failure listener failed: " + listenerFailure);
+        }
+    }
+
+    private void flush(List<ByteBuffer> writes, long lsn) throws IOException {
+        if (writes.isEmpty()) return;
+        ByteBuffer[] buffers = writes.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer b : buffers) remaining += b.remaining();
+        while (remaining > 0) {
+            remaining -= segment.write(buffers);
+        }
+        segment.force(false);
+        recordsSinceSnapshot += writes.size();
+        writes.clear();
+        synchronized (durableLock) {
+            durableLsn = lsn;
+            durableLock.notifyAll();
+        }
+    }
+
+    private void openSegment(long startLsn) throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+        }
+        segment = FileChannel.open(dir.resolve("journal-" + startLsn + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentStartLsn = startLsn;
+    }
+
+    // =========================================================================
+    // --- Checkpoints ---
+    // =========================================================================
+
+    private void maybeCheckpoint() {
+        if (recordsSinceSnapshot >= SNAPSHOT_EVERY_RECORDS && !checkpointRunning) {
+            checkpointRunning = true;
+            recordsSinceSnapshot = 0;
+            owner.execute(this::checkpoint);
+        }
+    }
+
+    /**
+     * Starts a new journal segment and writes a snapshot of the stores in
+     * the background. Must run on the thread that mutates the stores, which
+     * is only held up for taking the stores' snapshots, in O(1).
+     */
+    public void checkpoint() {
+        checkpointRunning = true;
+        long lsn;
+        synchronized (lock) {
+            if (failure != null) {
+                checkpointRunning = false;
+                return; // A snapshot would leave out the dropped records
+            }
+            lsn = nextLsn;
+            pending.add(lsn); // Segment roll marker
+            lock.notify();
+        }
+        EntityStore.Snapshot<User> userSnapshot = users.snapshot();
+        EntityStore.Snapshot<Product> productSnapshot = products.snapshot();
+        EntityStore.Snapshot<Order> orderSnapshot = orders.snapshot();
+        Thread snapshotter = new Thread(() -> {
+            try {
+                writeSnapshot(lsn, userSnapshot, productSnapshot, orderSnapshot);
+                deleteBefore(lsn);
+            } catch (IOException | RuntimeException e) {
+                // The segments stay until a later checkpoint's snapshot succeeds
+                System.err.println("Journal: snapshot at " + lsn + " failed: " + e);
+            } finally {
+                userSnapshot.close();
+                productSnapshot.close();
+                orderSnapshot.close();
+                checkpointRunning = false;
+            }
+        }, "Journal-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    private void writeSnapshot(long lsn, EntityStore.Snapshot<User> userSnapshot,
+                               EntityStore.Snapshot<Product> productSnapshot,
+                               EntityStore.Snapshot<Order> orderSnapshot) throws IOException {
+        Path tmp = dir.resolve("snapshot-" + lsn + ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+                Encoder header = new Encoder();
+                header.putInt(SNAPSHOT_MAGIC);
+                header.putLong(lsn);
+                header.putLong((long) userSnapshot.size() + productSnapshot.size() + orderSnapshot.size());
+                writeBuffered(ch, out, header.frame());
+                writeAll(ch, out, userSnapshot, Journal::encodeUser);
+                writeAll(ch, out, productSnapshot, Journal::encodeProduct);
+                writeAll(ch, out, orderSnapshot, Journal::encodeOrder);
+                out.flip();
+                while (out.hasRemaining()) ch.write(out);
+                ch.force(true);
+            }
+            Files.move(tmp, dir.resolve("snapshot-" + lsn + ".snap"), StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    System.err.println("Journal: could not delete " + tmp + ": " + e);
+                }
+            }
+        }
+    }
+
+    private static <T> void writeAll(FileChannel ch, ByteBuffer out, EntityStore.Snapshot<T> snapshot,
+                                     Function<T, byte[]> encode) throws IOException {
+        for (int i = 0, n = snapshot.getSlotCount(); i < n; i++) {
+            byte[] record = snapshot.read(i, encode);
+            if (record != null) writeBuffered(ch, out, record);
+        }
+    }
+
+    private static void writeBuffered(FileChannel ch, ByteBuffer out, byte[] record) throws IOException {
+        if (out.remaining() < record.length) {
+            out.flip();
+            while (out.hasRemaining()) ch.write(out);
+            out.clear();
+        }
+        if (record.length > out.capacity()) {
+            ByteBuffer big = ByteBuffer.wrap(record);
+            while (big.hasRemaining()) ch.write(big);
+        } else {
+            out.put(record);
+        }
+    }
+
+    /**
+     * Deletes snapshots and journal segments made obsolete by the snapshot
+     * at the given LSN.
+     */
+    private void deleteBefore(long lsn) throws IOException {
+        for (Map.Entry<Long, Path> e : listFiles("snapshot-", ".snap").headMap(lsn).entrySet()) {
+            Files.deleteIfExists(e.getValue());
+        }
+        long current = segmentStartLsn;
+        for (Map.Entry<Long, Path> e : listFiles("journal-", ".log").headMap(lsn).entrySet()) {
+            if (e.getKey() != current) {
+                Files.deleteIfExists(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes out everything queued so far and stops the writer thread.
+     *
+     * @throws IOException if the journal had failed, so changes since its
+     *         durable LSN were not saved
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notify();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (segment != null) {
+            segment.close();
+        }
+        if (failure != null) {
+            throw new IOException("Journal failed; changes from record " + durableLsn + " on were not saved", failure);
+        }
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    private TreeMap<Long, Path> listFiles(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), p);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    // =========================================================================
+    // --- Record Encoding ---
+    // =========================================================================
+
+    private static byte[] encodeUser(User u) {
+        Encoder e = new Encoder();
+        e.put(USER_PUT);
+        e.putLong(u.id);
+        e.putString(u.getUsername());
+        e.putString(u.getEmail());
+        return e.frame();
+    }
+
+    private static byte[] encodeProduct(Product p) {
+        Encoder e = new Encoder();
+        e.put(PRODUCT_PUT);
+        e.putLong(p.id);
+        e.putString(p.getName());
+        e.putLong(p.getPrice());
+        e.putInt(p.getStock());
+        return e.frame();
+    }
+
+    private static byte[] encodeOrder(Order o) {
+        Encoder e = new Encoder();
+        e.put(ORDER_PUT);
+        e.putLong(o.id);
+        e.putLong(o.user.id);
+        e.putString(o.user.getUsername());
+        e.putLong(o.orderDate.getTime());
+        e.putString(o.status);
+        int items = o.getItemCount();
+        e.putInt(items);
+        for (int i = 0; i < items; i++) {
+            Product product = o.getProduct(i);
+            e.putLong(product.id);
+            e.putString(product.getName());
+            e.putLong(o.getUnitPrice(i));
+            e.putInt(o.getQuantity(i));
+        }
+        return e.frame();
+    }
+
+    private static byte[] encodeRemove(byte type, long id) {
+        Encoder e = new Encoder();
+        e.put(type);
+        e.putLong(id);
+        return e.frame();
+    }
+
+    private static String getString(ByteBuffer b) {
+        int length = b.getInt();
+        if (length < 0) return null;
+        String s = new String(b.array(), b.arrayOffset() + b.position(), length, StandardCharsets.UTF_8);
+        b.position(b.position() + length);
+        return s;
+    }
+
+    /**
+     * Builds one framed record: [length][CRC32C][body], where length and
+     * CRC cover the body.
+     */
+    private static final class Encoder {
+        private ByteBuffer buf = ByteBuffer.allocate(128).position(HEADER_BYTES);
+
+        private void ensure(int n) {
+            if (buf.remaining() < n) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+        }
+
+        void put(byte b) { ensure(1); buf.put(b); }
+        void putInt(int v) { ensure(4); buf.putInt(v); }
+        void putLong(long v) { ensure(8); buf.putLong(v); }
+
+        void putString(String s) {
+            if (s == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+
+        byte[] frame() {
+            int end = buf.position();
+            CRC32C crc = new CRC32C();
+            crc.update(buf.array(), HEADER_BYTES, end - HEADER_BYTES);
+            buf.putInt(0, end - HEADER_BYTES);
+            buf.putInt(4, (int) crc.getValue());
+            byte[] record = new byte[end];
+            System.arraycopy(buf.array(), 0, record, 0, end);
+            return record;
+        }
+    }
+
+    /**
+     * Reads framed records from a memory-mapped file, a window at a time so
+     * files larger than 2 GB work too. Each record body is copied out into
+     * a heap buffer, positioned at the record type.
+     */
+    private static final class RecordReader implements AutoCloseable {
+        private final FileChannel ch;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private boolean torn;
+
+        RecordReader(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            size = ch.size();
+        }
+
+        /**
+         * Returns the next record body, or null at the end of the file or
+         * at the first damaged record.
+         */
+        ByteBuffer next() throws IOException {
+            if (position == size) return null;
+            if (!ensure(HEADER_BYTES)) return tornAt();
+            int offset = (int) (position - windowStart);
+            int length = window.getInt(offset);
+            int crc = window.getInt(offset + 4);
+            if (length < 1 || !ensure(HEADER_BYTES + (long) length)) return tornAt();
+            offset = (int) (position - windowStart);
+            byte[] body = new byte[length];
+            window.get(offset + HEADER_BYTES, body);
+            CRC32C check = new CRC32C();
+            check.update(body);
+            if ((int) check.getValue() != crc) return tornAt();
+            position += HEADER_BYTES + length;
+            return ByteBuffer.wrap(body);
+        }
+
+        private ByteBuffer tornAt() {
+            torn = true;
+            return null;
+        }
+
+        boolean isTorn() {
+            return torn;
+        }
+
+        /**
+         * Returns the length of the file up to the end of the last good record.
+         */
+        long getGoodLength() {
+            return position;
+        }
+
+        private boolean ensure(long n) throws IOException {
+            if (size - position < n) return false;
+            if (window != null && position + n <= windowStart + window.limit()) return true;
+            windowStart = position;
+            window = ch.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, Math.max(n, MAP_WINDOW_BYTES)));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.List;
+
+/**
+ * Starts either the app or, with --headless, the server, choosing before
+ * anything loads AWT:
+ *
+ *   java Launcher                          the Swing app, as EcommerceApp
+ *   java Launcher --headless [options]     ShopServer with the same options
+ *
+ * EcommerceApp cannot make that choice itself, as its static colors and
+ * fonts load the toolkit before its main runs. This class has no static
+ * state and only touches EcommerceApp on the path that runs it, so the
+ * headless path loads no AWT classes, as with java ShopServer.
+ */
+public final class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) {
+        if (List.of(args).contains("--headless")) {
+            ShopServer.main(args);
+        } else {
+            EcommerceApp.main(args);
+        }
+    }
+}
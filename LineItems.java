@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for order line items, behind Order's item
+ * methods.
+ *
+ * A chunk holds the items of many orders as parallel primitive columns:
+ * product (an index into the chunk's own product table), quantity and unit
+ * price. An order's items are one contiguous run of rows, so an order needs
+ * only a chunk reference, a first row and a count instead of an ArrayList
+ * and an object per item, and scanning orders in store order walks the
+ * columns sequentially without allocating.
+ *
+ * Each thread appends to its own current chunk, so no locking is needed.
+ * A chunk's columns never change size: when one is full the thread starts
+ * a new one, twice as large up to MAX_ROWS. So rows, once written, stay
+ * where they are in arrays that are never replaced, and a thread that was
+ * handed an order (a snapshot reader, a report, the owner taking orders
+ * built by DataGenerator workers) can read them while the chunk's thread
+ * keeps appending. The product table does grow, but is copied and then
+ * published through a volatile field, so a reader sees either table with
+ * every entry its rows refer to.
+ *
+ * An order whose run is not at the end of its thread's current chunk, or
+ * does not fit in it, is copied there when it grows, leaving the old rows
+ * unused. That only happens to orders changed after other orders were
+ * built, or at a chunk's end, and a chunk is garbage collected with the
+ * last order that uses it.
+ */
+final class LineItems {
+
+    private static final int INITIAL_ROWS = 16;
+    static final int MAX_ROWS = 1 << 16;
+
+    private static final ThreadLocal<LineItems> current = new ThreadLocal<>();
+
+    // Row r is product[r], quantity[r], unitPrice[r]; rows below size are in use
+    final int[] product;
+    final int[] quantity;
+    final long[] unitPrice;
+    int size;
+
+    // Products referenced by this chunk; the product column indexes this
+    volatile Product[] products = new Product[INITIAL_ROWS];
+    private int productCount;
+
+    private LineItems(int capacity) {
+        product = new int[capacity];
+        quantity = new int[capacity];
+        unitPrice = new long[capacity];
+    }
+
+    /**
+     * The calling thread's chunk, with room for rows more rows; a new chunk
+     * if the current one is too full. A new chunk is twice the size of the
+     * last, up to MAX_ROWS, or half as large again as rows for orders of
+     * more than that, so that such an order grows in amortized O(1).
+     */
+    static LineItems forAppend(int rows) {
+        LineItems chunk = current.get();
+        if (chunk == null || !chunk.reserve(rows)) {
+            int capacity = chunk == null ? INITIAL_ROWS : Math.min(chunk.product.length * 2, MAX_ROWS);
+            if (rows > capacity) {
+                capacity = (int) Math.min(Integer.MAX_VALUE - 8, rows + (long) rows / 2);
+            }
+            chunk = new LineItems(capacity);
+            current.set(chunk);
+        }
+        return chunk;
+    }
+
+    static boolean isCurrent(LineItems chunk) {
+        return chunk == current.get();
+    }
+
+    /**
+     * Whether rows more rows fit.
+     */
+    boolean reserve(int rows) {
+        return size + rows <= product.length;
+    }
+
+    /**
+     * Appends a row; there must be room for it (see reserve).
+     */
+    void append(Product p, int q, long price) {
+        product[size] = productIndex(p);
+        quantity[size] = q;
+        unitPrice[size] = price;
+        size++;
+    }
+
+    /**
+     * Moves rows from+1..to-1 down by one, over row from.
+     */
+    void removeRow(int from, int to) {
+        int moved = to - from - 1;
+        System.arraycopy(product, from + 1, product, from, moved);
+        System.arraycopy(quantity, from + 1, quantity, from, moved);
+        System.arraycopy(unitPrice, from + 1, unitPrice, from, moved);
+    }
+
+    /**
+     * The product's index in this chunk's product table, adding it if need
+     * be. Product.lineSlot remembers the index from the last chunk that
+     * added the product; it is only trusted once checked, so a stale or
+     * racy value just means the product is added again.
+     */
+    private int productIndex(Product p) {
+        Product[] table = products;
+        int slot = p.lineSlot;
+        if (slot >= 0 && slot < productCount && table[slot] == p) {
+            return slot;
+        }
+        if (productCount == table.length) {
+            table = Arrays.copyOf(table, productCount * 2);
+            table[productCount] = p;
+            products = table; // Filled before it is published
+        } else {
+            table[productCount] = p;
+        }
+        p.lineSlot = productCount;
+        return productCount++;
+    }
+}
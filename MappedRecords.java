@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for user and product fields, in memory-mapped files, so
+ * that a catalog of tens of millions costs the heap a small fixed-size
+ * object per record instead of a record and its strings, and the garbage
+ * collector has that much less to trace. The files' pages are cached by the
+ * OS, which is the working set.
+ *
+ * Each record has a fixed-layout slot in its table file; strings are
+ * UTF-8 in an append-only arena and the slot holds their offset and
+ * length. Changing a string appends the new value and leaves the old bytes
+ * unused, unless the value is the same, as it is for most journal replays.
+ * Removed records keep their slots, since snapshots and orders may still
+ * read them. Both are reclaimed when the files are rebuilt: the journal
+ * stays the source of truth, and open starts the files afresh, so they
+ * never need recovering.
+ *
+ * User and Product are the views: Shop moves each one added to its stores
+ * into a slot here (see User.moveTo), after which their accessors read and
+ * write the slot. Reads decode strings into new Strings each time, which
+ * is short-lived garbage only. Like the stores, writes must come from the
+ * owner thread; reads may come from any thread, and are made safe against
+ * concurrent changes by store snapshots the same way reads of heap fields
+ * are.
+ *
+ * Files in the directory:
+ *   users.slots      [long id][long username offset][long email offset]
+ *                    [int username length][int email length], 32 bytes
+ *   products.slots   [long id][long price][int stock][int name length]
+ *                    [long name offset], 32 bytes
+ *   strings.arena    string bytes; a length of -1 stands for null
+ *
+ * Files are mapped a SEGMENT_BYTES segment at a time as they grow, so
+ * they can grow past 2 GB; slots and strings never straddle segments.
+ */
+final class MappedRecords implements AutoCloseable {
+
+    private static final int SEGMENT_BITS = 26;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_BITS; // 64 MB
+    private static final int SLOT_BYTES = 32;
+
+    // User slot layout
+    private static final int USERNAME_OFFSET = 8;
+    private static final int EMAIL_OFFSET = 16;
+    private static final int USERNAME_LENGTH = 24;
+    private static final int EMAIL_LENGTH = 28;
+
+    // Product slot layout
+    private static final int PRICE = 8;
+    private static final int STOCK = 16;
+    private static final int NAME_LENGTH = 20;
+    private static final int NAME_OFFSET = 24;
+
+    private final Region users;
+    private final Region products;
+    private final Region strings;
+
+    private MappedRecords(Path dir) throws IOException {
+        users = new Region(dir.resolve("users.slots"));
+        products = new Region(dir.resolve("products.slots"));
+        strings = new Region(dir.resolve("strings.arena"));
+    }
+
+    /**
+     * Creates the files in dir, replacing any that are there.
+     */
+    static MappedRecords open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new MappedRecords(dir);
+    }
+
+    /**
+     * Bytes of the string arena in use, including superseded values.
+     */
+    long getArenaBytes() {
+        return strings.used;
+    }
+
+    /**
+     * Bytes of all three files in use.
+     */
+    long getUsedBytes() {
+        return users.used + products.used + strings.used;
+    }
+
+    // =========================================================================
+    // --- Users ---
+    // =========================================================================
+
+    int addUser(long id, String username, String email) {
+        long at = users.allocate(SLOT_BYTES);
+        MappedByteBuffer segment = users.segment(at);
+        int offset = Region.offset(at);
+        segment.putLong(offset, id);
+        putString(segment, offset + USERNAME_OFFSET, offset + USERNAME_LENGTH, username);
+        putString(segment, offset + EMAIL_OFFSET, offset + EMAIL_LENGTH, email);
+        return (int) (at / SLOT_BYTES);
+    }
+
+    String getUsername(int slot) {
+        return userString(slot, USERNAME_OFFSET, USERNAME_LENGTH);
+    }
+
+    String getEmail(int slot) {
+        return userString(slot, EMAIL_OFFSET, EMAIL_LENGTH);
+    }
+
+    void setUsername(int slot, String username) {
+        long at = (long) slot * SLOT_BYTES;
+        int offset = Region.offset(at);
+        putString(users.segment(at), offset + USERNAME_OFFSET, offset + USERNAME_LENGTH, username);
+    }
+
+    void setEmail(int slot, String email) {
+        long at = (long) slot * SLOT_BYTES;
+        int offset = Region.offset(at);
+        putString(users.segment(at), offset + EMAIL_OFFSET, offset + EMAIL_LENGTH, email);
+    }
+
+    private String userString(int slot, int offsetField, int lengthField) {
+        long at = (long) slot * SLOT_BYTES;
+        int offset = Region.offset(at);
+        return getString(users.segment(at), offset + offsetField, offset + lengthField);
+    }
+
+    // =========================================================================
+    // --- Products ---
+    // =========================================================================
+
+    int addProduct(long id, String name, long price, int stock) {
+        long at = products.allocate(SLOT_BYTES);
+        MappedByteBuffer segment = products.segment(at);
+        int offset = Region.offset(at);
+        segment.putLong(offset, id);
+        segment.putLong(offset + PRICE, price);
+        segment.putInt(offset + STOCK, stock);
+        putString(segment, offset + NAME_OFFSET, offset + NAME_LENGTH, name);
+        return (int) (at / SLOT_BYTES);
+    }
+
+    String getProductName(int slot) {
+        long at = (long) slot * SLOT_BYTES;
+        int offset = Region.offset(at);
+        return getString(products.segment(at), offset + NAME_OFFSET, offset + NAME_LENGTH);
+    }
+
+    long getPrice(int slot) {
+        long at = (long) slot * SLOT_BYTES;
+        return products.segment(at).getLong(Region.offset(at) + PRICE);
+    }
+
+    int getStock(int slot) {
+        long at = (long) slot * SLOT_BYTES;
+        return products.segment(at).getInt(Region.offset(at) + STOCK);
+    }
+
+    void setProductName(int slot, String name) {
+        long at = (long) slot * SLOT_BYTES;
+        int offset = Region.offset(at);
+        putString(products.segment(at), offset + NAME_OFFSET, offset + NAME_LENGTH, name);
+    }
+
+    void setPrice(int slot, long price) {
+        long at = (long) slot * SLOT_BYTES;
+        products.segment(at).putLong(Region.offset(at) + PRICE, price);
+    }
+
+    void setStock(int slot, int stock) {
+        long at = (long) slot * SLOT_BYTES;
+        products.segment(at).putInt(Region.offset(at) + STOCK, stock);
+    }
+
+    // =========================================================================
+    // --- String arena ---
+    // =========================================================================
+
+    private String getString(MappedByteBuffer slots, int offsetField, int lengthField) {
+        int length = slots.getInt(lengthField);
+        if (length < 0) return null;
+        if (length == 0) return "";
+        long at = slots.getLong(offsetField);
+        byte[] bytes = new byte[length];
+        strings.segment(at).get(Region.offset(at), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Points the slot's string fields at the value, appending it to the
+     * arena unless the fields already hold the same bytes.
+     */
+    private void putString(MappedByteBuffer slots, int offsetField, int lengthField, String value) {
+        if (value == null) {
+            slots.putInt(lengthField, -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (slots.getInt(lengthField) == bytes.length && holds(slots.getLong(offsetField), bytes)) {
+            return;
+        }
+        long at = bytes.length == 0 ? 0 : strings.allocate(bytes.length);
+        if (bytes.length > 0) strings.segment(at).put(Region.offset(at), bytes);
+        slots.putLong(offsetField, at); // The bytes first, for readers on other threads
+        slots.putInt(lengthField, bytes.length);
+    }
+
+    private boolean holds(long at, byte[] bytes) {
+        if (bytes.length == 0) return true;
+        if (at + bytes.length > strings.used) return false; // A new slot's zeroed fields
+        MappedByteBuffer segment = strings.segment(at);
+        int offset = Region.offset(at);
+        for (int i = 0; i < bytes.length; i++) {
+            if (segment.get(offset + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the files. Views keep working, as the mappings last until
+     * they are garbage collected, but must not be written any more.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            users.channel.close();
+            products.channel.close();
+        } finally {
+            strings.channel.close();
+        }
+    }
+
+    /**
+     * A file used from the start up to used, mapped in segments as it grows.
+     */
+    private static final class Region {
+        final Path file;
+        final FileChannel channel;
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        volatile long used; // Written by the owner thread only
+
+        Region(Path file) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        static int offset(long at) {
+            return (int) (at & (SEGMENT_BYTES - 1));
+        }
+
+        MappedByteBuffer segment(long at) {
+            return segments[(int) (at >>> SEGMENT_BITS)];
+        }
+
+        /**
+         * Hands out bytes more bytes, starting a new segment if they would
+         * not fit in the current one, and returns where they start.
+         */
+        long allocate(int bytes) {
+            if (bytes > SEGMENT_BYTES) {
+                throw new IllegalArgumentException("Record field of " + bytes + " bytes is too long");
+            }
+            long at = used;
+            if (offset(at) + (long) bytes > SEGMENT_BYTES) {
+                at = (at >>> SEGMENT_BITS) + 1 << SEGMENT_BITS;
+            }
+            int segment = (int) (at >>> SEGMENT_BITS);
+            if (segment == segments.length) {
+                try {
+                    MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+                    grown[segment] = channel.map(FileChannel.MapMode.READ_WRITE, at, SEGMENT_BYTES);
+                    segments = grown;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not grow " + file, e);
+                }
+            }
+            used = at + bytes;
+            return at;
+        }
+    }
+}
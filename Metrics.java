@@ -0,0 +1,291 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Process-wide latency histograms and gauges for the hot paths, readable
+ * in the app's Diagnostics card and over JMX as "ecommerce:type=Metrics".
+ *
+ * Recording is cheap enough to leave on: timing a call costs two
+ * System.nanoTime calls and three uncontended atomic adds, and nothing is
+ * allocated. Histograms have eight buckets per power of two, so
+ * percentiles are within 12.5% of the true value, and any thread may
+ * record into them. Set -Decommerce.metrics=false to turn timing off.
+ *
+ * Gauges are sampled when read, on the reading thread. They may read owner
+ * thread state such as a store's size without synchronization, so a gauge
+ * can be slightly stale but never blocks anything.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("ecommerce.metrics"));
+
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    static {
+        Runtime rt = Runtime.getRuntime();
+        gauge("heap.usedBytes", () -> rt.totalMemory() - rt.freeMemory());
+        gauge("heap.committedBytes", rt::totalMemory);
+        gauge("heap.maxBytes", rt::maxMemory);
+    }
+
+    private Metrics() {}
+
+    /**
+     * The histogram with the given name, created on first use.
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, replacing any earlier one of the same name (and
+     * so releasing whatever it referred to).
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * Wraps a task so that each run is recorded in the named histogram.
+     */
+    public static Runnable timed(String name, Runnable task) {
+        if (!ENABLED) return task;
+        Histogram histogram = histogram(name);
+        return () -> {
+            long begin = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                histogram.record(System.nanoTime() - begin);
+            }
+        };
+    }
+
+    /**
+     * The histograms by name, in name order.
+     */
+    public static Map<String, Histogram> histograms() {
+        return new TreeMap<>(HISTOGRAMS);
+    }
+
+    /**
+     * Reads every gauge, in name order.
+     */
+    public static Map<String, Long> gauges() {
+        Map<String, Long> values = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    public static void reset() {
+        HISTOGRAMS.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Registers the histograms and gauges with the platform MBean server.
+     * Does nothing if they are already registered.
+     */
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("ecommerce:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e);
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds. Values below 8 have a bucket
+     * each; above that each power of two is split into eight buckets.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = (63 - 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.incrementAndGet(bucketOf(nanos));
+            total.addAndGet(nanos);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        /**
+         * The recordings so far. Concurrent recordings may or may not be
+         * included, so the figures are only consistent with each other to
+         * within the few values recorded while the copy was being taken.
+         */
+        public Summary summary() {
+            long[] copy = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+                count += copy[i];
+            }
+            return new Summary(count, total.get(), max.get(), copy);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+            max.set(0);
+        }
+
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) return (int) nanos;
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos); // >= 3
+            return (exponent - 2) * SUB_BUCKETS + (int) ((nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         * The midpoint of the bucket's range.
+         */
+        static long valueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 2;
+            long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+            return low + (1L << (exponent - 3)) / 2;
+        }
+    }
+
+    /**
+     * A copy of a histogram's figures, in nanoseconds.
+     */
+    public static final class Summary {
+        public final long count;
+        public final long total;
+        public final long max;
+        private final long[] counts;
+
+        Summary(long count, long total, long max, long[] counts) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.counts = counts;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * The value below which the given fraction (0..1) of recordings lie,
+         * capped at the maximum.
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(Histogram.valueOf(i), max);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Exposes each histogram as NAME.count and NAME.mean/p50/p99/maxMicros
+     * attributes, each gauge as an attribute of its own, and a reset
+     * operation. The attribute list follows the metrics as they appear.
+     */
+    private static final class MBean implements DynamicMBean {
+        private static final String[] STATS = {"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongSupplier gauge = GAUGES.get(attribute);
+            if (gauge != null) return gauge.getAsLong();
+            int dot = attribute.lastIndexOf('.');
+            Histogram histogram = dot < 0 ? null : HISTOGRAMS.get(attribute.substring(0, dot));
+            if (histogram == null) throw new AttributeNotFoundException(attribute);
+            Summary s = histogram.summary();
+            switch (attribute.substring(dot + 1)) {
+                case "count": return s.count;
+                case "meanMicros": return s.getMean() / 1_000;
+                case "p50Micros": return s.getPercentile(0.5) / 1_000;
+                case "p99Micros": return s.getPercentile(0.99) / 1_000;
+                case "maxMicros": return s.max / 1_000;
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface expects
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (!"reset".equals(action)) {
+                throw new ReflectionException(new NoSuchMethodException(action));
+            }
+            reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : histograms().keySet()) {
+                for (String stat : STATS) {
+                    attributes.add(new MBeanAttributeInfo(name + "." + stat, "long",
+                            stat + " of " + name, true, false, false));
+                }
+            }
+            for (String name : new TreeMap<>(GAUGES).keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears every histogram",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Metrics.class.getName(), "Hot path latencies and gauges",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null,
+                    new MBeanOperationInfo[]{reset}, null);
+        }
+    }
+}
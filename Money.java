@@ -0,0 +1,75 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts of money as a primitive long number of cents.
+ *
+ * Prices, line totals and order totals are all held in cents, so adding
+ * them up is exact however many orders there are; a double total drifts by
+ * cents over millions of orders. Amounts only become decimal text at the
+ * edges: the tables, the dashboard, exports and the HTTP API.
+ */
+public final class Money {
+
+    /**
+     * Highest product price accepted from the product form and imports,
+     * $100,000. Any quantity of it fits in a long many times over, so only
+     * orders of absurd size can overflow their total.
+     */
+    public static final long MAX_PRICE = 10_000_000;
+
+    private Money() {
+    }
+
+    /**
+     * Cents for unitPrice times quantity.
+     *
+     * @throws ArithmeticException if that does not fit in a long
+     */
+    public static long times(long unitPrice, int quantity) {
+        return Math.multiplyExact(unitPrice, (long) quantity);
+    }
+
+    /**
+     * Formats cents as a plain decimal with two places, e.g. "1299.90".
+     */
+    public static String format(long cents) {
+        StringBuilder out = new StringBuilder(16);
+        append(out, cents);
+        return out.toString();
+    }
+
+    public static StringBuilder append(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            cents = -cents; // Long.MIN_VALUE cents never occurs
+        }
+        long fraction = cents % 100;
+        return out.append(cents / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Parses a decimal amount such as "12", "12.5" or "1.2E3" into cents,
+     * rounding half up past the second decimal place.
+     *
+     * @throws IllegalArgumentException if text is not a number or too large
+     */
+    public static long parse(String text) {
+        try {
+            return new BigDecimal(text.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("amount out of range '" + text + "'");
+        }
+    }
+
+    /**
+     * Cents nearest to a double amount, for the spinner in the product form.
+     */
+    public static long fromDouble(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A customer order and its line items.
+ *
+ * The items live in a LineItems chunk as rows first..first+itemCount-1, so
+ * they are read through getProduct/getQuantity/getUnitPrice by index; an
+ * OrderItem is only a copy of one. totalPrice is kept up to date as items
+ * are added, removed or change quantity.
+ */
+public class Order {
+    public static final String[] STATUSES = {"Pending", "Shipped", "Delivered", "Cancelled"};
+
+    long id;
+    User user;
+    long totalPrice; // In cents
+    Date orderDate;
+    String status; // One of STATUSES
+
+    private LineItems lines; // Null until the first item is added
+    private int first;
+    private int itemCount;
+
+    public Order(long id, User user, Date orderDate, String status) {
+        this.id = id; this.user = user; this.orderDate = orderDate; this.status = status;
+    }
+
+    /**
+     * A copy of the order with its own copy of the items.
+     */
+    public Order(Order other) {
+        copyFrom(other);
+    }
+
+    /**
+     * Makes this order a copy of the other and returns it. The items are
+     * copied to this thread's chunk, reusing this order's rows where it
+     * can, so one order can serve as a reusable copy.
+     */
+    Order copyFrom(Order other) {
+        id = other.id; user = other.user; orderDate = other.orderDate; status = other.status;
+        clearItems();
+        for (int i = 0, n = other.getItemCount(); i < n; i++) {
+            addItem(other.getProduct(i), other.getQuantity(i), other.getUnitPrice(i));
+        }
+        totalPrice = other.totalPrice;
+        return this;
+    }
+
+    /**
+     * The status's position in STATUSES, which is also the order statuses
+     * sort in, or STATUSES.length for anything else.
+     */
+    public static int statusIndex(String status) {
+        for (int s = 0; s < STATUSES.length; s++) {
+            if (STATUSES[s].equals(status)) return s;
+        }
+        return STATUSES.length;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+    public Product getProduct(int index) {
+        LineItems l = lines;
+        return l.products[l.product[row(index)]];
+    }
+    public int getQuantity(int index) {
+        return lines.quantity[row(index)];
+    }
+    public long getUnitPrice(int index) {
+        return lines.unitPrice[row(index)];
+    }
+    public long getLineTotal(int index) {
+        int row = row(index);
+        return Money.times(lines.unitPrice[row], lines.quantity[row]);
+    }
+    public OrderItem getItem(int index) {
+        return new OrderItem(getProduct(index), getQuantity(index), getUnitPrice(index));
+    }
+    public List<OrderItem> getItems() {
+        List<OrderItem> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) items.add(getItem(i));
+        return items;
+    }
+
+    /**
+     * Adds a line at the product's current price.
+     */
+    public void addItem(Product product, int quantity) {
+        addItem(product, quantity, product.getPrice());
+    }
+    public void addItem(Product product, int quantity, long unitPrice) {
+        long lineTotal = Money.times(unitPrice, quantity);
+        if (lines == null || first + itemCount != lines.size || !LineItems.isCurrent(lines) || !lines.reserve(1)) {
+            moveLines(itemCount + 1);
+        }
+        lines.append(product, quantity, unitPrice);
+        itemCount++;
+        totalPrice = Math.addExact(totalPrice, lineTotal);
+    }
+    public OrderItem removeItem(int index) {
+        OrderItem item = getItem(index);
+        ownLines();
+        lines.removeRow(row(index), first + itemCount);
+        if (first + itemCount == lines.size && LineItems.isCurrent(lines)) {
+            lines.size--; // Last rows appended, so the row can be reused
+        }
+        itemCount--;
+        totalPrice -= Money.times(item.unitPrice, item.quantity);
+        return item;
+    }
+    public void setQuantity(int index, int quantity) {
+        int row = row(index);
+        if (ownLines()) row = row(index);
+        totalPrice = Math.addExact(totalPrice, Money.times(lines.unitPrice[row], quantity - lines.quantity[row]));
+        lines.quantity[row] = quantity;
+    }
+    public void clearItems() {
+        if (lines != null && first + itemCount == lines.size && LineItems.isCurrent(lines)) {
+            lines.size = first;
+        }
+        itemCount = 0;
+        totalPrice = 0;
+    }
+
+    /**
+     * Recomputes totalPrice from the items. Not needed after the methods
+     * above; only for checking them.
+     */
+    public void recalculateTotal() {
+        long total = 0;
+        for (int i = 0; i < itemCount; i++) {
+            total = Math.addExact(total, getLineTotal(i));
+        }
+        totalPrice = total;
+    }
+
+    private int row(int index) {
+        if (index < 0 || index >= itemCount) {
+            throw new IndexOutOfBoundsException("Item " + index + " of " + itemCount);
+        }
+        return first + index;
+    }
+
+    /**
+     * Moves the items to this thread's chunk if they are in another
+     * thread's, as only a chunk's own thread writes its rows. True if they
+     * moved.
+     */
+    private boolean ownLines() {
+        if (LineItems.isCurrent(lines)) return false;
+        moveLines(itemCount);
+        return true;
+    }
+
+    /**
+     * Copies the items to the end of this thread's chunk, with room for
+     * rows rows in all.
+     */
+    private void moveLines(int rows) {
+        LineItems from = lines;
+        LineItems to = LineItems.forAppend(rows);
+        int start = to.size;
+        for (int i = 0; i < itemCount; i++) {
+            int row = first + i;
+            to.append(from.products[from.product[row]], from.quantity[row], from.unitPrice[row]);
+        }
+        lines = to;
+        first = start;
+    }
+}
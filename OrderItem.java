@@ -0,0 +1,16 @@
+/**
+ * A copy of one line of an order: a product, how many of it and the price
+ * it was ordered at, which later price changes do not affect. Changing it
+ * does not change the order; see Order.setQuantity and removeItem.
+ */
+public class OrderItem {
+    final Product product;
+    final int quantity;
+    final long unitPrice; // In cents
+    public OrderItem(Product product, int quantity, long unitPrice) {
+        this.product = product; this.quantity = quantity; this.unitPrice = unitPrice;
+    }
+    public long getTotalPrice() {
+        return Money.times(unitPrice, quantity);
+    }
+}
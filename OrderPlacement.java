@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Places orders from any number of threads without overselling.
+ *
+ * Available stock is tracked per product in an AtomicInteger, outside the
+ * (owner-thread confined) product store. Placing an order first reserves
+ * every line item with a compare-and-set on that product's counter, on the
+ * calling thread and without any shared lock, so orders for different
+ * products never contend. If any line cannot be reserved, the lines already
+ * reserved are released again and the order is rejected. Only orders whose
+ * stock is fully reserved are handed to the owner thread, which adds the
+ * order and decrements Product.stock.
+ *
+ * The counters follow the product store: products added, removed or edited
+ * by other code paths (the UI, imports, journal recovery) adjust them by
+ * the change in stock, so reservations that have not been committed yet
+ * are kept. An edit may take stock below what is reserved; the counter
+ * then goes negative, so nothing more is reserved, and orders whose
+ * reservations no longer fit in Product.stock are rejected when they come
+ * to be committed rather than oversold.
+ */
+public class OrderPlacement {
+
+    /**
+     * Thrown (as the cause of the failed future) when an order cannot be
+     * placed; nothing has been reserved in that case.
+     */
+    public static class RejectedException extends IllegalStateException {
+        public final long productId;  // The product that was short, or -1
+
+        RejectedException(String message, long productId) {
+            super(message);
+            this.productId = productId;
+        }
+    }
+
+    private final EntityStore<User> users;
+    private final EntityStore<Product> products;
+    private final EntityStore<Order> orders;
+    private final Executor owner;
+    private final ConcurrentHashMap<Long, AtomicInteger> available = new ConcurrentHashMap<>();
+    private final AtomicLong placed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private boolean committing; // Owner thread only: our own stock updates are already reserved
+
+    /**
+     * Must be created on the owner thread, or before the stores are shared.
+     *
+     * @param owner runs tasks on the thread that mutates the stores
+     */
+    public OrderPlacement(EntityStore<User> users, EntityStore<Product> products,
+                          EntityStore<Order> orders, Executor owner) {
+        this.users = users;
+        this.products = products;
+        this.orders = orders;
+        this.owner = owner;
+        for (Product p : products) {
+            available.put(p.id, new AtomicInteger(p.getStock()));
+        }
+        products.addListener(new EntityStore.Listener<Product>() {
+            private int previousStock;
+
+            @Override public void entityAdded(Product p) { available.put(p.id, new AtomicInteger(p.getStock())); }
+            @Override public void entityRemoved(Product p) { available.remove(p.id); }
+            @Override public void entityUpdating(Product p) { previousStock = p.getStock(); }
+            @Override public void entityUpdated(Product p) {
+                AtomicInteger counter = available.get(p.id);
+                if (!committing && counter != null) {
+                    counter.addAndGet(p.getStock() - previousStock);
+                }
+            }
+        });
+    }
+
+    /**
+     * Places an order for the user with the given quantity of each product.
+     * Safe to call from any thread. Stock is reserved before this returns;
+     * the future completes on the owner thread once the order is stored, or
+     * fails with a RejectedException.
+     *
+     * @throws IllegalArgumentException if a quantity is not positive
+     */
+    public CompletableFuture<Order> place(long userId, Map<Long, Integer> quantities) {
+        for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+            if (line.getValue() == null || line.getValue() <= 0) {
+                throw new IllegalArgumentException(
+                        "Quantity must be positive for product " + Ids.format(line.getKey()));
+            }
+        }
+        List<Map.Entry<Long, Integer>> lines = new ArrayList<>(quantities.entrySet());
+        for (int i = 0; i < lines.size(); i++) {
+            Map.Entry<Long, Integer> line = lines.get(i);
+            String shortage = reserve(line.getKey(), line.getValue());
+            if (shortage != null) {
+                release(lines, i);
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(new RejectedException(shortage, line.getKey()));
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> commit(userId, lines), owner);
+    }
+
+    public Order placeNow(long userId, Map<Long, Integer> quantities) {
+        return place(userId, quantities).join();
+    }
+
+    /**
+     * Stock that can still be reserved, i.e. Product.stock less reservations
+     * not yet committed; -1 for an unknown product.
+     */
+    public int getAvailable(long productId) {
+        AtomicInteger counter = available.get(productId);
+        return counter == null ? -1 : counter.get();
+    }
+
+    public long getPlacedCount() {
+        return placed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Takes quantity off the product's counter if that much is left.
+     * Returns null on success, otherwise why it failed.
+     */
+    private String reserve(long productId, int quantity) {
+        AtomicInteger counter = available.get(productId);
+        if (counter == null) {
+            return "Unknown product " + Ids.format(productId);
+        }
+        while (true) {
+            int left = counter.get();
+            if (left < quantity) {
+                return "Only " + Math.max(0, left) + " left of product " + Ids.format(productId);
+            }
+            if (counter.compareAndSet(left, left - quantity)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Gives back the first count lines' reservations.
+     */
+    private void release(List<Map.Entry<Long, Integer>> lines, int count) {
+        for (int i = 0; i < count; i++) {
+            AtomicInteger counter = available.get(lines.get(i).getKey());
+            if (counter != null) { // Otherwise the product was removed meanwhile
+                counter.addAndGet(lines.get(i).getValue());
+            }
+        }
+    }
+
+    private Order commit(long userId, List<Map.Entry<Long, Integer>> lines) {
+        User user = users.get(userId);
+        Map<Product, Integer> items = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> line : lines) {
+            Product product = products.get(line.getKey());
+            if (product == null) {
+                break;
+            }
+            if (product.getStock() < line.getValue()) { // Stock was edited below the reservations
+                release(lines, lines.size());
+                rejected.incrementAndGet();
+                throw new RejectedException("Only " + Math.max(0, product.getStock()) + " left of product "
+                        + Ids.format(product.id), product.id);
+            }
+            items.put(product, line.getValue());
+        }
+        if (user == null || items.size() < lines.size()) {
+            release(lines, lines.size());
+            rejected.incrementAndGet();
+            throw new RejectedException(user == null ? "Unknown user " + Ids.format(userId)
+                    : "Product removed while the order was being placed", -1);
+        }
+
+        // Every line first, so an order that cannot be built takes no stock
+        Order order = new Order(Ids.next(), user, new Date(), "Pending");
+        try {
+            for (Map.Entry<Product, Integer> item : items.entrySet()) {
+                order.addItem(item.getKey(), item.getValue());
+            }
+        } catch (ArithmeticException e) {
+            release(lines, lines.size());
+            rejected.incrementAndGet();
+            throw new RejectedException("Order total is too large", -1);
+        }
+        committing = true;
+        try {
+            for (Map.Entry<Product, Integer> item : items.entrySet()) {
+                products.update(item.getKey(), p -> p.setStock(p.getStock() - item.getValue()));
+            }
+        } finally {
+            committing = false;
+        }
+        orders.add(order);
+        placed.incrementAndGet();
+        return order;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * A catalog item with its current price and stock level.
+ *
+ * Like User's, the fields are held here until a store with mapped records
+ * takes the product in, and after that in a MappedRecords slot, so they
+ * are only read and written through the accessors.
+ */
+public class Product {
+    long id;
+    private String name;
+    private long price; // In cents, see Money
+    private int stock;
+    int lineSlot; // Where LineItems last put it in a product table, a hint only
+    private MappedRecords records; // Null while the fields are held here
+    private int slot;
+    public Product(long id, String name, long price, int stock) {
+        this.id = id; this.name = name; this.price = price; this.stock = stock;
+    }
+    public Product(Product other) {
+        this(other.id, other.getName(), other.getPrice(), other.getStock());
+    }
+
+    public String getName() {
+        return records == null ? name : records.getProductName(slot);
+    }
+    public void setName(String name) {
+        if (records == null) this.name = name; else records.setProductName(slot, name);
+    }
+    public long getPrice() {
+        return records == null ? price : records.getPrice(slot);
+    }
+    public void setPrice(long price) {
+        if (records == null) this.price = price; else records.setPrice(slot, price);
+    }
+    public int getStock() {
+        return records == null ? stock : records.getStock(slot);
+    }
+    public void setStock(int stock) {
+        if (records == null) this.stock = stock; else records.setStock(slot, stock);
+    }
+
+    /**
+     * Moves the fields into a new slot of records, unless they are in a
+     * mapped slot already. Owner thread only, before other threads see the
+     * product.
+     */
+    void moveTo(MappedRecords records) {
+        if (this.records != null) return;
+        slot = records.addProduct(id, name, price, stock);
+        this.records = records;
+        name = null;
+    }
+}
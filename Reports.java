@@ -0,0 +1,371 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Sales reports: revenue by product, user, status and day, the best
+ * sellers and the average order value.
+ *
+ * As with Exporter, the only work done on the owner thread is taking a
+ * snapshot of the order store, in O(1). The snapshot is then scanned by
+ * fork-join tasks, each of which aggregates a range of slots into its own
+ * partial totals, held in primitive hash tables so the scan does not
+ * allocate per order; partials are merged pairwise on the way back up.
+ * What each order contributes is copied out of it first (see Facts), so
+ * the report is of the orders as they were when it started, however they
+ * change meanwhile.
+ *
+ * Revenue counts the same orders as the dashboard's total sales (see
+ * SalesStats.isRealized); by status every order counts under its status.
+ * Days are in the default time zone.
+ */
+public class Reports {
+
+    /**
+     * One line of a report. count is units sold for products and orders
+     * for everything else.
+     */
+    public static final class Row {
+        public final long id; // Product or user ID, status index or epoch day
+        public final String label;
+        public final long revenue; // In cents
+        public final long count;
+
+        Row(long id, String label, long revenue, long count) {
+            this.id = id;
+            this.label = label;
+            this.revenue = revenue;
+            this.count = count;
+        }
+    }
+
+    public static final class Report {
+        public final List<Row> byProduct;  // Highest revenue first
+        public final List<Row> byUser;     // Highest revenue first
+        public final List<Row> byStatus;   // In Order.STATUSES order
+        public final List<Row> byDay;      // Oldest first
+        public final List<Row> topSellers; // Most units first
+        public final long orders;          // Orders counted towards revenue
+        public final long revenue;         // In cents
+        public final long millis;
+
+        Report(List<Row> byProduct, List<Row> byUser, List<Row> byStatus, List<Row> byDay,
+               List<Row> topSellers, long orders, long revenue, long millis) {
+            this.byProduct = byProduct;
+            this.byUser = byUser;
+            this.byStatus = byStatus;
+            this.byDay = byDay;
+            this.topSellers = topSellers;
+            this.orders = orders;
+            this.revenue = revenue;
+            this.millis = millis;
+        }
+
+        /**
+         * Average revenue per order, in cents, rounded to the nearest cent.
+         */
+        public long getAverageOrderValue() {
+            return orders == 0 ? 0 : Math.round((double) revenue / orders);
+        }
+    }
+
+    // Below this many orders a range is scanned rather than split
+    private static final int MIN_RANGE = 8192;
+
+    private static final Comparator<Row> BY_REVENUE =
+            Comparator.comparingLong((Row r) -> r.revenue).thenComparingLong(r -> -r.id);
+    private static final Comparator<Row> BY_UNITS =
+            Comparator.comparingLong((Row r) -> r.count).thenComparing(BY_REVENUE);
+
+    private final EntityStore<Order> orders;
+    private final Executor owner;
+
+    /**
+     * @param owner runs tasks on the thread that mutates the store
+     */
+    public Reports(EntityStore<Order> orders, Executor owner) {
+        this.orders = orders;
+        this.owner = owner;
+    }
+
+    /**
+     * Runs every report and blocks until done. byProduct, byUser and
+     * topSellers are cut to the top rows; the other reports are complete.
+     * Must not be called on the owner thread.
+     */
+    public Report run(int top) {
+        long begin = System.nanoTime();
+        Totals t;
+        try (EntityStore.Snapshot<Order> snapshot = CompletableFuture.supplyAsync(orders::snapshot, owner).join()) {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int slots = snapshot.getSlotCount();
+            // Enough ranges to keep every worker busy, few enough that merging stays cheap
+            int range = Math.max(MIN_RANGE, slots / (pool.getParallelism() * 4));
+            t = pool.invoke(new Scan(snapshot, 0, slots, range, TimeZone.getDefault()));
+        }
+
+        List<Row> byStatus = new ArrayList<>();
+        for (int s = 0; s <= Order.STATUSES.length; s++) {
+            if (s < Order.STATUSES.length || t.statusCount[s] > 0) {
+                String label = s < Order.STATUSES.length ? Order.STATUSES[s] : "Other";
+                byStatus.add(new Row(s, label, t.statusRevenue[s], t.statusCount[s]));
+            }
+        }
+        List<Row> byDay = new ArrayList<>(t.days.size);
+        for (int i = 0; i < t.days.capacity(); i++) {
+            if (t.days.used(i)) {
+                long day = t.days.key(i);
+                byDay.add(new Row(day, LocalDate.ofEpochDay(day).toString(), t.days.revenue(i), t.days.count(i)));
+            }
+        }
+        byDay.sort(Comparator.comparingLong(r -> r.id));
+
+        return new Report(top(t.products, top, false), top(t.users, top, false),
+                byStatus, byDay, top(t.products, top, true), t.orders, t.revenue,
+                (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    /**
+     * The n greatest rows of the table, greatest first. A row object is only
+     * made for entries that get into the running top n.
+     */
+    private static List<Row> top(Sums sums, int n, boolean byUnits) {
+        Comparator<Row> order = byUnits ? BY_UNITS : BY_REVENUE;
+        PriorityQueue<Row> heap = new PriorityQueue<>(order);
+        for (int i = 0; i < sums.capacity() && n > 0; i++) {
+            if (!sums.used(i)) continue;
+            if (heap.size() == n) {
+                if (!greater(sums, i, heap.peek(), byUnits)) continue;
+                heap.poll();
+            }
+            heap.add(new Row(sums.key(i), sums.label(i), sums.revenue(i), sums.count(i)));
+        }
+        List<Row> rows = new ArrayList<>(heap);
+        rows.sort(Collections.reverseOrder(order));
+        return rows;
+    }
+
+    /**
+     * Whether entry i of the table sorts above the row, as BY_UNITS or
+     * BY_REVENUE would have it.
+     */
+    private static boolean greater(Sums sums, int i, Row row, boolean byUnits) {
+        if (byUnits && sums.count(i) != row.count) return sums.count(i) > row.count;
+        if (sums.revenue(i) != row.revenue) return sums.revenue(i) > row.revenue;
+        return sums.key(i) < row.id;
+    }
+
+    /**
+     * Aggregates a range of the snapshot's slots, splitting it in two while
+     * it is longer than the range size.
+     */
+    private static final class Scan extends RecursiveTask<Totals> {
+        private final EntityStore.Snapshot<Order> orders;
+        private final int from, to, range;
+        private final TimeZone zone;
+
+        Scan(EntityStore.Snapshot<Order> orders, int from, int to, int range, TimeZone zone) {
+            this.orders = orders;
+            this.from = from;
+            this.to = to;
+            this.range = range;
+            this.zone = zone;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > range) {
+                int mid = (from + to) >>> 1;
+                Scan left = new Scan(orders, from, mid, range, zone);
+                left.fork();
+                Totals right = new Scan(orders, mid, to, range, zone).compute();
+                return left.join().merge(right);
+            }
+            Totals t = new Totals();
+            Facts facts = new Facts();
+            for (int i = from; i < to; i++) {
+                Facts f = orders.read(i, facts::copy);
+                if (f != null) t.add(f, zone);
+            }
+            return t;
+        }
+    }
+
+    /**
+     * What the totals need of one order, copied out of it so that the
+     * snapshot can check the read and redo it (see EntityStore.Snapshot).
+     * One is reused for every order of a scan.
+     */
+    private static final class Facts {
+        int status;
+        boolean realized;
+        long total;
+        long date;
+        User user;
+        int items;
+        Product[] products = new Product[8];
+        int[] quantities = new int[8];
+        long[] lineTotals = new long[8];
+
+        Facts copy(Order o) {
+            status = Order.statusIndex(o.status);
+            realized = SalesStats.isRealized(o);
+            total = o.totalPrice;
+            date = o.orderDate.getTime();
+            user = o.user;
+            items = o.getItemCount();
+            if (items > products.length) {
+                products = new Product[items];
+                quantities = new int[items];
+                lineTotals = new long[items];
+            }
+            for (int i = 0; i < items; i++) {
+                products[i] = o.getProduct(i);
+                quantities[i] = o.getQuantity(i);
+                lineTotals[i] = o.getLineTotal(i);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Partial aggregates for one range of orders.
+     */
+    private static final class Totals {
+        // Indexed like Order.STATUSES, plus one for anything else
+        final long[] statusRevenue = new long[Order.STATUSES.length + 1];
+        final long[] statusCount = new long[Order.STATUSES.length + 1];
+        final Sums products = new Sums();
+        final Sums users = new Sums();
+        final Sums days = new Sums();
+        long orders;
+        long revenue;
+
+        // The day last looked up, so runs of orders on one day skip the zone rules
+        private long dayStart = 1, dayEnd;
+        private long lastDay;
+
+        void add(Facts o, TimeZone zone) {
+            long total = o.total;
+            int s = o.status;
+            statusRevenue[s] += total;
+            statusCount[s]++;
+            if (!o.realized) return;
+
+            orders++;
+            revenue += total;
+            User user = o.user;
+            users.add(user.id, user, total, 1);
+            days.add(day(o.date, zone), null, total, 1);
+            for (int i = 0; i < o.items; i++) {
+                Product p = o.products[i];
+                products.add(p.id, p, o.lineTotals[i], o.quantities[i]);
+            }
+        }
+
+        private long day(long millis, TimeZone zone) {
+            if (millis >= dayStart && millis < dayEnd) return lastDay;
+            long local = millis + zone.getOffset(millis);
+            lastDay = Math.floorDiv(local, 86_400_000L);
+            dayStart = millis - Math.floorMod(local, 86_400_000L);
+            dayEnd = dayStart + 86_400_000L;
+            if (zone.getOffset(dayStart) != zone.getOffset(dayEnd - 1)) { // Offset changes that day, do not cache
+                dayStart = 1;
+                dayEnd = 0;
+            }
+            return lastDay;
+        }
+
+        Totals merge(Totals other) {
+            for (int s = 0; s < statusRevenue.length; s++) {
+                statusRevenue[s] += other.statusRevenue[s];
+                statusCount[s] += other.statusCount[s];
+            }
+            products.addAll(other.products);
+            users.addAll(other.users);
+            days.addAll(other.days);
+            orders += other.orders;
+            revenue += other.revenue;
+            return this;
+        }
+    }
+
+    /**
+     * Open-addressing hash table from a long key to a revenue and a count,
+     * with linear probing, so adding to an entry does not box or allocate.
+     * A bucket's key, revenue and count sit next to each other in one
+     * array, so an add touches one cache line. what holds the product or
+     * user a key stands for, for its label.
+     */
+    private static final class Sums {
+        private static final long EMPTY = Long.MIN_VALUE; // Never an ID or a day
+
+        private long[] table = newTable(64); // key, revenue, count per bucket
+        private Object[] what = new Object[64];
+        int size;
+
+        private static long[] newTable(int buckets) {
+            long[] table = new long[buckets * 3];
+            for (int i = 0; i < table.length; i += 3) table[i] = EMPTY;
+            return table;
+        }
+
+        int capacity() { return what.length; }
+        boolean used(int i) { return table[i * 3] != EMPTY; }
+        long key(int i) { return table[i * 3]; }
+        long revenue(int i) { return table[i * 3 + 1]; }
+        long count(int i) { return table[i * 3 + 2]; }
+
+        void add(long key, Object of, long addRevenue, long addCount) {
+            long[] t = table;
+            int mask = what.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int i = (int) (h ^ h >>> 32) & mask;
+            for (; t[i * 3] != EMPTY; i = (i + 1) & mask) {
+                if (t[i * 3] == key) {
+                    t[i * 3 + 1] += addRevenue;
+                    t[i * 3 + 2] += addCount;
+                    return;
+                }
+            }
+            t[i * 3] = key;
+            t[i * 3 + 1] = addRevenue;
+            t[i * 3 + 2] = addCount;
+            what[i] = of;
+            if (++size * 2 > what.length) grow(); // Load factor at most 1/2
+        }
+
+        void addAll(Sums other) {
+            for (int i = 0; i < other.capacity(); i++) {
+                if (other.used(i)) add(other.key(i), other.what[i], other.revenue(i), other.count(i));
+            }
+        }
+
+        String label(int i) {
+            Object of = what[i];
+            if (of instanceof Product) return ((Product) of).getName();
+            if (of instanceof User) return ((User) of).getUsername();
+            return Ids.format(key(i));
+        }
+
+        private void grow() {
+            long[] oldTable = table;
+            Object[] oldWhat = what;
+            table = newTable(oldWhat.length * 2);
+            what = new Object[oldWhat.length * 2];
+            size = 0;
+            for (int i = 0; i < oldWhat.length; i++) {
+                long key = oldTable[i * 3];
+                if (key != EMPTY) add(key, oldWhat[i], oldTable[i * 3 + 1], oldTable[i * 3 + 2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running sales totals, kept up to date from the order store's change
+ * notifications so the dashboard never has to scan the orders.
+ * Per-status order counts come from the store's status index.
+ *
+ * Item changes to an order that is already stored must go through
+ * EntityStore.update, otherwise the totals cannot see them.
+ */
+public class SalesStats implements EntityStore.Listener<Order> {
+    private long realizedSales;  // Total of all non-pending orders, in cents
+    private long updatingContribution;
+
+    public SalesStats(EntityStore<Order> orders) {
+        for (Order o : orders) {
+            realizedSales += contribution(o);
+        }
+        orders.addListener(this);
+    }
+
+    /**
+     * Whether the order counts towards sales: every order that is not
+     * pending. Reports uses the same rule.
+     */
+    static boolean isRealized(Order o) {
+        return !"Pending".equals(o.status);
+    }
+
+    private static long contribution(Order o) {
+        return isRealized(o) ? o.totalPrice : 0;
+    }
+
+    public long getRealizedSales() {
+        return realizedSales;
+    }
+
+    @Override public void entityAdded(Order o) { realizedSales += contribution(o); }
+    @Override public void entityRemoved(Order o) { realizedSales -= contribution(o); }
+    @Override public void entityUpdating(Order o) { updatingContribution = contribution(o); }
+    @Override public void entityUpdated(Order o) { realizedSales += contribution(o) - updatingContribution; }
+
+    /**
+     * Recomputes the totals from scratch and reports any drift between
+     * them and the running values on stderr.
+     */
+    public boolean verify(EntityStore<Order> orders, EntityStore.Index<String, Order> byStatus) {
+        long sales = 0;
+        Map<String, Integer> counts = new HashMap<>();
+        for (Order o : orders) {
+            sales += contribution(o);
+            counts.merge(o.status, 1, Integer::sum);
+        }
+        boolean ok = sales == realizedSales; // Cents add up exactly, so any difference is a bug
+        if (!ok) {
+            System.err.printf("SalesStats: realized sales %s, recomputed %s%n",
+                    Money.format(realizedSales), Money.format(sales));
+        }
+        for (String status : byStatus.keys()) {
+            counts.putIfAbsent(status, 0);
+        }
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            int indexed = byStatus.count(e.getKey());
+            if (indexed != e.getValue()) {
+                System.err.printf("SalesStats: %s orders %d, recomputed %d%n", e.getKey(), indexed, e.getValue());
+                ok = false;
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Orders and revenue per minute over the last few minutes, for the
+ * dashboard's live charts. Orders are counted in the minute of their order
+ * date, so orders recovered from the journal or imported land where they
+ * belong and older ones are ignored; revenue is the orders' totals,
+ * whatever their status.
+ *
+ * Like SalesStats it is kept up to date from the order store's change
+ * notifications and lives on the owner thread. The minutes are a ring of
+ * primitive counters, so an order costs O(1) and nothing is allocated.
+ */
+public class SalesTimeline implements EntityStore.Listener<Order> {
+    private static final long MINUTE = 60_000;
+
+    private final long[] orders;
+    private final long[] revenue; // In cents
+    private long newest; // Minute of the newest bucket, in minutes since the epoch
+    private long updatingMinute;
+    private long updatingTotal;
+
+    public SalesTimeline(EntityStore<Order> store, int minutes) {
+        orders = new long[minutes];
+        revenue = new long[minutes];
+        newest = System.currentTimeMillis() / MINUTE;
+        for (Order o : store) {
+            entityAdded(o);
+        }
+        store.addListener(this);
+    }
+
+    public int getMinutes() {
+        return orders.length;
+    }
+
+    /**
+     * Copies the counts up to the current minute into the arrays, oldest
+     * first. Both must have getMinutes() elements.
+     */
+    public void copyTo(long[] ordersOut, long[] revenueOut) {
+        advance(System.currentTimeMillis() / MINUTE);
+        int n = orders.length;
+        for (int i = 0; i < n; i++) {
+            int bucket = (int) Math.floorMod(newest - n + 1 + i, (long) n);
+            ordersOut[i] = orders[bucket];
+            revenueOut[i] = revenue[bucket];
+        }
+    }
+
+    @Override public void entityAdded(Order o) { add(minuteOf(o), 1, o.totalPrice); }
+    @Override public void entityRemoved(Order o) { add(minuteOf(o), -1, -o.totalPrice); }
+    @Override public void entityUpdating(Order o) { updatingMinute = minuteOf(o); updatingTotal = o.totalPrice; }
+    @Override public void entityUpdated(Order o) {
+        long minute = minuteOf(o);
+        if (minute == updatingMinute && o.totalPrice == updatingTotal) return;
+        add(updatingMinute, -1, -updatingTotal);
+        add(minute, 1, o.totalPrice);
+    }
+
+    private static long minuteOf(Order o) {
+        return Math.floorDiv(o.orderDate.getTime(), MINUTE);
+    }
+
+    private void add(long minute, long count, long cents) {
+        advance(minute);
+        if (minute <= newest - orders.length) return; // Too old to show
+        int bucket = (int) Math.floorMod(minute, (long) orders.length);
+        orders[bucket] += count;
+        revenue[bucket] += cents;
+    }
+
+    /**
+     * Moves the newest bucket forward to the minute, clearing the buckets
+     * that fall out of the window.
+     */
+    private void advance(long minute) {
+        if (minute <= newest) return;
+        long cleared = Math.min(minute - newest, orders.length);
+        for (long m = minute - cleared + 1; m <= minute; m++) {
+            int bucket = (int) Math.floorMod(m, (long) orders.length);
+            orders[bucket] = 0;
+            revenue[bucket] = 0;
+        }
+        newest = minute;
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A word-prefix search index over the text of a store's entities, such as
+ * product names or usernames and emails.
+ *
+ * Text is split into lower-case words of letters and digits. A hash map
+ * takes each word to the entities containing it, and a sorted dictionary
+ * of the words finds those starting with a prefix as one contiguous range,
+ * as a prefix trie would. Only a word's first occurrence pays for the
+ * sorted insert. A query matches an entity if every query word is a prefix
+ * of one of the entity's words: "lap pro" finds "Laptop Pro".
+ *
+ * The index is kept up to date from the store's change notifications, on
+ * the owner thread. Removals and edits are lazy: an entity stays in the
+ * lists of words it no longer has, and search checks each candidate's
+ * current text. A list is compacted once over half of it is stale, so
+ * this costs O(1) amortized per change.
+ *
+ * search may run on any thread while the owner keeps changing the store:
+ * the map and dictionary are concurrent and the lists are only ever
+ * appended to in place, with compaction publishing a new list.
+ */
+public class SearchIndex<T> implements EntityStore.Listener<T> {
+
+    private final EntityStore<T> store;
+    private final ToLongFunction<T> idOf;
+    private final Function<T, String> textOf;
+    // Word to the one entity containing it, or to a Postings of several
+    private final ConcurrentHashMap<String, Object> entitiesByWord = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> dictionary = new ConcurrentSkipListSet<>();
+    private String updatingText; // Owner thread only
+
+    public SearchIndex(EntityStore<T> store, ToLongFunction<T> idOf, Function<T, String> textOf) {
+        this.store = store;
+        this.idOf = idOf;
+        this.textOf = textOf;
+        for (T entity : store) {
+            entityAdded(entity);
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void entityAdded(T entity) {
+        for (String word : words(textOf.apply(entity))) {
+            insert(word, entity);
+        }
+    }
+
+    @Override
+    public void entityRemoved(T entity) {
+        for (String word : words(textOf.apply(entity))) {
+            markStale(word, entity);
+        }
+    }
+
+    @Override
+    public void entityUpdating(T entity) {
+        updatingText = textOf.apply(entity);
+    }
+
+    @Override
+    public void entityUpdated(T entity) {
+        String text = textOf.apply(entity);
+        if (text.equals(updatingText)) return;
+        String[] before = words(updatingText);
+        String[] after = words(text);
+        for (String word : after) {
+            if (Arrays.binarySearch(before, word) < 0) insert(word, entity);
+        }
+        for (String word : before) {
+            if (Arrays.binarySearch(after, word) < 0) markStale(word, entity);
+        }
+    }
+
+    /**
+     * Returns up to limit entities matching the query, in no particular
+     * order, or null if the query has no words. Safe to call from any
+     * thread; the result may include entities removed or changed since,
+     * or an entity twice, so the owner thread should check it against the
+     * store before use.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> search(String query, int limit) {
+        String[] prefixes = words(query);
+        if (prefixes.length == 0) return null;
+
+        // Drive the search from the prefix with the fewest candidates
+        String driver = prefixes[0];
+        long fewest = Long.MAX_VALUE;
+        for (String prefix : prefixes) {
+            long candidates = countUpTo(prefix, Math.min(fewest, (long) limit * 64));
+            if (candidates < fewest || (candidates == fewest && prefix.length() > driver.length())) {
+                fewest = candidates;
+                driver = prefix;
+            }
+        }
+
+        List<T> results = new ArrayList<>();
+        for (String word : range(driver)) {
+            Object value = entitiesByWord.get(word);
+            if (value == null) continue; // Removed since, or not yet added
+            if (value instanceof Postings) {
+                Postings postings = (Postings) value;
+                int n = postings.size;
+                Object[] entities = postings.entities;
+                for (int i = 0; i < n && results.size() < limit; i++) {
+                    T entity = (T) entities[i];
+                    if (matches(entity, word, driver, prefixes)) results.add(entity);
+                }
+            } else if (matches((T) value, word, driver, prefixes)) {
+                results.add((T) value);
+            }
+            if (results.size() >= limit) break;
+        }
+        return results;
+    }
+
+    /**
+     * Whether the entity's text still has the word it was found under and a
+     * word for every prefix. To report an entity once however many of its
+     * words start with the driving prefix, only the first of them counts.
+     */
+    private boolean matches(T entity, String word, String driver, String[] prefixes) {
+        String[] have = words(textOf.apply(entity));
+        int at = Arrays.binarySearch(have, word);
+        if (at < 0 || (at > 0 && have[at - 1].startsWith(driver))) return false;
+        for (String prefix : prefixes) {
+            if (prefix != driver && !hasPrefix(have, prefix)) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasPrefix(String[] sortedWords, String prefix) {
+        int at = Arrays.binarySearch(sortedWords, prefix);
+        if (at >= 0) return true;
+        int next = -at - 1;
+        return next < sortedWords.length && sortedWords[next].startsWith(prefix);
+    }
+
+    /**
+     * Entries for the words starting with the prefix, counting stale ones,
+     * or cap + 1 if there are more than cap.
+     */
+    private long countUpTo(String prefix, long cap) {
+        long count = 0;
+        for (String word : range(prefix)) {
+            Object value = entitiesByWord.get(word);
+            count += value instanceof Postings ? ((Postings) value).size : 1;
+            if (count > cap) return cap + 1;
+        }
+        return count;
+    }
+
+    private NavigableSet<String> range(String prefix) {
+        return dictionary.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void insert(String word, T entity) {
+        Object value = entitiesByWord.get(word);
+        if (value == null) {
+            entitiesByWord.put(word, entity);
+            dictionary.add(word);
+        } else if (value instanceof Postings) {
+            ((Postings) value).add(entity);
+        } else {
+            Postings postings = new Postings(value);
+            postings.add(entity);
+            entitiesByWord.put(word, postings);
+        }
+    }
+
+    private void remove(String word) {
+        dictionary.remove(word);
+        entitiesByWord.remove(word);
+    }
+
+    /**
+     * Notes that the entity no longer has the word, compacting the word's
+     * list once most of it is stale.
+     */
+    @SuppressWarnings("unchecked")
+    private void markStale(String word, T entity) {
+        Object value = entitiesByWord.get(word);
+        if (value == entity) {
+            remove(word);
+            return;
+        }
+        if (!(value instanceof Postings)) return;
+        Postings postings = (Postings) value;
+        postings.stale++;
+        if (postings.stale * 2 <= postings.size) return;
+
+        Postings kept = null;
+        Object single = null;
+        for (int i = 0; i < postings.size; i++) {
+            T e = (T) postings.entities[i];
+            // By ID, as indexOf may compact the whole store
+            if (store.get(idOf.applyAsLong(e)) != e || Arrays.binarySearch(words(textOf.apply(e)), word) < 0) continue;
+            if (single == null) {
+                single = e;
+            } else {
+                if (kept == null) kept = new Postings(single);
+                kept.add(e);
+            }
+        }
+        if (single == null) {
+            remove(word);
+        } else {
+            entitiesByWord.put(word, kept != null ? kept : single);
+        }
+    }
+
+    /**
+     * The distinct lower-case words of letters and digits in the text,
+     * sorted.
+     */
+    static String[] words(String text) {
+        List<String> found = new ArrayList<>(4);
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) found.add(text.substring(start, i).toLowerCase());
+        }
+        String[] sorted = found.toArray(new String[0]);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (distinct == 0 || !sorted[i].equals(sorted[distinct - 1])) sorted[distinct++] = sorted[i];
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * The entities containing one word, appended to in place by the owner
+     * thread. A reader takes size before entities, so every entry it then
+     * reads has been written.
+     */
+    private static final class Postings {
+        Object[] entities;
+        volatile int size;
+        int stale; // Owner thread only
+
+        Postings(Object first) {
+            entities = new Object[4];
+            entities[0] = first;
+            size = 1;
+        }
+
+        void add(Object entity) {
+            int n = size;
+            if (n == entities.length) {
+                entities = Arrays.copyOf(entities, n * 2);
+            }
+            entities[n] = entity;
+            size = n + 1;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The data layer: the in-memory stores and their indexes, the running sales
+ * totals and per-minute timeline, the search and sorted indexes, the change
+ * event bus and the journal. It has no UI dependency, so the Swing app and
+ * the headless server both run on top of it.
+ *
+ * Like the stores, a Shop is confined to a single owner thread. Mutations
+ * must happen there; the owner executor passed in is how background work
+ * (journal checkpoints, imports) gets back onto it.
+ *
+ * With -Decommerce.mappedRecords=true, open keeps user and product fields
+ * in memory-mapped files under the data directory instead of on the heap
+ * (see mapRecords).
+ */
+public class Shop {
+
+    // --- "Database" - In-memory stores, indexed by ID ---
+    public final EntityStore<User> users = new EntityStore<>(u -> u.id, User::new);
+    public final EntityStore<Product> products = new EntityStore<>(p -> p.id, Product::new);
+    public final EntityStore<Order> orders = new EntityStore<>(o -> o.id, Order::new);
+    public final EntityStore.Index<Long, Order> ordersByUser = orders.addIndex(o -> o.user.id);
+    public final EntityStore.Index<String, Order> ordersByStatus = orders.addIndex(o -> o.status);
+    public final SalesStats salesStats = new SalesStats(orders);
+    public final SalesTimeline salesTimeline = new SalesTimeline(orders, 60);
+    public final SearchIndex<User> userSearch = new SearchIndex<>(users, u -> u.id, u -> u.getUsername() + " " + u.getEmail());
+    public final SearchIndex<Product> productSearch = new SearchIndex<>(products, p -> p.id, Product::getName);
+    public final SearchIndex<Order> orderSearch = new SearchIndex<>(orders, o -> o.id, Shop::orderText);
+
+    // --- Sorted views and range filters for the typed table columns ---
+    public final SortedIndex<Product> productsByPrice = new SortedIndex<>(products, p -> p.id, Product::getPrice);
+    public final SortedIndex<Product> productsByStock = new SortedIndex<>(products, p -> p.id, Product::getStock);
+    public final SortedIndex<Order> ordersByTotal = new SortedIndex<>(orders, o -> o.id, o -> o.totalPrice);
+    public final SortedIndex<Order> ordersByDate = new SortedIndex<>(orders, o -> o.id, o -> o.orderDate.getTime());
+    public final SortedIndex<Order> ordersByStatusRank = new SortedIndex<>(orders, o -> o.id, o -> Order.statusIndex(o.status));
+
+    // --- Change events, published from every store mutation ---
+    public final EventBus events = new EventBus(1 << 16);
+
+    // --- Concurrent order placement with stock reservation ---
+    public final OrderPlacement placement;
+
+    private static final boolean MAPPED_RECORDS = Boolean.getBoolean("ecommerce.mappedRecords");
+
+    private final Executor owner;
+    private Journal journal; // Null until opened, or if it could not be
+    private volatile IOException journalFailure; // Why the journal stopped writing, if it did
+    private volatile Consumer<IOException> journalFailureListener = e -> { };
+    private MappedRecords records; // Null unless mapRecords was called
+
+    public Shop(Executor owner) {
+        this.owner = owner;
+        placement = new OrderPlacement(users, products, orders, owner);
+    }
+
+    public Executor getOwner() {
+        return owner;
+    }
+
+    /**
+     * Recovers the stores from the journal in dataDir, starts journaling
+     * every further change and hooks the stores up to the event bus.
+     * Events are published even if the journal fails, in which case the
+     * shop runs in memory only and the exception is rethrown.
+     *
+     * May run on a loader thread before the owner first touches the shop,
+     * provided the loader then hands the shop over through the owner
+     * executor, as the app does to show its window while loading.
+     */
+    public void open(Path dataDir) throws IOException {
+        if (MAPPED_RECORDS && records == null) {
+            mapRecords(dataDir.resolve("records"));
+        }
+        Journal opened = new Journal(dataDir, users, products, orders);
+        opened.setFailureListener(e -> {
+            journalFailure = e;
+            journalFailureListener.accept(e);
+        });
+        try {
+            opened.recover();
+            observeIds();
+            opened.start(owner);
+            journal = opened;
+        } finally {
+            publishStoreChanges();
+        }
+    }
+
+    /**
+     * Moves the fields of the users and products in the stores, and of
+     * every one added from now on, into memory-mapped files in dir, so the
+     * heap holds only a small view object per record (see MappedRecords).
+     * The files are rebuilt from the stores each time. Owner thread only.
+     */
+    public void mapRecords(Path dir) throws IOException {
+        if (records != null) {
+            throw new IllegalStateException("Records are already mapped");
+        }
+        MappedRecords opened = MappedRecords.open(dir);
+        users.forEach(u -> u.moveTo(opened));
+        products.forEach(p -> p.moveTo(opened));
+        users.addListener(new EntityStore.Listener<User>() {
+            @Override public void entityAdded(User u) { u.moveTo(opened); }
+        });
+        products.addListener(new EntityStore.Listener<Product>() {
+            @Override public void entityAdded(Product p) { p.moveTo(opened); }
+        });
+        records = opened;
+    }
+
+    /**
+     * Makes sure Ids never hands out an ID that is already stored.
+     */
+    private void observeIds() {
+        users.forEach(u -> Ids.observe(u.id));
+        products.forEach(p -> Ids.observe(p.id));
+        orders.forEach(o -> Ids.observe(o.id));
+    }
+
+    /**
+     * Number of journal records replayed by open, for startup reporting.
+     */
+    public long getRecoveredRecords() {
+        return journal == null ? 0 : journal.getRecoveredRecords();
+    }
+
+    public long getRecoveryMillis() {
+        return journal == null ? 0 : journal.getRecoveryMillis();
+    }
+
+    /**
+     * Why the journal stopped writing, or null if it has not. After a
+     * failure changes are still made in memory but no longer saved.
+     */
+    public IOException getJournalFailure() {
+        return journalFailure;
+    }
+
+    /**
+     * Sets what to call when the journal fails. It is called on the
+     * journal's writer thread, so a UI must hand it over to its own.
+     */
+    public void setJournalFailureListener(Consumer<IOException> listener) {
+        journalFailureListener = listener;
+    }
+
+    public boolean isEmpty() {
+        return users.isEmpty() && products.isEmpty() && orders.isEmpty();
+    }
+
+    /**
+     * Flushes and closes the journal, and releases the mapped records'
+     * files. Safe to call more than once.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            if (journal != null) {
+                Journal closing = journal;
+                journal = null;
+                closing.close();
+            }
+        } finally {
+            if (records != null) {
+                MappedRecords closing = records;
+                records = null;
+                closing.close();
+            }
+        }
+    }
+
+    /**
+     * Publishes the stores' row counts, the event bus's published count,
+     * whether the journal has failed (journal.failed, 1 if so) and the
+     * mapped records' file use as Metrics gauges, replacing those of any
+     * shop registered before.
+     */
+    public void registerMetrics() {
+        Metrics.gauge("rows.users", users::size);
+        Metrics.gauge("rows.products", products::size);
+        Metrics.gauge("rows.orders", orders::size);
+        Metrics.gauge("events.published", events::getPublishedCount);
+        Metrics.gauge("journal.failed", () -> journalFailure == null ? 0 : 1);
+        MappedRecords mapped = records;
+        if (mapped != null) {
+            Metrics.gauge("records.mappedBytes", mapped::getUsedBytes);
+            Metrics.gauge("records.arenaBytes", mapped::getArenaBytes);
+        }
+    }
+
+    /**
+     * Hooks the stores up to the event bus so that every add, edit and
+     * removal is published, whichever code path made it.
+     */
+    private void publishStoreChanges() {
+        users.addListener(events.publisherFor(
+                EventBus.Kind.USER_ADDED, EventBus.Kind.USER_UPDATED, EventBus.Kind.USER_REMOVED, u -> u.id));
+        products.addListener(events.publisherFor(
+                EventBus.Kind.PRODUCT_ADDED, EventBus.Kind.PRODUCT_UPDATED, EventBus.Kind.PRODUCT_REMOVED, p -> p.id));
+        orders.addListener(new EntityStore.Listener<Order>() {
+            private String previousStatus;
+
+            @Override public void entityAdded(Order o) { events.publish(EventBus.Kind.ORDER_ADDED, o.id, o); }
+            @Override public void entityRemoved(Order o) { events.publish(EventBus.Kind.ORDER_REMOVED, o.id, o); }
+            @Override public void entityUpdating(Order o) { previousStatus = o.status; }
+            @Override public void entityUpdated(Order o) {
+                events.publish(o.status.equals(previousStatus)
+                        ? EventBus.Kind.ORDER_UPDATED : EventBus.Kind.ORDER_STATUS_CHANGED, o.id, o);
+            }
+        });
+    }
+
+    /**
+     * What an order is found by: its ID, its user's username and its
+     * products' names. Renaming a user or product does not touch their
+     * orders, so those are found by the new name once next changed.
+     */
+    private static String orderText(Order o) {
+        StringBuilder text = new StringBuilder(64).append(Ids.format(o.id)).append(' ').append(o.user.getUsername());
+        for (int i = 0, n = o.getItemCount(); i < n; i++) {
+            text.append(' ').append(o.getProduct(i).getName());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Populates the stores with sample data.
+     */
+    public void addSampleData() {
+        // Add Users
+        User u1 = new User(Ids.next(), "anoop_v", "anoop.v@example.com");
+        User u2 = new User(Ids.next(), "jane_doe", "jane.d@web.com");
+        User u3 = new User(Ids.next(), "alex_smith", "asmith@mail.net");
+        users.addAll(List.of(u1, u2, u3));
+
+        // Add Products (prices in cents)
+        Product p1 = new Product(Ids.next(), "Laptop Pro", 129_999, 50);
+        Product p2 = new Product(Ids.next(), "Wireless Mouse", 4_999, 150);
+        Product p3 = new Product(Ids.next(), "4K Monitor", 39_900, 75);
+        Product p4 = new Product(Ids.next(), "Mechanical Keyboard", 11_950, 120);
+        products.addAll(List.of(p1, p2, p3, p4));
+
+        // Add Orders
+        Order o1 = new Order(Ids.next(), u1, new Date(), "Shipped");
+        o1.addItem(p1, 1);
+        o1.addItem(p2, 1);
+        orders.add(o1);
+
+        Order o2 = new Order(Ids.next(), u2, new Date(), "Pending");
+        o2.addItem(p3, 2);
+        o2.addItem(p4, 1);
+        orders.add(o2);
+    }
+}
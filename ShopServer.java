@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the shop without Swing: recovers the stores from the journal, keeps
+ * the journal and event bus running, serves the HTTP API and optionally
+ * runs batch imports and exports. Nothing here touches AWT, so it runs on
+ * headless machines.
+ *
+ * Usage:
+ *   java ShopServer [--data-dir DIR] [--port PORT] [--generate USERS,PRODUCTS,ORDERS[,SEED]]
+ *                   [--import KIND FILE]... [--export KIND FILE]...
+ *   java Launcher --headless [same options]
+ *
+ * With only batch commands the server exits when they are done; otherwise
+ * it serves HttpApi on PORT (default 8080) until it is stopped (SIGTERM or
+ * Ctrl-C), flushing the journal on the way out. Import kinds are users,
+ * products and orders; export kinds also include order_items. --generate
+ * fills an empty shop with DataGenerator's synthetic data before the
+ * commands run.
+ */
+public class ShopServer {
+
+    private final Shop shop;
+    private final ExecutorService ownerThread;
+
+    public ShopServer() {
+        ownerThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "shop-owner");
+            t.setDaemon(true);
+            return t;
+        });
+        shop = new Shop(ownerThread);
+    }
+
+    public Shop getShop() {
+        return shop;
+    }
+
+    /**
+     * Opens the shop from dataDir on the owner thread, adding sample data on
+     * first run.
+     */
+    public void open(Path dataDir) throws IOException {
+        open(dataDir, true);
+    }
+
+    /**
+     * As open(dataDir), but leaves a new shop empty unless sampleData is
+     * set, for callers that fill it some other way.
+     */
+    public void open(Path dataDir, boolean sampleData) throws IOException {
+        try {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    shop.open(dataDir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (sampleData && shop.isEmpty()) {
+                    shop.addSampleData();
+                }
+            }, ownerThread).join();
+        } catch (java.util.concurrent.CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    public Importer.Result importFile(Importer.Kind kind, Path file) throws IOException {
+        Importer importer = new Importer(shop.users, shop.products, shop.orders, ownerThread);
+        return importer.run(file, kind, (read, total, imported, rejected) -> { });
+    }
+
+    public DataGenerator.Result generate(DataGenerator.Config config) throws IOException {
+        return new DataGenerator(config).populate(shop.users, shop.products, shop.orders, ownerThread);
+    }
+
+    public Exporter.Result exportFile(Exporter.Kind kind, Path file) throws IOException {
+        return new Exporter(shop.users, shop.products, shop.orders, ownerThread).run(file, kind);
+    }
+
+    /**
+     * Flushes and closes the journal, then stops the owner thread.
+     */
+    public void close() throws IOException {
+        try {
+            shop.close();
+        } finally {
+            ownerThread.shutdown();
+        }
+    }
+
+    public static void main(String[] args) {
+        long begin = System.nanoTime();
+        Path dataDir = Paths.get(System.getProperty("ecommerce.dataDir", "data"));
+        int port = 8080;
+        DataGenerator.Config generate = null;
+        List<String[]> commands = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless":
+                    break;
+                case "--data-dir":
+                    dataDir = Paths.get(argument(args, ++i));
+                    break;
+                case "--port":
+                    try {
+                        port = Integer.parseInt(argument(args, ++i));
+                    } catch (NumberFormatException e) {
+                        usage("--port needs a number");
+                    }
+                    break;
+                case "--generate":
+                    try {
+                        generate = DataGenerator.Config.parse(argument(args, ++i));
+                    } catch (IllegalArgumentException e) {
+                        usage("--generate needs USERS,PRODUCTS,ORDERS[,SEED]: " + e.getMessage());
+                    }
+                    break;
+                case "--import":
+                case "--export":
+                    commands.add(new String[]{args[i], argument(args, i + 1), argument(args, i + 2)});
+                    i += 2;
+                    break;
+                default:
+                    usage("Unknown option '" + args[i] + "'");
+            }
+        }
+
+        ShopServer server = new ShopServer();
+        Path journalDir = dataDir;
+        server.getShop().setJournalFailureListener(e -> System.err.println(
+                "Journal in " + journalDir + " failed, changes are no longer being saved: " + e.getMessage()));
+        try {
+            server.open(dataDir, generate == null);
+        } catch (IOException e) {
+            System.err.println("Could not open journal, changes will not be saved: " + e);
+        }
+        Shop shop = server.getShop();
+        System.out.printf("Recovered %,d records from %s in %d ms; started in %d ms%n",
+                shop.getRecoveredRecords(), dataDir, shop.getRecoveryMillis(),
+                (System.nanoTime() - begin) / 1_000_000);
+        if (generate != null && shop.isEmpty()) {
+            try {
+                DataGenerator.Result result = server.generate(generate);
+                System.out.printf("Generated %,d users, %,d products and %,d orders (seed %d) in %,d ms%n",
+                        result.users, result.products, result.orders, generate.seed, result.millis);
+            } catch (IOException e) {
+                System.err.println("Generating data failed: " + e.getMessage());
+                closeQuietly(server);
+                System.exit(1);
+            }
+        } else if (generate != null) {
+            System.err.println("--generate ignored: " + dataDir + " already has data");
+        }
+
+        int status = 0;
+        for (String[] command : commands) {
+            try {
+                runCommand(server, command[0], command[1], Paths.get(command[2]));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println(command[0] + " " + command[2] + " failed: " + e.getMessage());
+                status = 1;
+            }
+        }
+
+        if (!commands.isEmpty()) {
+            if (!closeQuietly(server)) status = 1;
+            System.exit(status);
+        }
+
+        shop.registerMetrics();
+        Metrics.registerMBean();
+        HttpApi api = new HttpApi(shop);
+        try {
+            api.start(new InetSocketAddress(port));
+        } catch (IOException e) {
+            System.err.println("Could not listen on port " + port + ": " + e);
+            closeQuietly(server);
+            System.exit(1);
+        }
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            api.stop();
+            closeQuietly(server);
+            stopped.countDown();
+        }, "shop-shutdown"));
+        System.out.printf("Serving %,d users, %,d products, %,d orders on http://localhost:%d/api/; stop with Ctrl-C%n",
+                shop.users.size(), shop.products.size(), shop.orders.size(), api.getPort());
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void runCommand(ShopServer server, String command, String kind, Path file) throws IOException {
+        String kindName = kind.toUpperCase(Locale.ROOT);
+        if (command.equals("--import")) {
+            Importer.Result result = server.importFile(Importer.Kind.valueOf(kindName), file);
+            System.out.printf("Imported %,d %s from %s in %d ms (%,d rejected)%n",
+                    result.imported, kind, file, result.millis, result.rejected);
+            result.errors.forEach(error -> System.err.println("  " + error));
+        } else {
+            Exporter.Result result = server.exportFile(Exporter.Kind.valueOf(kindName), file);
+            System.out.printf("Exported %,d %s to %s in %d ms (%,.1f MB)%n",
+                    result.rows, kind, file, result.millis, result.bytes / 1e6);
+        }
+    }
+
+    /**
+     * Closes the server, reporting rather than throwing a failure to save
+     * the journal. False if there was one.
+     */
+    private static boolean closeQuietly(ShopServer server) {
+        try {
+            server.close();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not close journal: " + e);
+            return false;
+        }
+    }
+
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) usage("Missing argument for " + args[args.length - 1]);
+        return args[i];
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: java ShopServer [--data-dir DIR] [--port PORT] [--generate USERS,PRODUCTS,ORDERS[,SEED]]"
+                + " [--import KIND FILE]... [--export KIND FILE]...");
+        System.exit(2);
+    }
+}
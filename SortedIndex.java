@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * A store's entities kept sorted by a long key such as a price, a date or
+ * a status rank, with the ID breaking ties. Tables read it by position for
+ * a sorted view, and a range of keys is one contiguous run of positions,
+ * so a range filter needs two binary searches rather than a scan.
+ *
+ * Entries are held in blocks of at most BLOCK entries, each sorted, in
+ * order, with the keys in a primitive array; IDs are only read from the
+ * entities to break ties. An insert or removal shifts entries within one
+ * block, and lookup by position goes through block start positions that
+ * are recomputed at most once per batch of changes, so either costs
+ * O(BLOCK + n / BLOCK) rather than O(n). A full block is split in half,
+ * except that appending past the last entry starts a new block, so
+ * entries added in key order fill their blocks.
+ *
+ * The index is kept up to date from the store's change notifications and
+ * is confined to the store's owner thread, like the store.
+ */
+public class SortedIndex<T> implements EntityStore.Listener<T> {
+
+    private static final int BLOCK = 512;
+
+    private final ToLongFunction<T> idOf;
+    private final ToLongFunction<T> keyOf;
+    private final List<Block> blocks = new ArrayList<>();
+    private int[] starts = new int[1]; // Position of each block's first entry, then size
+    private boolean startsValid = true;
+    private int size;
+    private long updatingKey;
+
+    public SortedIndex(EntityStore<T> store, ToLongFunction<T> idOf, ToLongFunction<T> keyOf) {
+        this.idOf = idOf;
+        this.keyOf = keyOf;
+        for (T entity : store) {
+            entityAdded(entity);
+        }
+        store.addListener(this);
+    }
+
+    public long keyOf(T entity) {
+        return keyOf.applyAsLong(entity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entity at the given position in key order.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        int[] s = starts();
+        int lo = 0, hi = blocks.size() - 1;
+        while (lo < hi) { // Last block starting at or before the position
+            int mid = (lo + hi + 1) >>> 1;
+            if (s[mid] <= position) lo = mid; else hi = mid - 1;
+        }
+        return (T) blocks.get(lo).entities[position - s[lo]];
+    }
+
+    /**
+     * The position of the first entry with a key of at least low.
+     */
+    public int firstAtLeast(long low) {
+        return rank(low, Long.MIN_VALUE);
+    }
+
+    /**
+     * The position after the last entry with a key of at most high.
+     */
+    public int endAtMost(long high) {
+        return high == Long.MAX_VALUE ? size : rank(high + 1, Long.MIN_VALUE);
+    }
+
+    @Override
+    public void entityAdded(T entity) {
+        insert(keyOf.applyAsLong(entity), idOf.applyAsLong(entity), entity);
+    }
+
+    @Override
+    public void entityRemoved(T entity) {
+        delete(keyOf.applyAsLong(entity), idOf.applyAsLong(entity));
+    }
+
+    @Override
+    public void entityUpdating(T entity) {
+        updatingKey = keyOf.applyAsLong(entity);
+    }
+
+    @Override
+    public void entityUpdated(T entity) {
+        long key = keyOf.applyAsLong(entity);
+        if (key == updatingKey) return;
+        long id = idOf.applyAsLong(entity);
+        delete(updatingKey, id);
+        insert(key, id, entity);
+    }
+
+    /**
+     * Number of entries that sort before (key, id).
+     */
+    private int rank(long key, long id) {
+        int b = blockFor(key, id);
+        if (b < 0) return 0;
+        return starts()[b] + blocks.get(b).search(key, id);
+    }
+
+    /**
+     * The last block whose first entry sorts at or before (key, id), or -1
+     * if there is none.
+     */
+    private int blockFor(long key, long id) {
+        int lo = 0, hi = blocks.size() - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Block block = blocks.get(mid);
+            if (!less(key, id, block.keys[0], block.id(0))) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void insert(long key, long id, T entity) {
+        if (blocks.isEmpty()) blocks.add(new Block());
+        int b = blocks.get(0).size == 0 ? 0 : Math.max(0, blockFor(key, id));
+        Block block = blocks.get(b);
+        int at = block.search(key, id);
+        if (block.size == BLOCK) {
+            Block upper = at == BLOCK && b == blocks.size() - 1 ? new Block() : block.split();
+            blocks.add(b + 1, upper);
+            if (at >= block.size) {
+                at -= block.size;
+                block = upper;
+            }
+        }
+        block.insert(at, key, entity);
+        size++;
+        startsValid = false;
+    }
+
+    private void delete(long key, long id) {
+        int b = blockFor(key, id);
+        if (b < 0) return;
+        Block block = blocks.get(b);
+        int at = block.search(key, id);
+        if (at == block.size || block.keys[at] != key || block.id(at) != id) return;
+        block.remove(at);
+        if (block.size == 0) blocks.remove(b);
+        size--;
+        startsValid = false;
+    }
+
+    private int[] starts() {
+        if (!startsValid) {
+            if (starts.length != blocks.size() + 1) starts = new int[blocks.size() + 1];
+            int position = 0;
+            for (int b = 0; b < blocks.size(); b++) {
+                starts[b] = position;
+                position += blocks.get(b).size;
+            }
+            starts[blocks.size()] = position;
+            startsValid = true;
+        }
+        return starts;
+    }
+
+    private static boolean less(long key, long id, long otherKey, long otherId) {
+        return key < otherKey || (key == otherKey && id < otherId);
+    }
+
+    /**
+     * Up to BLOCK entries in order, in parallel arrays.
+     */
+    private final class Block {
+        final long[] keys = new long[BLOCK];
+        final Object[] entities = new Object[BLOCK];
+        int size;
+
+        @SuppressWarnings("unchecked")
+        long id(int at) {
+            return idOf.applyAsLong((T) entities[at]);
+        }
+
+        /**
+         * Number of entries that sort before (key, id).
+         */
+        int search(long key, long id) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key || (keys[mid] == key && id(mid) < id)) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        void insert(int at, long key, Object entity) {
+            int moved = size - at;
+            System.arraycopy(keys, at, keys, at + 1, moved);
+            System.arraycopy(entities, at, entities, at + 1, moved);
+            keys[at] = key;
+            entities[at] = entity;
+            size++;
+        }
+
+        void remove(int at) {
+            int moved = size - at - 1;
+            System.arraycopy(keys, at + 1, keys, at, moved);
+            System.arraycopy(entities, at + 1, entities, at, moved);
+            entities[--size] = null;
+        }
+
+        /**
+         * Moves the upper half of the entries to a new block and returns it.
+         */
+        Block split() {
+            Block upper = new Block();
+            int half = size / 2;
+            upper.size = size - half;
+            System.arraycopy(keys, half, upper.keys, 0, upper.size);
+            System.arraycopy(entities, half, upper.entities, 0, upper.size);
+            Arrays.fill(entities, half, size, null);
+            size = half;
+            return upper;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * A registered customer.
+ *
+ * The username and email are held here until a store with mapped records
+ * takes the user in; from then on they live in a MappedRecords slot and
+ * this object is only a view of it. Either way they are read and written
+ * through the accessors.
+ */
+public class User {
+    long id;
+    private String username;
+    private String email;
+    private MappedRecords records; // Null while the fields are held here
+    private int slot;
+    public User(long id, String username, String email) {
+        this.id = id; this.username = username; this.email = email;
+    }
+    public User(User other) {
+        this(other.id, other.getUsername(), other.getEmail());
+    }
+
+    public String getUsername() {
+        return records == null ? username : records.getUsername(slot);
+    }
+    public void setUsername(String username) {
+        if (records == null) this.username = username; else records.setUsername(slot, username);
+    }
+    public String getEmail() {
+        return records == null ? email : records.getEmail(slot);
+    }
+    public void setEmail(String email) {
+        if (records == null) this.email = email; else records.setEmail(slot, email);
+    }
+
+    /**
+     * Moves the fields into a new slot of records, unless they are in a
+     * mapped slot already. Owner thread only, before other threads see the
+     * user.
+     */
+    void moveTo(MappedRecords records) {
+        if (this.records != null) return;
+        slot = records.addUser(id, username, email);
+        this.records = records;
+        username = null;
+        email = null;
+    }
+}